@@ -23,12 +23,18 @@ import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Performs the tasks added to its queue, in order.
+ *
+ * More than one thread may run the same TaskThread to work the queue concurrently, 
+ * in which case performTask() must be thread-safe. halt() stops all of them.
+ */
 public abstract class TaskThread<T>
 implements Runnable
 {
     private static final Logger logger = LoggerFactory.getLogger(asl.concurrent.TaskThread.class);
 
-    private boolean running = false;
+    private volatile boolean running = false;
     private LinkedBlockingQueue<Task<T>> queue;
     private long timeout = -1;
     private TimeUnit unit;
@@ -87,6 +93,12 @@ implements Runnable
                 if ((task != null) && (task.getCommand() == "HALT")) {
                     logger.debug("Halt requested.");
                     running = false;
+                    // Pass the halt on to any other threads serving this queue
+                    queue.offer(task);
+                }
+                // Nothing arrived within the timeout
+                else if (task == null) {
+                    timedOut();
                 }
                 // Otherwise hand off the task
                 else {
@@ -107,6 +119,19 @@ implements Runnable
 
     protected abstract void cleanup();
 
+    /**
+     * Called when no task arrives within the timeout (if one is set)
+     */
+    protected void timedOut()
+    {
+    }
+
+ // queue depth
+    public int getQueueSize()
+    {
+        return queue.size();
+    }
+
  // halt
     public void halt()
     throws InterruptedException
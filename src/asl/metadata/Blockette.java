@@ -117,6 +117,20 @@ public class Blockette
         return true;
     }
 
+/**
+ *  Add a value to a field directly (e.g., a field decoded from a binary dataless volume)
+ */
+    public void addFieldValue(int fieldID, String description, String value)
+    {
+        Field field = fields.get(fieldID);
+        if (field == null) {
+            field = new Field(fieldID, description);
+            fields.put(fieldID, field);
+        }
+        field.addValue(value);
+        lastStartID = fieldID;
+    }
+
     public String getFieldValue(int fieldID, int valueIndex)
     {
         String value = null;
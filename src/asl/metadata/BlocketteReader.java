@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package asl.metadata;
+
+import java.io.IOException;
+
+/**
+ * BlocketteReader - A source of the blockettes of a dataless volume, in volume order
+ */
+public interface BlocketteReader
+{
+    /**
+     * Return the next blockette, or null at the end of the volume
+     */
+    public Blockette next() throws IOException;
+
+    public void close() throws IOException;
+}
@@ -37,6 +37,7 @@ public class ChannelData
 
     private Hashtable<Calendar, Blockette> comments;
     private Hashtable<Calendar, EpochData> epochs;
+    private volatile EpochIndex<Calendar> epochIndex;
     private String location = null;
     private String name = null;
 
@@ -108,6 +109,7 @@ public class ChannelData
         Calendar timestamp = BlocketteTimestamp.parseTimestamp(timestampString);
         EpochData data = new EpochData(blockette);
         epochs.put(timestamp, data);
+        epochIndex = null;
         return timestamp;
     }
 
@@ -135,72 +137,41 @@ Epoch index
     //public boolean containsEpoch(Calendar epochTime)
     public Calendar containsEpoch(Calendar epochTime)
     {
-      boolean containsEpochTime = false;
+      EpochIndex<Calendar> index = getEpochIndex();
+      return index.get(epochTime);
+    }
+
+// Build the epoch interval index the first time it's needed after epochs were added.
+// Most likely the newest epoch will be the one we want, but stations with decades of
+// history are looked up for every day of every scan, so we don't search them linearly.
+    private EpochIndex<Calendar> getEpochIndex()
+    {
+      EpochIndex<Calendar> index = epochIndex;
+      if (index != null) {
+        return index;
+      }
 
       ArrayList<Calendar> epochtimes = new ArrayList<Calendar>();
       epochtimes.addAll(epochs.keySet());
       Collections.sort(epochtimes);
-      Collections.reverse(epochtimes);
       int nEpochs = epochtimes.size();
 
-      Calendar startTimeStamp = null;
-      Calendar endTimeStamp = null;
-      Calendar timestamp = null;
-      EpochData epoch = null;
-
-// epochs keys(=timestamps) are now sorted with the newest first
-// most likely the first (=newest) epoch will be the one we want
-// So check the first epoch for the epochTime and if it's not
-//   found (and nEpochs > 1), check the older epochs
-
-      timestamp = epochtimes.get(0);
-      epoch = epochs.get(timestamp);
-      startTimeStamp = epoch.getStartTime();
-      endTimeStamp   = epoch.getEndTime();
-      if (endTimeStamp == null) {            // The first Epoch is open
-         if (epochTime.getTimeInMillis() >= startTimeStamp.getTimeInMillis() ) {
-           containsEpochTime = true;
-         }
-      }                                      // The first Epoch is closed
-      else if (epochTime.getTimeInMillis() >= startTimeStamp.getTimeInMillis() &&
-               epochTime.getTimeInMillis() <= endTimeStamp.getTimeInMillis() ) {
-           containsEpochTime = true;
-      }
-
-      if (!containsEpochTime && nEpochs > 1) { // Search the older epochs if necessary
-        for (int i=1; i<nEpochs; i++){
-           timestamp = epochtimes.get(i); 
-           epoch = epochs.get(timestamp);
-           startTimeStamp = epoch.getStartTime();
-           endTimeStamp   = epoch.getEndTime();
-           if (endTimeStamp == null) {            // This Epoch is open - we don't allow that here!
-              System.out.println("Error: Older Epoch has Open End Time (=null)");
-              //if (epochTime.getTimeInMillis() >= startTimeStamp.getTimeInMillis() ) {
-                //containsEpochTime = true;
-              //}
-              break;
-           } 
-           else if (epochTime.getTimeInMillis() >= startTimeStamp.getTimeInMillis() &&
-                    epochTime.getTimeInMillis() <= endTimeStamp.getTimeInMillis() ) {
-               containsEpochTime = true;
-               break;
-           }
+// Only the newest epoch may be open: an older open epoch hides itself and everything older
+      int first = 0;
+      for (int i=0; i<nEpochs-1; i++){
+        if (epochs.get(epochtimes.get(i)).getEndTime() == null) {
+          System.out.println("Error: Older Epoch has Open End Time (=null)");
+          first = i + 1;
         }
       }
 
-  // These should be the latest ones we checked, so they are correct IF the epochTime was found
-      String epochDateString  = EpochData.epochToDateString(epochTime);
-      String startDateString  = EpochData.epochToDateString(startTimeStamp);
-      String endDateString    = EpochData.epochToDateString(endTimeStamp);
-      if (containsEpochTime){
-        //System.out.format("----ChannelData %s-%s Epoch: [%s - %s] contains EpochTime=%s\n",getLocation(), getName(), startDateString,endDateString,epochDateString);
-        return startTimeStamp;
+      index = new EpochIndex<Calendar>(nEpochs - first);
+      for (int i=first; i<nEpochs; i++){
+        EpochData epoch = epochs.get(epochtimes.get(i));
+        index.add(epoch.getStartTime(), epoch.getEndTime(), epoch.getStartTime());
       }
-      else {
-        //System.out.format("----ChannelData EpochTime=%s was NOT FOUND!!\n",epochDateString);
-        return null;
-      }
-
+      epochIndex = index;
+      return index;
     }
 
     public void printEpochs()
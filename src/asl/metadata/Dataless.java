@@ -82,6 +82,8 @@ package asl.metadata;
 
 import asl.worker.CancelledException;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
@@ -96,8 +98,15 @@ public class Dataless
     private SeedVolume volume;
     private Collection<String> rawDataless;
     private ArrayList<Blockette> blockettes;
+    private File datalessFile;
+    private BlocketteReader reader;
     private boolean complete;
 
+    // The station, channel and epoch that the blockettes being assembled belong to
+    private StationData station;
+    private ChannelData channel;
+    private EpochData epoch;
+
     private double percent;
     private double lastPercent;
     private double count;
@@ -114,6 +123,25 @@ public class Dataless
         this.rawDataless = rawDataless;
         complete = false;
     }
+
+/**
+ *  Read the blockettes directly from the (binary) dataless SEED file, one at a time,
+ *  instead of parsing the text output of rdseed -s
+ */
+    public Dataless(File datalessFile)
+    {
+        this.datalessFile = datalessFile;
+        complete = false;
+    }
+
+/**
+ *  Read the blockettes from reader (e.g., a MetadataSnapshot)
+ */
+    public Dataless(BlocketteReader reader)
+    {
+        this.reader = reader;
+        complete = false;
+    }
 // This should be the one we use until station/network masks are implemented
     public void processVolume() 
     throws CancelledException, DatalessParseException
@@ -133,8 +161,13 @@ public class Dataless
     {
         boolean failed = true;
         try {
-            parse();
-            assemble();
+            if (datalessFile != null || reader != null) {
+                read();
+            }
+            else {
+                parse();
+                assemble();
+            }
             complete = true;
             failed = false;
         } catch (BlocketteFieldIdentifierFormatException exception) {
@@ -253,6 +286,47 @@ public class Dataless
         }
     }
 
+    private void read()
+    throws BlocketteFieldIdentifierFormatException,
+           BlocketteOutOfOrderException,
+           CancelledException,
+           DatalessParseException,
+           DuplicateBlocketteException,
+           MissingBlocketteDataException,
+           TimestampFormatException,
+           WrongBlocketteException
+    {
+        count = 0.0;
+        stage = "Reading Dataless";
+
+     // Keep the blockettes read so that they can be written to a MetadataSnapshot
+        blockettes = new ArrayList<Blockette>();
+        String source = (datalessFile != null) ? datalessFile.toString() : reader.toString();
+        try {
+            if (reader == null) {
+                reader = new DatalessReader(datalessFile);
+            }
+            Blockette blockette;
+            while ((blockette = reader.next()) != null) {
+                checkCancel();
+                count++;
+                blockettes.add(blockette);
+                assemble(blockette);
+            }
+        } catch (IOException exception) {
+            logger.error("Error reading dataless " + source + ": " + exception.getMessage());
+            throw new DatalessParseException(exception.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException exception) {
+                    logger.warn("Error closing dataless " + source + ": " + exception.getMessage());
+                }
+            }
+        }
+    }
+
     private void assemble()
     throws BlocketteFieldIdentifierFormatException,
            BlocketteOutOfOrderException,
@@ -275,9 +349,6 @@ public class Dataless
         lastPercent = 0.0;
         stage = "Assembling Data";
 
-        StationData station = null;
-        ChannelData channel = null;
-        EpochData epoch = null;
 
         for (Blockette blockette: blockettes)
         {
@@ -291,93 +362,105 @@ public class Dataless
                 //   progress(stage, count, total)
             }
 
-            int blocketteNumber = blockette.getNumber();
-
-            switch (blocketteNumber) {
-                case 10:
-                // MTH: As it stands, a Dataless object is only expecting to create
-                //      a *single* Volume corresponding to a single Network dataless
-                //      This could be modified so that we close out a previously created
-                //      SeedVolume and create a new one when we encounter a Blockette B010.
-                //      Then a List<SeedVolume> could be handed back via getVolumes() ...
-                    if (volume != null) {
-                        throw new DuplicateBlocketteException();
-                    }
-                    volume = new SeedVolume(blockette);
-                    break;
-                case 11:
-                    if (volume == null) {
-                        throw new BlocketteOutOfOrderException();
-                    }
-                    volume.addStationLocator(blockette);
-                    break;
-                case 50:
-                    if (volume == null) {
-                        throw new BlocketteOutOfOrderException();
-                    }
-                    StationKey stationKey = new StationKey(blockette);
+            assemble(blockette);
+        }
+    }
+
+    private void assemble(Blockette blockette)
+    throws BlocketteFieldIdentifierFormatException,
+           BlocketteOutOfOrderException,
+           DuplicateBlocketteException,
+           MissingBlocketteDataException,
+           TimestampFormatException,
+           WrongBlocketteException
+    {
+        int blocketteNumber = blockette.getNumber();
+
+        switch (blocketteNumber) {
+            case 10:
+            // MTH: As it stands, a Dataless object is only expecting to create
+            //      a *single* Volume corresponding to a single Network dataless
+            //      This could be modified so that we close out a previously created
+            //      SeedVolume and create a new one when we encounter a Blockette B010.
+            //      Then a List<SeedVolume> could be handed back via getVolumes() ...
+                if (volume != null) {
+                    throw new DuplicateBlocketteException();
+                }
+                volume = new SeedVolume(blockette);
+                break;
+            case 11:
+                if (volume == null) {
+                    throw new BlocketteOutOfOrderException();
+                }
+                volume.addStationLocator(blockette);
+                break;
+            case 50:
+                if (volume == null) {
+                    throw new BlocketteOutOfOrderException();
+                }
+                StationKey stationKey = new StationKey(blockette);
 //System.out.format("  Dataless: blockette 50, stationKey=%s\n",stationKey);
-                    if (!volume.hasStation(stationKey)) {
+                if (!volume.hasStation(stationKey)) {
 //System.out.format("  Dataless: call new StationData(%s,%s)\n",stationKey.getNetwork(), stationKey.getName() );
-                        station = new StationData(stationKey.getNetwork(), stationKey.getName());
-                        volume.addStation(stationKey, station);
-                    } else {
-                        station = volume.getStation(stationKey);
+                    station = new StationData(stationKey.getNetwork(), stationKey.getName());
+                    volume.addStation(stationKey, station);
+                } else {
+                    station = volume.getStation(stationKey);
 //System.out.format("  Dataless: getStation, stationKey=%s station name=%s\n",stationKey,station.getName());
-                    }
-                    station.addEpoch(blockette);
-                    break;
-                case 51:
-                    if (station == null) {
-                        throw new BlocketteOutOfOrderException();
-                    }
-                    station.addComment(blockette);
-                    break;
-                case 52:
-                    if (station == null) {
-                        throw new BlocketteOutOfOrderException();
-                    }
-                    //ChannelKey channelKey = new ChannelKey(blockette);
-                    ChannelKey channelKey = null;
-                    try {
-                        channelKey = new ChannelKey(blockette);
-                    }
-                    catch (Exception e) {
-                        logger.error( String.format("Dataless: caught new ChannelKey Exception:%s", e) );
-                    }
-                    if (!station.hasChannel(channelKey)) {
-                        //channel = new ChannelData(channelKey.getLocation(), channelKey.getName());
-                        channel = new ChannelData(channelKey);
-                        station.addChannel(channelKey, channel);
-                    } else {
-                        channel = station.getChannel(channelKey);
-                    }
-                    Calendar epochKey = channel.addEpoch(blockette);
-                    epoch = channel.getEpoch(epochKey);
-                    break;
-                case 30:
-                    if (epoch == null) {
-                        throw new BlocketteOutOfOrderException();
-                    }
-                    epoch.setFormat(blockette);
-                    break;
-                case 59:
-                    if (channel == null) {
-                        throw new BlocketteOutOfOrderException();
-                    }
-                    channel.addComment(blockette);
-                    break;
-                case 53:
-                case 54:
-                case 55:
-                case 56:
-                case 57:
-                case 58:
-                case 61:
-                case 62:
-                    if (epoch == null) {
-                        throw new BlocketteOutOfOrderException();
-                    }
+                }
+                station.addEpoch(blockette);
+                break;
+            case 51:
+                if (station == null) {
+                    throw new BlocketteOutOfOrderException();
+                }
+                station.addComment(blockette);
+                break;
+            case 52:
+                if (station == null) {
+                    throw new BlocketteOutOfOrderException();
+                }
+                //ChannelKey channelKey = new ChannelKey(blockette);
+                ChannelKey channelKey = null;
+                try {
+                    channelKey = new ChannelKey(blockette);
+                }
+                catch (Exception e) {
+                    logger.error( String.format("Dataless: caught new ChannelKey Exception:%s", e) );
+                }
+                if (!station.hasChannel(channelKey)) {
+                    //channel = new ChannelData(channelKey.getLocation(), channelKey.getName());
+                    channel = new ChannelData(channelKey);
+                    station.addChannel(channelKey, channel);
+                } else {
+                    channel = station.getChannel(channelKey);
+                }
+                Calendar epochKey = channel.addEpoch(blockette);
+                epoch = channel.getEpoch(epochKey);
+                break;
+            case 30:
+                if (epoch == null) {
+                    throw new BlocketteOutOfOrderException();
+                }
+                epoch.setFormat(blockette);
+                break;
+            case 59:
+                if (channel == null) {
+                    throw new BlocketteOutOfOrderException();
+                }
+                channel.addComment(blockette);
+                break;
+            case 53:
+            case 54:
+            case 55:
+            case 56:
+            case 57:
+            case 58:
+            case 61:
+            case 62:
+                if (epoch == null) {
+                    throw new BlocketteOutOfOrderException();
+                }
 /** MTH: I see the following output from rdseed -s:
   *      B053F04	Stage Sequence Number:	1
   *      B058F03	Stage Sequence Number:	1
@@ -386,31 +469,39 @@ public class Dataless
   *      B058F03	Stage Sequence Number:	2
   *      B054F04	Stage Sequence Number:	3
 **/
-                    //int stageKey = Integer.parseInt(blockette.getFieldValue(3, 0));
-                    int stageKey;
-                    if (blocketteNumber == 57 || blocketteNumber == 58){
-                        stageKey = Integer.parseInt(blockette.getFieldValue(3, 0));
-                    }
-                    else {
-                        stageKey = Integer.parseInt(blockette.getFieldValue(4, 0));
-                    }
-                    
-                    if (!epoch.hasStage(stageKey)) {
-                        epoch.addStage(stageKey, new StageData(stageKey));
-                    }
-                    StageData stage = epoch.getStage(stageKey);
-                    stage.addBlockette(blockette);
-                    break;
-                default:
-                    if (epoch == null) {
-                        throw new BlocketteOutOfOrderException();
-                    }
-                    epoch.addMiscBlockette(blockette);
-                    break;
-            }
+                //int stageKey = Integer.parseInt(blockette.getFieldValue(3, 0));
+                int stageKey;
+             // The stage sequence number is field 3 of B055, B056, B057, B058 and B061 but field 4 of B053, B054 and B062
+                if (blocketteNumber == 55 || blocketteNumber == 56 || blocketteNumber == 57 ||
+                    blocketteNumber == 58 || blocketteNumber == 61){
+                    stageKey = Integer.parseInt(blockette.getFieldValue(3, 0));
+                }
+                else {
+                    stageKey = Integer.parseInt(blockette.getFieldValue(4, 0));
+                }
+                
+                if (!epoch.hasStage(stageKey)) {
+                    epoch.addStage(stageKey, new StageData(stageKey));
+                }
+                StageData stage = epoch.getStage(stageKey);
+                stage.addBlockette(blockette);
+                break;
+            default:
+                if (epoch == null) {
+                    throw new BlocketteOutOfOrderException();
+                }
+                epoch.addMiscBlockette(blockette);
+                break;
         }
     }
 
+/**
+ *  Blockettes the volume was assembled from
+ */
+    public ArrayList<Blockette> getBlockettes(){
+      return blockettes;
+    }
+
     public SeedVolume getVolume(){
       return volume;
     }
@@ -0,0 +1,645 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package asl.metadata;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Hashtable;
+
+/**
+ * DatalessReader - Reads the control blockettes of a (binary) dataless SEED volume
+ *
+ * Takes the place of rdseed -s: The logical records are read one at a time and each 
+ * blockette is decoded into a Blockette with the SEED field numbers and (for the fields
+ * we use) the value strings that rdseed prints, so that Dataless assembles them the same 
+ * way as rdseed's output, e.g.,
+ *
+ *   B053F03  Transfer function type:  A [Laplace Transform (Rad/sec)]
+ *   B053F05  Response in units lookup:  M/S - Velocity in Meters Per Second
+ *   B058F05  Frequency of sensitivity/gain:  2.00000E-02 HZ
+ *   B052F23  End date:  (null)
+ *
+ * As with rdseed -s, the abbreviation dictionaries (B030-B034) are not returned: lookup codes
+ * are replaced by the abbreviations they refer to, and a channel's data format (B030) is
+ * returned right after its B052.
+ */
+public class DatalessReader
+    implements BlocketteReader
+{
+    private static final Logger logger = LoggerFactory.getLogger(asl.metadata.DatalessReader.class);
+
+    // Bump whenever a change to the decoding alters the blockettes returned:
+    // metadata snapshots written by another version are decoded again
+    static final int DECODER_VERSION = 1;
+
+    private static final Charset ASCII = Charset.forName("ISO-8859-1");
+
+    private static final int DEFAULT_RECORD_LENGTH   = 4096;
+    private static final int RECORD_HEADER_LENGTH    = 8;
+    private static final int BLOCKETTE_HEADER_LENGTH = 7;
+
+    private InputStream in;
+
+    private byte[] record = null;
+    private int recordLength = 0;
+    private int position = 0;           // Next unread byte of record
+    private long recordCount = 0;
+
+ // A blockette that continues into the next record(s). Until its (7 byte) header
+ // is complete we don't know its length.
+    private byte[] partial = null;
+    private int partialLength = 0;
+    private boolean partialSized = false;
+
+ // Decoded blockettes waiting to be returned by next()
+    private ArrayDeque<Blockette> ready = new ArrayDeque<Blockette>();
+
+ // Abbreviation dictionaries
+    private Hashtable<Integer, Blockette> formats   = new Hashtable<Integer, Blockette>();  // B030
+    private Hashtable<Integer, String> comments      = new Hashtable<Integer, String>();     // B031
+    private Hashtable<Integer, String> abbreviations = new Hashtable<Integer, String>();     // B033
+    private Hashtable<Integer, String> units         = new Hashtable<Integer, String>();     // B034
+
+    private boolean warnedResponseReference = false;
+
+    public DatalessReader(File datalessFile)
+    throws IOException
+    {
+        this(new BufferedInputStream(new FileInputStream(datalessFile), 1 << 16));
+    }
+
+    public DatalessReader(InputStream in)
+    {
+        this.in = in;
+    }
+
+    public void close()
+    throws IOException
+    {
+        in.close();
+    }
+
+/**
+ *  Return the next blockette of the volume, or null at the end of the volume
+ */
+    public Blockette next()
+    throws IOException
+    {
+        while (ready.isEmpty()) {
+            byte[] data = nextBlockette();
+            if (data == null) {
+                return null;
+            }
+            decode(data);
+        }
+        return ready.poll();
+    }
+
+/**
+ *  Return the raw bytes (header included) of the next blockette, joining blockettes
+ *  that are continued across records. Returns null at the end of the volume.
+ */
+    private byte[] nextBlockette()
+    throws IOException
+    {
+        while (true) {
+            if (record == null || position + BLOCKETTE_HEADER_LENGTH > recordLength) {
+             // Fewer than 7 bytes left in the record are either padding or the start of a blockette header
+                if (record != null && position < recordLength && Character.isDigit((char)record[position])) {
+                    partial = new byte[BLOCKETTE_HEADER_LENGTH];
+                    partialLength = recordLength - position;
+                    partialSized = false;
+                    System.arraycopy(record, position, partial, 0, partialLength);
+                }
+                if (!readRecord()) {
+                    if (partial != null) {
+                        logger.warn("Dataless volume ends inside a blockette --> drop it");
+                    }
+                    return null;
+                }
+                char type = (char)record[6];
+                boolean continued = (record[7] == '*');
+
+                if (partial != null) {
+                    if (continued && !partialSized) {
+                        int n = BLOCKETTE_HEADER_LENGTH - partialLength;
+                        System.arraycopy(record, position, partial, partialLength, n);
+                        partialLength += n;
+                        position += n;
+                        int length = integer(ascii(partial, 3, 4), -1);
+                        if (length < BLOCKETTE_HEADER_LENGTH) {
+                            logger.warn(String.format("Invalid blockette header [%s] in record %d", ascii(partial, 0, 7), recordCount));
+                            partial = null;
+                            continue;
+                        }
+                        byte[] blockette = new byte[length];
+                        System.arraycopy(partial, 0, blockette, 0, BLOCKETTE_HEADER_LENGTH);
+                        partial = blockette;
+                        partialSized = true;
+                    }
+                    if (continued) {
+                        int n = Math.min(partial.length - partialLength, recordLength - position);
+                        System.arraycopy(record, position, partial, partialLength, n);
+                        partialLength += n;
+                        position += n;
+                        if (partialLength == partial.length) {
+                            byte[] blockette = partial;
+                            partial = null;
+                            return blockette;
+                        }
+                        continue;
+                    }
+                    logger.warn(String.format("Record %d doesn't continue the unfinished blockette B%s --> drop it",
+                                              recordCount, ascii(partial, 0, 3)));
+                    partial = null;
+                }
+                else if (continued) { // Rest of a blockette we don't have the start of
+                    position = recordLength;
+                    continue;
+                }
+
+                if (type != 'V' && type != 'A' && type != 'S' && type != 'T') { // Data record (or empty)
+                    position = recordLength;
+                    continue;
+                }
+            }
+
+            int number = integer(ascii(record, position, 3), -1);
+            int length = integer(ascii(record, position + 3, 4), -1);
+            if (number < 0 || length < BLOCKETTE_HEADER_LENGTH) { // Padding to the end of the record
+                position = recordLength;
+                continue;
+            }
+
+            if (position + length <= recordLength) {
+                byte[] blockette = new byte[length];
+                System.arraycopy(record, position, blockette, 0, length);
+                position += length;
+                return blockette;
+            }
+
+         // This blockette continues in the next record
+            partial = new byte[length];
+            partialSized = true;
+            partialLength = recordLength - position;
+            System.arraycopy(record, position, partial, 0, partialLength);
+            position = recordLength;
+        }
+    }
+
+/**
+ *  Read the next logical record. The length of the records is taken from the volume
+ *  identifier blockette (B010) at the start of the first record.
+ */
+    private boolean readRecord()
+    throws IOException
+    {
+        int offset = 0;
+        if (record == null) {
+         // Record header + B010 header + F03 (version) + F04 (log2 of record length)
+            byte[] head = new byte[RECORD_HEADER_LENGTH + BLOCKETTE_HEADER_LENGTH + 6];
+            if (!readFully(head, 0, head.length)) {
+                return false;
+            }
+            recordLength = DEFAULT_RECORD_LENGTH;
+            String number = ascii(head, RECORD_HEADER_LENGTH, 3);
+            if (number.equals("010") || number.equals("008") || number.equals("005")) {
+                int exponent = integer(ascii(head, RECORD_HEADER_LENGTH + BLOCKETTE_HEADER_LENGTH + 4, 2), -1);
+                if (exponent >= 8 && exponent <= 16) {
+                    recordLength = 1 << exponent;
+                }
+            }
+            else {
+                logger.warn("Dataless volume doesn't start with a volume identifier blockette --> assume record length=" + recordLength);
+            }
+            record = new byte[recordLength];
+            System.arraycopy(head, 0, record, 0, head.length);
+            offset = head.length;
+        }
+        if (!readFully(record, offset, recordLength - offset)) {
+            if (offset > 0) {
+                throw new IOException("Dataless volume is shorter than its first record");
+            }
+            return false;
+        }
+        recordCount++;
+        position = RECORD_HEADER_LENGTH;
+        return true;
+    }
+
+/**
+ *  Fill buffer[offset, offset + length) from the volume. Returns false if the volume has ended
+ *  (a final, incomplete record is ignored).
+ */
+    private boolean readFully(byte[] buffer, int offset, int length)
+    throws IOException
+    {
+        int n = 0;
+        while (n < length) {
+            int count = in.read(buffer, offset + n, length - n);
+            if (count < 0) {
+                if (n > 0) {
+                    logger.warn(String.format("Dataless volume ends with an incomplete record (%d bytes) --> ignore it", n));
+                }
+                return false;
+            }
+            n += count;
+        }
+        return true;
+    }
+
+    private void decode(byte[] data)
+    throws IOException
+    {
+        int number = integer(ascii(data, 0, 3), -1);
+        Fields fields = new Fields(number, data);
+        Blockette blockette = new Blockette(number);
+
+        switch (number) {
+            case 10: // Volume identifier
+                blockette.addFieldValue(3, "Format version", fields.fixed(4));
+                blockette.addFieldValue(4, "Logical record length", integer(fields.fixed(2)));
+                blockette.addFieldValue(5, "Beginning time", fields.variable());
+                blockette.addFieldValue(6, "End time", fields.variable());
+                if (fields.hasMore()) { // SEED 2.3+
+                    blockette.addFieldValue(7, "Volume time", fields.variable());
+                    blockette.addFieldValue(8, "Originating organization", fields.variable());
+                    blockette.addFieldValue(9, "Label", fields.variable());
+                }
+                ready.add(blockette);
+                break;
+            case 11: // Volume station header index
+                int nStations = integer(fields.fixed(3), 0);
+                blockette.addFieldValue(3, "Number of stations", Integer.toString(nStations));
+                for (int i = 0; i < nStations; i++) {
+                    blockette.addFieldValue(4, "Station identifier code", fields.fixed(5));
+                    blockette.addFieldValue(5, "Sequence no. of station header", integer(fields.fixed(6)));
+                }
+                ready.add(blockette);
+                break;
+            case 30: // Data format dictionary
+                blockette.addFieldValue(3, "Format Name", fields.variable());
+                int formatCode = integer(fields.fixed(4), -1);
+                blockette.addFieldValue(4, "Format Identifier Code", Integer.toString(formatCode));
+                blockette.addFieldValue(5, "Data family", integer(fields.fixed(3)));
+                int nKeys = integer(fields.fixed(2), 0);
+                blockette.addFieldValue(6, "Number of decoder keys", Integer.toString(nKeys));
+                for (int i = 0; i < nKeys; i++) {
+                    blockette.addFieldValue(7, "Decoder key", fields.variable());
+                }
+                formats.put(formatCode, blockette);
+                break;
+            case 31: // Comment description
+                int commentCode = integer(fields.fixed(4), -1);
+                fields.fixed(1); // Comment class code
+                comments.put(commentCode, fields.variable());
+                break;
+            case 33: // Generic abbreviation
+                int abbreviationCode = integer(fields.fixed(3), -1);
+                abbreviations.put(abbreviationCode, fields.variable());
+                break;
+            case 34: // Units abbreviation
+                int unitsCode = integer(fields.fixed(3), -1);
+                String unitName = fields.variable();
+                String unitDescription = fields.variable();
+                units.put(unitsCode, unitDescription.length() > 0 ? unitName + " - " + unitDescription : unitName);
+                break;
+            case 50: // Station identifier
+                blockette.addFieldValue(3, "Station call letters", fields.fixed(5));
+                blockette.addFieldValue(4, "Latitude", fields.fixed(10));
+                blockette.addFieldValue(5, "Longitude", fields.fixed(11));
+                blockette.addFieldValue(6, "Elevation", fields.fixed(7));
+                blockette.addFieldValue(7, "Number of channels", integer(fields.fixed(4)));
+                blockette.addFieldValue(8, "Number of station comments", integer(fields.fixed(3)));
+                blockette.addFieldValue(9, "Site name", fields.variable());
+                blockette.addFieldValue(10, "Network identifier code", lookup(abbreviations, fields.fixed(3)));
+                blockette.addFieldValue(11, "32 bit word order", fields.fixed(4));
+                blockette.addFieldValue(12, "16 bit word order", fields.fixed(2));
+                blockette.addFieldValue(13, "Start date", fields.variable());
+                blockette.addFieldValue(14, "End date", orNull(fields.variable()));
+                blockette.addFieldValue(15, "Update flag", fields.fixed(1));
+                if (fields.hasMore()) { // SEED 2.3+
+                    blockette.addFieldValue(16, "Network Code", fields.fixed(2));
+                }
+                ready.add(blockette);
+                break;
+            case 51: // Station comment
+            case 59: // Channel comment
+                blockette.addFieldValue(3, "Beginning of comment", fields.variable());
+                blockette.addFieldValue(4, "End of comment", orNull(fields.variable()));
+                blockette.addFieldValue(5, "Comment code key", lookup(comments, fields.fixed(4)));
+                blockette.addFieldValue(6, "Comment level", integer(fields.fixed(6)));
+                ready.add(blockette);
+                break;
+            case 52: // Channel identifier
+                blockette.addFieldValue(3, "Location", fields.fixed(2));
+                blockette.addFieldValue(4, "Channel", fields.fixed(3));
+                blockette.addFieldValue(5, "Subchannel", integer(fields.fixed(4)));
+                blockette.addFieldValue(6, "Instrument lookup", lookup(abbreviations, fields.fixed(3)));
+                blockette.addFieldValue(7, "Comment", orNull(fields.variable()));
+                blockette.addFieldValue(8, "Signal units lookup", units(fields.fixed(3)));
+                blockette.addFieldValue(9, "Calibration units lookup", units(fields.fixed(3)));
+                blockette.addFieldValue(10, "Latitude", fields.fixed(10));
+                blockette.addFieldValue(11, "Longitude", fields.fixed(11));
+                blockette.addFieldValue(12, "Elevation", fields.fixed(7));
+                blockette.addFieldValue(13, "Local depth", fields.fixed(5));
+                blockette.addFieldValue(14, "Azimuth", fields.fixed(5));
+                blockette.addFieldValue(15, "Dip", fields.fixed(5));
+                int channelFormat = integer(fields.fixed(4), -1);
+                blockette.addFieldValue(16, "Format lookup", Integer.toString(channelFormat));
+                blockette.addFieldValue(17, "Log2 of Data record length", integer(fields.fixed(2)));
+                blockette.addFieldValue(18, "Sample rate", fields.fixed(10));
+                blockette.addFieldValue(19, "Clock tolerance", fields.fixed(10));
+                blockette.addFieldValue(20, "Number of comments", integer(fields.fixed(4)));
+                blockette.addFieldValue(21, "Channel flags", fields.variable());
+                blockette.addFieldValue(22, "Start date", fields.variable());
+                blockette.addFieldValue(23, "End date", orNull(fields.variable()));
+                blockette.addFieldValue(24, "Update flag", fields.fixed(1));
+                ready.add(blockette);
+                if (formats.containsKey(channelFormat)) {
+                    ready.add(formats.get(channelFormat));
+                }
+                break;
+            case 53: // Response (poles & zeros)
+                blockette.addFieldValue(3, "Transfer function type", responseType(fields.fixed(1)));
+                blockette.addFieldValue(4, "Stage sequence number", integer(fields.fixed(2)));
+                blockette.addFieldValue(5, "Response in units lookup", units(fields.fixed(3)));
+                blockette.addFieldValue(6, "Response out units lookup", units(fields.fixed(3)));
+                blockette.addFieldValue(7, "A0 normalization factor", fields.fixed(12));
+                blockette.addFieldValue(8, "Normalization frequency", fields.fixed(12));
+                int nZeros = integer(fields.fixed(3), 0);
+                blockette.addFieldValue(9, "Number of zeroes", Integer.toString(nZeros));
+                for (int i = 0; i < nZeros; i++) {
+                    blockette.addFieldValue(10, "Real zero", fields.fixed(12));
+                    blockette.addFieldValue(11, "Imaginary zero", fields.fixed(12));
+                    blockette.addFieldValue(12, "Real zero error", fields.fixed(12));
+                    blockette.addFieldValue(13, "Imaginary zero error", fields.fixed(12));
+                }
+                int nPoles = integer(fields.fixed(3), 0);
+                blockette.addFieldValue(14, "Number of poles", Integer.toString(nPoles));
+                for (int i = 0; i < nPoles; i++) {
+                    blockette.addFieldValue(15, "Real pole", fields.fixed(12));
+                    blockette.addFieldValue(16, "Imaginary pole", fields.fixed(12));
+                    blockette.addFieldValue(17, "Real pole error", fields.fixed(12));
+                    blockette.addFieldValue(18, "Imaginary pole error", fields.fixed(12));
+                }
+                ready.add(blockette);
+                break;
+            case 54: // Response (coefficients)
+                blockette.addFieldValue(3, "Response type", responseType(fields.fixed(1)));
+                blockette.addFieldValue(4, "Stage sequence number", integer(fields.fixed(2)));
+                blockette.addFieldValue(5, "Response in units lookup", units(fields.fixed(3)));
+                blockette.addFieldValue(6, "Response out units lookup", units(fields.fixed(3)));
+                int nNumerators = integer(fields.fixed(4), 0);
+                blockette.addFieldValue(7, "Number of numerators", Integer.toString(nNumerators));
+                for (int i = 0; i < nNumerators; i++) {
+                    blockette.addFieldValue(8, "Numerator coefficient", fields.fixed(12));
+                    blockette.addFieldValue(9, "Numerator error", fields.fixed(12));
+                }
+                int nDenominators = integer(fields.fixed(4), 0);
+                blockette.addFieldValue(10, "Number of denominators", Integer.toString(nDenominators));
+                for (int i = 0; i < nDenominators; i++) {
+                    blockette.addFieldValue(11, "Denominator coefficient", fields.fixed(12));
+                    blockette.addFieldValue(12, "Denominator error", fields.fixed(12));
+                }
+                ready.add(blockette);
+                break;
+            case 55: // Response list
+                blockette.addFieldValue(3, "Stage sequence number", integer(fields.fixed(2)));
+                blockette.addFieldValue(4, "Response in units lookup", units(fields.fixed(3)));
+                blockette.addFieldValue(5, "Response out units lookup", units(fields.fixed(3)));
+                int nResponses = integer(fields.fixed(4), 0);
+                blockette.addFieldValue(6, "Number of responses listed", Integer.toString(nResponses));
+                for (int i = 0; i < nResponses; i++) {
+                    blockette.addFieldValue(7, "Frequency", fields.fixed(12));
+                    blockette.addFieldValue(8, "Amplitude", fields.fixed(12));
+                    blockette.addFieldValue(9, "Amplitude error", fields.fixed(12));
+                    blockette.addFieldValue(10, "Phase angle", fields.fixed(12));
+                    blockette.addFieldValue(11, "Phase error", fields.fixed(12));
+                }
+                ready.add(blockette);
+                break;
+            case 56: // Generic response
+                blockette.addFieldValue(3, "Stage sequence number", integer(fields.fixed(2)));
+                blockette.addFieldValue(4, "Response in units lookup", units(fields.fixed(3)));
+                blockette.addFieldValue(5, "Response out units lookup", units(fields.fixed(3)));
+                int nCorners = integer(fields.fixed(4), 0);
+                blockette.addFieldValue(6, "Number of corners listed", Integer.toString(nCorners));
+                for (int i = 0; i < nCorners; i++) {
+                    blockette.addFieldValue(7, "Corner frequency", fields.fixed(12));
+                    blockette.addFieldValue(8, "Corner slope", fields.fixed(12));
+                }
+                ready.add(blockette);
+                break;
+            case 57: // Decimation
+                blockette.addFieldValue(3, "Stage sequence number", integer(fields.fixed(2)));
+                blockette.addFieldValue(4, "Input sample rate", fields.fixed(10));
+                blockette.addFieldValue(5, "Decimation factor", integer(fields.fixed(5)));
+                blockette.addFieldValue(6, "Decimation offset", integer(fields.fixed(5)));
+                blockette.addFieldValue(7, "Estimated delay (seconds)", fields.fixed(11));
+                blockette.addFieldValue(8, "Correction applied (seconds)", fields.fixed(11));
+                ready.add(blockette);
+                break;
+            case 58: // Channel sensitivity/gain
+                blockette.addFieldValue(3, "Stage sequence number", integer(fields.fixed(2)));
+                blockette.addFieldValue(4, "Sensitivity", fields.fixed(12));
+                blockette.addFieldValue(5, "Frequency of sensitivity", fields.fixed(12) + " HZ");
+                int nCalibrations = integer(fields.fixed(2), 0);
+                blockette.addFieldValue(6, "Number of calibrations", Integer.toString(nCalibrations));
+                for (int i = 0; i < nCalibrations; i++) {
+                    blockette.addFieldValue(7, "Sensitivity for calibration", fields.fixed(12));
+                    blockette.addFieldValue(8, "Frequency of calibration sensitivity", fields.fixed(12) + " HZ");
+                    blockette.addFieldValue(9, "Time of above calibration", fields.variable());
+                }
+                ready.add(blockette);
+                break;
+            case 60: // Response reference (to the response dictionaries B041-B048)
+                if (!warnedResponseReference) {
+                    logger.warn("Dataless volume uses response dictionary references (B060), which are not expanded");
+                    warnedResponseReference = true;
+                }
+                break;
+            case 61: // FIR response
+                blockette.addFieldValue(3, "Stage sequence number", integer(fields.fixed(2)));
+                blockette.addFieldValue(4, "Response Name", fields.variable());
+                blockette.addFieldValue(5, "Symmetry Code", fields.fixed(1));
+                blockette.addFieldValue(6, "Response in units lookup", units(fields.fixed(3)));
+                blockette.addFieldValue(7, "Response out units lookup", units(fields.fixed(3)));
+                int nCoefficients = integer(fields.fixed(4), 0);
+                blockette.addFieldValue(8, "Number of Coefficients", Integer.toString(nCoefficients));
+                for (int i = 0; i < nCoefficients; i++) {
+                    blockette.addFieldValue(9, "FIR Coefficient", fields.fixed(14));
+                }
+                ready.add(blockette);
+                break;
+            case 62: // Response (polynomial)
+                blockette.addFieldValue(3, "Transfer function type", responseType(fields.fixed(1)));
+                blockette.addFieldValue(4, "Stage sequence number", integer(fields.fixed(2)));
+                blockette.addFieldValue(5, "Response in units lookup", units(fields.fixed(3)));
+                blockette.addFieldValue(6, "Response out units lookup", units(fields.fixed(3)));
+                blockette.addFieldValue(7, "Polynomial approximation type", approximationType(fields.fixed(1)));
+                blockette.addFieldValue(8, "Valid frequency units", frequencyUnits(fields.fixed(1)));
+                blockette.addFieldValue(9, "Lower valid frequency bound", fields.fixed(12));
+                blockette.addFieldValue(10, "Upper valid frequency bound", fields.fixed(12));
+                blockette.addFieldValue(11, "Lower bound of approximation", fields.fixed(12));
+                blockette.addFieldValue(12, "Upper bound of approximation", fields.fixed(12));
+                blockette.addFieldValue(13, "Maximum absolute error", fields.fixed(12));
+                int nPolynomial = integer(fields.fixed(3), 0);
+                blockette.addFieldValue(14, "Number of coefficients", Integer.toString(nPolynomial));
+                for (int i = 0; i < nPolynomial; i++) {
+                    blockette.addFieldValue(15, "Polynomial coefficient", fields.fixed(12));
+                    blockette.addFieldValue(16, "Polynomial coefficient error", fields.fixed(12));
+                }
+                ready.add(blockette);
+                break;
+            default: // Other dictionaries (B032, B035, B041-B048), time span and field volume blockettes
+                break;
+        }
+    }
+
+    private static String ascii(byte[] data, int offset, int length)
+    {
+        return new String(data, offset, length, ASCII);
+    }
+
+/**
+ *  Parse a (possibly signed, space padded) SEED integer field, returning defaultValue if it isn't one
+ */
+    private static int integer(String value, int defaultValue)
+    {
+        String s = value.trim();
+        if (s.startsWith("+")) {
+            s = s.substring(1);
+        }
+        try {
+            return Integer.parseInt(s);
+        }
+        catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+/**
+ *  Integer field as rdseed prints it (e.g., "01" --> "1")
+ */
+    private static String integer(String value)
+    {
+        int n = integer(value, Integer.MIN_VALUE);
+        return (n == Integer.MIN_VALUE) ? value.trim() : Integer.toString(n);
+    }
+
+    private static String orNull(String value)
+    {
+        return (value.length() == 0) ? "(null)" : value;
+    }
+
+/**
+ *  Lookup code followed by the abbreviation it refers to, e.g., "12  Kinemetrics FBA ES-T EpiSensor Accelerometer"
+ */
+    private static String lookup(Hashtable<Integer, String> dictionary, String code)
+    {
+        String abbreviation = dictionary.get(integer(code, -1));
+        return (abbreviation == null) ? integer(code) : integer(code) + "  " + abbreviation;
+    }
+
+/**
+ *  Units abbreviation the lookup code refers to, e.g., "M/S - Velocity in Meters Per Second"
+ */
+    private String units(String code)
+    {
+        String unit = units.get(integer(code, -1));
+        return (unit == null) ? integer(code) : unit;
+    }
+
+    private static String responseType(String type)
+    {
+        if (type.equals("A")) return "A [Laplace Transform (Rad/sec)]";
+        if (type.equals("B")) return "B [Analog (Hz)]";
+        if (type.equals("C")) return "C [Composite]";
+        if (type.equals("D")) return "D [Digital (Z-transform)]";
+        if (type.equals("P")) return "P [Polynomial]";
+        return type;
+    }
+
+    private static String approximationType(String type)
+    {
+        if (type.equals("M")) return "M [MacLaurin]";
+        return type;
+    }
+
+    private static String frequencyUnits(String units)
+    {
+        if (units.equals("A")) return "A [rad/sec]";
+        if (units.equals("B")) return "B [Hz]";
+        return units;
+    }
+
+/**
+ *  Reads the fields of a blockette in order
+ */
+    private static class Fields
+    {
+        private int number;
+        private byte[] data;
+        private int position = BLOCKETTE_HEADER_LENGTH;
+
+        private Fields(int number, byte[] data)
+        {
+            this.number = number;
+            this.data   = data;
+        }
+
+        private boolean hasMore()
+        {
+            return position < data.length;
+        }
+
+     // Fixed length field (trimmed)
+        private String fixed(int length)
+        throws IOException
+        {
+            if (position + length > data.length) {
+                throw new IOException(String.format("Blockette B%03d is too short for its fields", number));
+            }
+            String value = ascii(data, position, length).trim();
+            position += length;
+            return value;
+        }
+
+     // Variable length field, terminated by '~' (trimmed)
+        private String variable()
+        {
+            int end = position;
+            while (end < data.length && data[end] != '~') {
+                end++;
+            }
+            String value = ascii(data, position, end - position).trim();
+            position = Math.min(end + 1, data.length);
+            return value;
+        }
+    }
+}
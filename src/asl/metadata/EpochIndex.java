@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package asl.metadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * EpochIndex - Interval index over the epochs of a station or channel
+ *
+ *   Epochs are added in order of increasing start time. A lookup binary searches the
+ *   start times for the latest epoch that starts at or before the requested time and
+ *   then steps back to older epochs only while one of them could still end at or after
+ *   it (maxEnds[i] is the latest end time of epochs 0..i), so the newest epoch that
+ *   contains the time is found in O(log epochs) for non-overlapping epochs.
+ *
+ *   Start and end times are both inclusive; an open epoch (end == null) never ends.
+ */
+class EpochIndex<T>
+{
+    private long[] starts;
+    private long[] ends;
+    private long[] maxEnds;
+    private ArrayList<T> values;
+    private int size;
+
+    EpochIndex(int capacity)
+    {
+        starts  = new long[capacity];
+        ends    = new long[capacity];
+        maxEnds = new long[capacity];
+        values  = new ArrayList<T>(capacity);
+        size    = 0;
+    }
+
+    void add(Calendar start, Calendar end, T value)
+    {
+        long startTime = start.getTimeInMillis();
+        if (size > 0 && startTime < starts[size - 1]) {
+            throw new IllegalArgumentException("Epochs must be added in order of start time");
+        }
+        starts[size]  = startTime;
+        ends[size]    = (end == null) ? Long.MAX_VALUE : end.getTimeInMillis();
+        maxEnds[size] = (size == 0) ? ends[size] : Math.max(maxEnds[size - 1], ends[size]);
+        values.add(value);
+        size++;
+    }
+
+/**
+ *  Return the value of the newest epoch containing time, or null if no epoch contains it
+ */
+    T get(Calendar time)
+    {
+        long epochTime = time.getTimeInMillis();
+
+        int i = Arrays.binarySearch(starts, 0, size, epochTime);
+        if (i < 0) {
+            i = -i - 2;         // the epoch before the insertion point
+        }
+        else {
+            while (i + 1 < size && starts[i + 1] == epochTime) {
+                i++;            // the newest of several epochs starting at epochTime
+            }
+        }
+
+        for ( ; i >= 0 && maxEnds[i] >= epochTime; i--) {
+            if (ends[i] >= epochTime) {
+                return values.get(i);
+            }
+        }
+        return null;
+    }
+
+    int size()
+    {
+        return size;
+    }
+}
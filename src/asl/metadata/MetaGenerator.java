@@ -25,10 +25,18 @@ import freq.Cmplx;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.TreeSet;
 import java.util.Calendar;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.IOException;
 import java.io.*;
 
@@ -57,18 +65,39 @@ public class MetaGenerator
     * Each datalessDir/XX.dataless file is read into a separate SeedVolume 
     * keyed by network (e.g., XX)
     */
-    private Hashtable<NetworkKey, SeedVolume> volumes = null;
+    private ConcurrentHashMap<NetworkKey, SeedVolume> volumes = null;
+
+    /**
+    * The dataless files are read concurrently. A request for a station waits
+    * only for the file of its network (XX.dataless --> XX) to be read.
+    */
+    private ConcurrentHashMap<String, Future<SeedVolume>> pendingVolumes = null;
+
+    /**
+    * The metadata of a station is the same for every day inside the same station
+    * and channel epochs, so getStationMeta builds it once per epoch span and hands
+    * out cheap per-day copies of it (see StationMeta.forDay). Only the most recently
+    * used spans are kept: a scan works on a few stations at a time, and moves on.
+    */
+    private StationMetaCache stationMetaCache = null;
+
+    private static final int STATION_META_CACHE_SIZE = 64;
 
     private static MetaGenerator instance;
 
     private boolean successfullyLoaded = false;
 
+    // Where the snapshots of the decoded volumes are kept (null = no snapshots)
+    private File snapshotDir = null;
+
     /**
     * Private constructor to ensure singleton
     */
     private MetaGenerator() throws RemoteException
     {
-        volumes = new Hashtable<NetworkKey, SeedVolume>();
+        volumes = new ConcurrentHashMap<NetworkKey, SeedVolume>();
+        pendingVolumes = new ConcurrentHashMap<String, Future<SeedVolume>>();
+        stationMetaCache = new StationMetaCache(STATION_META_CACHE_SIZE);
     }
 
     public static MetaGenerator getInstance() throws RemoteException{
@@ -82,6 +111,17 @@ public class MetaGenerator
         return new String("This-string-is-from-MetaGenerator");
     }
 
+    /**
+    * Keep a snapshot of each decoded network volume in snapshotDir, from which
+    * the volume is read back on the next start if its dataless file is unchanged.
+    * 
+    * @param  snapshotDir  path to the snapshots (null = don't keep snapshots)
+    */
+    public void setSnapshotDir(String snapshotDir)
+    {
+        this.snapshotDir = (snapshotDir == null) ? null : new File(snapshotDir);
+    }
+
     /**
     *
     * loadDataless - Look in datalessDir for all files of form XX.dataless
@@ -113,74 +153,165 @@ public class MetaGenerator
 
         String[] files    = dir.list(textFilter);
 
+     // Read the network volumes concurrently. loadDataless() returns once they have all been
+     // started; requests for metadata wait for the volume they need.
+        int nThreads = Math.max(1, Math.min(files.length, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        final long start = System.nanoTime();
+        final AtomicInteger remaining = new AtomicInteger(files.length);
+
         for (String fileName : files) {
-            String datalessFile = dir + "/" + fileName;
-            System.out.format("== MetaGenerator: rdseed -f [datalessFile=%s]\n", datalessFile);
-            ProcessBuilder pb = new ProcessBuilder("rdseed", "-s", "-f", datalessFile);
+            final String datalessFile = dir + "/" + fileName;
+            final String network = fileName.substring(0, fileName.indexOf('.'));
+
+            Future<SeedVolume> future = executor.submit( new Callable<SeedVolume>() {
+                public SeedVolume call() {
+                    SeedVolume volume = loadVolume(datalessFile);
+                    if (remaining.decrementAndGet() == 0) {
+                        System.out.format("== MetaGenerator: read all dataless volumes in %.2f s\n", (System.nanoTime() - start) / 1.e9);
+                    }
+                    return volume;
+                }
+            });
+            pendingVolumes.put(network, future);
 
-            ArrayList<String> strings = new ArrayList<String>();
+        } // end for loop over XX.dataless files
 
-            SeedVolume volume = null;
+        executor.shutdown();
 
-            try {
-                Process process = pb.start();
-                BufferedReader reader = new BufferedReader( new InputStreamReader(process.getInputStream() ) );
-                String line = null;
-                while( ( line = reader.readLine() ) != null ) {
-                    strings.add(line);
-                }
-                int shellExitStatus = process.waitFor();
-            }
-        // Need to catch both IOException and InterruptedException
-            catch (IOException e) {
-                System.out.println("Error: IOException Description: " + e.getMessage());
-            }
-            catch (InterruptedException e) {
-                System.out.println("Error: InterruptedException Description: " + e.getMessage());
-            }
+        successfullyLoaded = true;
 
-            Dataless dataless = new Dataless( strings ) ;
+    } // end loadDataless()
 
-            try {
-                dataless.processVolume(); 
-                volume = dataless.getVolume();
-            }
-            catch (Exception e){
-                System.out.format("== MetaGenerator: Error processing dataless volume for file=[%s]:%s\n", 
-                    fileName, e.getMessage());
-            }
+    /**
+     * Read one XX.dataless file and add its SeedVolume
+     */
+    private SeedVolume loadVolume(String datalessFile)
+    {
+        long start = System.nanoTime();
+        System.out.format("== MetaGenerator: read [datalessFile=%s]\n", datalessFile);
 
-            if (volume == null){
-                System.out.format("== MetaGenerator: Error processing dataless volume==null! for file=[%s]\n",
-                    fileName);
-                System.exit(0);
+        File file = new File(datalessFile);
+        File snapshotFile = (snapshotDir == null) ? null : MetadataSnapshot.getSnapshotFile(snapshotDir, file);
+        boolean fromSnapshot = false;
+
+     // Replay the blockettes from the snapshot of an unchanged volume ...
+        SeedVolume volume = null;
+        try {
+            MetadataSnapshot snapshot = MetadataSnapshot.open(snapshotFile, file);
+            if (snapshot != null) {
+                volume = processVolume(new Dataless(snapshot), datalessFile);
+                fromSnapshot = (volume != null);
             }
-            else {
-                addVolume(volume);
+        }
+        catch (IOException e){
+            logger.warn("Unable to read metadata snapshot " + snapshotFile + ": " + e.getMessage());
+        }
+
+     // ... or read the blockettes straight from the dataless SEED volume (this used to parse the output of rdseed -s)
+        if (volume == null){
+            Dataless dataless = new Dataless(file);
+            volume = processVolume(dataless, datalessFile);
+            if (volume != null && snapshotFile != null) {
+                try {
+                    MetadataSnapshot.write(snapshotFile, file, dataless.getBlockettes());
+                }
+                catch (IOException e){
+                    logger.warn("Unable to write metadata snapshot " + snapshotFile + ": " + e.getMessage());
+                }
             }
+        }
 
-        } // end for loop over XX.dataless files
+        if (volume == null){
+            System.out.format("== MetaGenerator: Error processing dataless volume==null! for file=[%s]\n",
+                datalessFile);
+            System.exit(0);
+        }
+        else {
+            addVolume(volume);
+            System.out.format("== MetaGenerator: read [datalessFile=%s] network=[%s] stations=%d in %.2f s%s\n", 
+                datalessFile, volume.getNetworkKey(), volume.getStationList().size(), (System.nanoTime() - start) / 1.e9,
+                fromSnapshot ? " (from snapshot)" : "");
+        }
+        return volume;
+    }
 
-        successfullyLoaded = true;
+    private SeedVolume processVolume(Dataless dataless, String datalessFile)
+    {
+        try {
+            dataless.processVolume(); 
+            return dataless.getVolume();
+        }
+        catch (Exception e){
+            System.out.format("== MetaGenerator: Error processing dataless volume for file=[%s]:%s\n", 
+                datalessFile, e.getMessage());
+        }
+        return null;
+    }
 
-    } // end loadDataless()
+    /**
+     * Wait for the dataless file of this network to be read and return its SeedVolume.
+     * If no file is named after the network, wait for all of them.
+     */
+    private SeedVolume getVolume(String network)
+    {
+        Future<SeedVolume> future = pendingVolumes.get(network);
+        if (future != null) {
+            waitFor(future);
+        }
+        SeedVolume volume = volumes.get( new NetworkKey(network) );
+        if (volume == null) {
+            waitForVolumes();
+            volume = volumes.get( new NetworkKey(network) );
+        }
+        return volume;
+    }
+
+    /**
+     * Wait for all of the dataless files to be read
+     */
+    private void waitForVolumes()
+    {
+        for (Future<SeedVolume> future : pendingVolumes.values()) {
+            waitFor(future);
+        }
+    }
+
+    private void waitFor(Future<SeedVolume> future)
+    {
+        try {
+            future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            logger.error("Error reading dataless volume:", e.getCause());
+        }
+    }
 
     private void addVolume( SeedVolume volume ) {
         NetworkKey networkKey = volume.getNetworkKey();
-        if (volumes.containsKey(networkKey)) {
+        if (volumes.putIfAbsent(networkKey, volume) != null) {
             System.out.format("== MetaGenerator Error: Attempting to load volume networkKey=[%s] --> Already loaded!\n",
                               networkKey);
         }
-        else {
-            volumes.put( networkKey, volume );
-        }
     }
 
     public boolean isLoaded() {
-        return successfullyLoaded;
+        if (!successfullyLoaded) {
+            return false;
+        }
+        for (Future<SeedVolume> future : pendingVolumes.values()) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        return true;
     } 
 
     public void print() {
+        waitForVolumes();
         if (volumes == null) {
             System.out.format("== MetaGenerator.print() - No SeedVolumes have been loaded!\n");
         }
@@ -204,6 +335,7 @@ public class MetaGenerator
         if (volumes == null) {
             return null;
         }
+        waitForVolumes();
         List<Station> allStations = new ArrayList<Station>();
         for (NetworkKey key : volumes.keySet()) {
             SeedVolume volume = volumes.get(key);
@@ -219,7 +351,7 @@ public class MetaGenerator
  * It is called by getStationMeta below.
  */
     private StationData getStationData(Station station){
-        SeedVolume volume = volumes.get( new NetworkKey(station.getNetwork()) ) ; 
+        SeedVolume volume = getVolume(station.getNetwork()) ; 
         if (volume == null) {
             System.out.format("== MetaGenerator.getStationData() - Volume==null for Station=[%s]\n", station);
             System.exit(0);
@@ -236,6 +368,8 @@ public class MetaGenerator
  * Calls getStationData to get the metadata for all epochs for this station,
  * Then scans through the epochs to find and return the requested epoch
  * metadata.
+ * The StationMeta is built once for each span of days with the same station + channel
+ * epochs; each request gets its own StationMeta.forDay() copy of it.
  *
  * @station   - The station for which metadata is requested
  * @timestamp - The (epoch) timestamp for which metadata is requested
@@ -270,29 +404,22 @@ public class MetaGenerator
               EpochData.epochToDateString(Calendar.getInstance()), station,EpochData.epochToDateString(timestamp));
         }
 
-        StationMeta stationMeta = null;
-        try {
-            stationMeta = new StationMeta(blockette, timestamp);
-        }
-        catch (WrongBlocketteException e ){
-            System.out.println("ERROR: Could not create new StationMeta(blockette) !!");
-            System.exit(0);
-        }
+     // Find the epoch of each channel that contains the requested timestamp.
+     // The station epoch + these channel epochs identify the metadata (=the epoch span) for this day.
+        Hashtable<ChannelKey, ChannelData> channels = stationData.getChannels();
+        ArrayList<ChannelKey> keys = new ArrayList<ChannelKey>();
+        ArrayList<EpochData> epochs = new ArrayList<EpochData>();
+        ArrayList<ChannelKey> dayBreakKeys = new ArrayList<ChannelKey>();
 
+        StringBuilder spanKey = new StringBuilder();
+        spanKey.append(station).append(":").append(blockette.getFieldValue(13,0));
 
- // Get this StationData's ChannelKeys and sort:
-        Hashtable<ChannelKey, ChannelData> channels = stationData.getChannels();
-        TreeSet<ChannelKey> keys = new TreeSet<ChannelKey>();
-        keys.addAll(channels.keySet());
-        for (ChannelKey key : keys){
-            //System.out.println("==Channel:"+key );
+ // Get this StationData's (sorted) ChannelKeys:
+        for (ChannelKey key : stationData.getChannelKeys()){
             ChannelData channel = channels.get(key);
-            //ChannelMeta channelMeta = new ChannelMeta(key,timestamp);
-            ChannelMeta channelMeta = new ChannelMeta(key,timestamp,station);
 
      // See if this channel contains the requested epoch time and if so return the key 
      //                                                       (=Epoch Start timestamp)
-            //channel.printEpochs();
             Calendar epochTimestamp = channel.containsEpoch(timestamp);
             if (epochTimestamp !=null){
                 EpochData epochData = channel.getEpoch(epochTimestamp);
@@ -300,21 +427,69 @@ public class MetaGenerator
      // If the epoch is closed, check that the end time is at least 24 hours later than the requested time
                 if (epochData.getEndTime() != null ){  
          // Make sure this epoch end time is > requested time + 24 hours
-                    long epochStart = epochData.getStartTime().getTimeInMillis();
                     long epochEnd   = epochData.getEndTime().getTimeInMillis();
                     if ( epochEnd <  (timestamp.getTimeInMillis() + 24 * 3600 * 1000) ) {
-                        channelMeta.setDayBreak(); // set channelMeta.dayBreak = true
+                        dayBreakKeys.add(key); // set channelMeta.dayBreak = true
                     }
                 }
-                channelMeta.processEpochData(epochData);
-                stationMeta.addChannel(key, channelMeta);
+                keys.add(key);
+                epochs.add(epochData);
+                spanKey.append(":").append(key).append("@").append(epochTimestamp.getTimeInMillis());
             }
-            else { // The channel does NOT contain the epoch time --> reset ChannelMeta to null
-                channelMeta = null;
+        }
+
+        StationMeta spanMeta = null;
+        synchronized (stationMetaCache) {
+            spanMeta = stationMetaCache.get(spanKey.toString());
+        }
+        if (spanMeta == null) {
+            try {
+                spanMeta = new StationMeta(blockette, timestamp);
+            }
+            catch (WrongBlocketteException e ){
+                System.out.println("ERROR: Could not create new StationMeta(blockette) !!");
+                System.exit(0);
+            }
+            for (int i=0; i<keys.size(); i++){
+                ChannelMeta channelMeta = new ChannelMeta(keys.get(i),timestamp,station);
+                channelMeta.processEpochData(epochs.get(i));
+                spanMeta.addChannel(keys.get(i), channelMeta);
             }
+            synchronized (stationMetaCache) {
+                StationMeta cachedMeta = stationMetaCache.get(spanKey.toString());
+                if (cachedMeta != null) {   // Another thread built it first
+                    spanMeta = cachedMeta;
+                }
+                else {
+                    stationMetaCache.put(spanKey.toString(), spanMeta);
+                }
+            }
+        }
+
+        return spanMeta.forDay(timestamp, dayBreakKeys);
+    }
+
+    /**
+    * The StationMetas of the maxSpans most recently used epoch spans
+    */
+    private static class StationMetaCache
+        extends LinkedHashMap<String, StationMeta>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private int maxSpans;
+
+        private StationMetaCache(int maxSpans)
+        {
+            super(16, 0.75f, true);     // Iterate in access order --> eldest = least recently used
+            this.maxSpans = maxSpans;
         }
 
-        return stationMeta;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, StationMeta> eldest)
+        {
+            return size() > maxSpans;
+        }
     }
 
     public static void main(String[] args) {
@@ -71,9 +71,16 @@ public class MetaServer
     // Empty constructor --> Use local MetaGenerator class to load metadata
     public MetaServer(String datalessDir) 
     {
-        logger.info("use *Local* MetaGenerator: datalessDir=" + datalessDir);
+        this(datalessDir, null);
+    }
+
+    // Use local MetaGenerator, keeping snapshots of the decoded volumes in snapshotDir (if not null)
+    public MetaServer(String datalessDir, String snapshotDir) 
+    {
+        logger.info("use *Local* MetaGenerator: datalessDir=" + datalessDir + " snapshotDir=" + snapshotDir);
         try {
             metaGen = MetaGenerator.getInstance();
+            metaGen.setSnapshotDir(snapshotDir);
             //metaGen.loadDataless("/Users/mth/mth/ASLData/dcc/metadata/dataless");
             metaGen.loadDataless(datalessDir);
         }
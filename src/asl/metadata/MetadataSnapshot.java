@@ -0,0 +1,328 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package asl.metadata;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * MetadataSnapshot - A compact binary copy of the decoded blockettes of a dataless volume
+ *
+ *   Decoding a network volume is the bulk of the MetaGenerator start up time, so once a
+ *   volume has been read its blockettes are written to <snapshotDir>/<file>.snapshot.
+ *   On the next start the snapshot is memory mapped and replayed through Dataless instead,
+ *   provided it is still current: it must have been written by the same DatalessReader
+ *   decoder version, the file size must match and either the modification time or the
+ *   MD5 digest of the file must match the snapshot header. If only the digest matches, 
+ *   the modification time in the header is brought up to date.
+ *
+ *   Layout (big-endian):
+ *     header: magic, version, decoder version, source size, source mtime, source MD5 (16 bytes)
+ *     body:   blockette count, then per blockette:
+ *               number, field count, then per field: id, description, value count, values
+ *   Strings are interned: the first occurrence is written as -1, length, UTF-8 bytes and
+ *   later occurrences as its index (in order of first occurrence); -2 is a null string.
+ */
+public class MetadataSnapshot
+    implements BlocketteReader
+{
+    private static final Logger logger = LoggerFactory.getLogger(asl.metadata.MetadataSnapshot.class);
+
+    private static final int MAGIC   = 0x534e4150;   // "SNAP"
+    private static final int VERSION = 2;
+
+    private static final int NEW_STRING  = -1;
+    private static final int NULL_STRING = -2;
+
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private static final int MTIME_OFFSET = 4 + 4 + 4 + 8;   // After magic, versions and size
+    private static final int HEADER_LENGTH = MTIME_OFFSET + 8 + 16;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private File snapshotFile;
+    private ByteBuffer buffer;
+    private int remaining;
+    private ArrayList<String> strings;
+
+    private MetadataSnapshot(File snapshotFile, ByteBuffer buffer)
+    {
+        this.snapshotFile = snapshotFile;
+        this.buffer = buffer;
+        this.remaining = buffer.getInt();
+        this.strings = new ArrayList<String>();
+    }
+
+/**
+ *  Return the snapshot file for datalessFile in snapshotDir, or null if snapshotDir can't be created
+ */
+    public static File getSnapshotFile(File snapshotDir, File datalessFile)
+    {
+        if (!snapshotDir.isDirectory() && !snapshotDir.mkdirs()) {
+            logger.warn("Unable to create metadata snapshot directory " + snapshotDir + ": snapshots disabled");
+            return null;
+        }
+        return new File(snapshotDir, datalessFile.getName() + SNAPSHOT_SUFFIX);
+    }
+
+/**
+ *  Map snapshotFile and return a reader positioned at its first blockette,
+ *  or null if there is no snapshot or it is not current for datalessFile
+ */
+    public static MetadataSnapshot open(File snapshotFile, File datalessFile)
+    throws IOException
+    {
+        if (snapshotFile == null || !snapshotFile.isFile()) {
+            return null;
+        }
+
+        MappedByteBuffer buffer;
+        RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+
+        if (buffer.remaining() < HEADER_LENGTH + 4) {
+            logger.warn("Metadata snapshot " + snapshotFile + " is truncated: ignoring it");
+            return null;
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            logger.info("Metadata snapshot " + snapshotFile + " has an unknown format: ignoring it");
+            return null;
+        }
+        if (buffer.getInt() != DatalessReader.DECODER_VERSION) {
+            logger.info("Metadata snapshot " + snapshotFile + " is stale: it was written by another decoder version");
+            return null;
+        }
+        long size  = buffer.getLong();
+        long mtime = buffer.getLong();
+        byte[] digest = new byte[16];
+        buffer.get(digest);
+
+        if (size != datalessFile.length()) {
+            logger.info("Metadata snapshot " + snapshotFile + " is stale: " + datalessFile + " has changed size");
+            return null;
+        }
+        if (mtime != datalessFile.lastModified()) {
+            if (!Arrays.equals(digest, digest(datalessFile))) {
+                logger.info("Metadata snapshot " + snapshotFile + " is stale: " + datalessFile + " has changed");
+                return null;
+            }
+            // Only touched: record the new time so the next start doesn't digest the file again
+            touch(snapshotFile, datalessFile.lastModified());
+        }
+
+        return new MetadataSnapshot(snapshotFile, buffer);
+    }
+
+/**
+ *  Overwrite the source modification time in the header of snapshotFile
+ */
+    private static void touch(File snapshotFile, long mtime)
+    {
+        try {
+            RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw");
+            try {
+                file.seek(MTIME_OFFSET);
+                file.writeLong(mtime);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to update metadata snapshot " + snapshotFile + ": " + e.getMessage());
+        }
+    }
+
+/**
+ *  Write the blockettes decoded from datalessFile to snapshotFile
+ *
+ *  The snapshot is written to a temporary file and renamed into place,
+ *  so that a concurrent or interrupted start never maps a partial snapshot
+ */
+    public static void write(File snapshotFile, File datalessFile, List<Blockette> blockettes)
+    throws IOException
+    {
+        long size  = datalessFile.length();
+        long mtime = datalessFile.lastModified();
+        byte[] digest = digest(datalessFile);
+
+        File temporary = new File(snapshotFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(DatalessReader.DECODER_VERSION);
+            out.writeLong(size);
+            out.writeLong(mtime);
+            out.write(digest);
+
+            HashMap<String, Integer> strings = new HashMap<String, Integer>();
+            out.writeInt(blockettes.size());
+            for (Blockette blockette : blockettes) {
+                ArrayList<Integer> fieldIDs = new ArrayList<Integer>(blockette.getFields().keySet());
+                Collections.sort(fieldIDs);
+                out.writeShort(blockette.getNumber());
+                out.writeShort(fieldIDs.size());
+                for (Integer fieldID : fieldIDs) {
+                    Field field = blockette.getFields().get(fieldID);
+                    ArrayList<String> values = field.getValues();
+                    out.writeShort(field.getID());
+                    writeString(out, field.getDescription(), strings);
+                    out.writeInt(values.size());
+                    for (String value : values) {
+                        writeString(out, value, strings);
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temporary.renameTo(snapshotFile)) {
+            // Some platforms won't rename over an existing file
+            snapshotFile.delete();
+            if (!temporary.renameTo(snapshotFile)) {
+                temporary.delete();
+                throw new IOException("Unable to rename " + temporary + " to " + snapshotFile);
+            }
+        }
+    }
+
+    public Blockette next()
+    throws IOException
+    {
+        if (remaining == 0) {
+            return null;
+        }
+        remaining--;
+
+        try {
+            Blockette blockette = new Blockette(buffer.getShort());
+            int fieldCount = buffer.getShort();
+            for (int i = 0; i < fieldCount; i++) {
+                int fieldID = buffer.getShort();
+                String description = readString();
+                int valueCount = buffer.getInt();
+                if (valueCount == 0) {
+                    blockette.getFields().put(fieldID, new Field(fieldID, description));
+                }
+                for (int j = 0; j < valueCount; j++) {
+                    blockette.addFieldValue(fieldID, description, readString());
+                }
+            }
+            return blockette;
+        } catch (RuntimeException e) {
+            // BufferUnderflowException or a bad string index: the snapshot is corrupt
+            throw new IOException("Corrupt metadata snapshot " + snapshotFile + ": " + e);
+        }
+    }
+
+    public void close()
+    {
+        buffer = null;
+        strings = null;
+    }
+
+    public String toString()
+    {
+        return snapshotFile.toString();
+    }
+
+    private String readString()
+    {
+        int index = buffer.getInt();
+        if (index == NULL_STRING) {
+            return null;
+        }
+        if (index != NEW_STRING) {
+            return strings.get(index);
+        }
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        String string = new String(bytes, UTF8);
+        strings.add(string);
+        return string;
+    }
+
+    private static void writeString(DataOutputStream out, String string, HashMap<String, Integer> strings)
+    throws IOException
+    {
+        if (string == null) {
+            out.writeInt(NULL_STRING);
+            return;
+        }
+        Integer index = strings.get(string);
+        if (index != null) {
+            out.writeInt(index);
+            return;
+        }
+        strings.put(string, strings.size());
+        byte[] bytes = string.getBytes(UTF8);
+        out.writeInt(NEW_STRING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] digest(File file)
+    throws IOException
+    {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("MD5 is not available: " + e.getMessage());
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] block = new byte[1 << 16];
+            int length;
+            while ((length = in.read(block)) > 0) {
+                md5.update(block, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+        return md5.digest();
+    }
+}
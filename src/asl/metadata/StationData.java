@@ -25,6 +25,7 @@ import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.Hashtable;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.Collections;
 import java.text.SimpleDateFormat;
@@ -39,6 +40,8 @@ public class StationData
     private Hashtable<Calendar, Blockette> comments;
     private Hashtable<Calendar, Blockette> epochs;
     private Hashtable<ChannelKey, ChannelData> channels;
+    private volatile EpochIndex<Blockette> epochIndex;
+    private volatile ArrayList<ChannelKey> channelKeys;
     private String network = null;
     private String name = null;
 
@@ -108,6 +111,7 @@ public class StationData
         }
         Calendar timestamp = BlocketteTimestamp.parseTimestamp(timestampString);
         epochs.put(timestamp, blockette);
+        epochIndex = null;
         return timestamp;
     }
 
@@ -137,22 +141,27 @@ Epoch index
  // Return null if epochTime not contained
     public Blockette getBlockette(Calendar epochTime)
     {
-      boolean containsEpochTime = false;
+      EpochIndex<Blockette> index = getEpochIndex();
+      return index.get(epochTime);
+    }
+
+// Build the epoch interval index the first time it's needed after epochs were added
+// (the newest epoch containing epochTime wins, as when the epochs were scanned newest first)
+    private EpochIndex<Blockette> getEpochIndex()
+    {
+      EpochIndex<Blockette> index = epochIndex;
+      if (index != null) {
+        return index;
+      }
 
       ArrayList<Calendar> epochtimes = new ArrayList<Calendar>();
       epochtimes.addAll(epochs.keySet());
       Collections.sort(epochtimes);
-      Collections.reverse(epochtimes);
-      int nEpochs = epochtimes.size();
-
-      Calendar startTimeStamp = null;
-      Calendar endTimeStamp = null;
-      Calendar timestamp = null;
 
+      index = new EpochIndex<Blockette>(epochtimes.size());
 // Loop through Blockettes (B050) and pick out epoch end dates
-      for (int i=0; i<nEpochs; i++){
-        endTimeStamp  = null;
-        startTimeStamp= epochtimes.get(i);
+      for (Calendar startTimeStamp : epochtimes){
+        Calendar endTimeStamp  = null;
         Blockette blockette    = epochs.get(startTimeStamp);
         String timestampString = blockette.getFieldValue(14, 0);
         if (!timestampString.equals("(null)") ) {
@@ -163,37 +172,10 @@ Epoch index
             System.out.println("StationData.printEpochs() Error converting timestampString=" + timestampString);
           }
         }
-        if (endTimeStamp == null) {            // This Epoch is open
-          if (epochTime.getTimeInMillis() >= startTimeStamp.getTimeInMillis() ) {
-            containsEpochTime = true;
-            return blockette;
-            //break;
-          }
-        }                                      // This Epoch is closed
-        else if (epochTime.getTimeInMillis() >= startTimeStamp.getTimeInMillis() &&
-                 epochTime.getTimeInMillis() <= endTimeStamp.getTimeInMillis() ) {
-            containsEpochTime = true;
-            return blockette;
-            //break;
-        }
-      } // for
-      return null; // If we made it to here than we are returning blockette==null
-
-  // These should be the latest ones we checked, so they are correct IF the epochTime was found
-  /**
-      String epochDateString  = EpochData.epochToDateString(epochTime);
-      String startDateString  = EpochData.epochToDateString(startTimeStamp);
-      String endDateString    = EpochData.epochToDateString(endTimeStamp);
-      if (containsEpochTime){
-        System.out.format("----StationData %s-%s Epoch: [%s - %s] contains EpochTime=%s\n",network,name,startDateString,endDateString,epochDateString);
+        index.add(startTimeStamp, endTimeStamp, blockette);   // endTimeStamp == null --> This Epoch is open
       }
-      else {
-        System.out.format("----StationData EpochTime=%s was NOT FOUND!!\n",epochDateString);
-      }
-
-      return containsEpochTime;
-   **/
-
+      epochIndex = index;
+      return index;
     }
 
 // Loop through all station (=Blockette 050) epochs and print summary
@@ -241,6 +223,7 @@ Epoch index
     public void addChannel(ChannelKey key, ChannelData data)
     {
         channels.put(key, data);
+        channelKeys = null;
     }
 
     public boolean hasChannel(ChannelKey key)
@@ -257,6 +240,18 @@ Epoch index
         return channels;
     }
 
+    // The ChannelKeys in sorted order (sorted once, not on every getStationMeta request)
+    public List<ChannelKey> getChannelKeys()
+    {
+        ArrayList<ChannelKey> keys = channelKeys;
+        if (keys == null) {
+            keys = new ArrayList<ChannelKey>(channels.keySet());
+            Collections.sort(keys);
+            channelKeys = keys;
+        }
+        return Collections.unmodifiableList(keys);
+    }
+
 
 
 }
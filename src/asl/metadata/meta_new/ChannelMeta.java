@@ -75,6 +75,10 @@ public class ChannelMeta extends MemberDigest
 
     private Station station;
 
+    // Evaluated responses, shared by all ChannelMetas (bounded to at most 4M frequency points)
+    private static ResponseCache responseCache = 
+        new ResponseCache( Math.min(4L << 20, Runtime.getRuntime().maxMemory() / (24 * 16)) );
+
     public enum ResponseUnits {
         DISPLACEMENT, VELOCITY, ACCELERATION, SEEDUNITS;
     }
@@ -136,6 +140,24 @@ public class ChannelMeta extends MemberDigest
         return copyChan;
     }
 
+/**
+ *  Shallow copy of this channelMeta for the requested day (metaTimestamp + dayBreak)
+ *  The response stages are shared with this channelMeta and must not be modified.
+ */
+    public ChannelMeta forDay(Calendar metaTimestamp, boolean dayBreak) {
+        ChannelMeta dayChan = new ChannelMeta(new ChannelKey(this.getLocation(), this.getName()), metaTimestamp, station);
+        dayChan.comment        = this.comment;
+        dayChan.sampleRate     = this.sampleRate;
+        dayChan.dip            = this.dip;
+        dayChan.azimuth        = this.azimuth;
+        dayChan.depth          = this.depth;
+        dayChan.dayBreak       = dayBreak;
+        dayChan.instrumentType = this.instrumentType;
+        dayChan.channelFlags   = this.channelFlags;
+        dayChan.stages         = this.stages;
+        return dayChan;
+    }
+
 /**
  *  Add parts of this channelMeta to its digest
  */
@@ -372,6 +394,45 @@ public class ChannelMeta extends MemberDigest
 //  Return complex response computed at given freqs[0,...length]
 
     public Cmplx[] getResponse(double[] freqs, ResponseUnits responseOut) {
+        double[] re = new double[freqs.length];
+        double[] im = new double[freqs.length];
+        getResponse(freqs, responseOut, re, im);
+        Cmplx[] response = new Cmplx[freqs.length];
+        for (int i=0; i<freqs.length; i++){
+            response[i] = new Cmplx(re[i], im[i]);
+        }
+        return response;
+    }
+
+/**
+ *  Compute the complex response at given freqs[0,...length] into re[] + im[]
+ *
+ *  Responses are cached (see getResponseCache()) on the channel, the digest of its 
+ *  response stages, the units and the frequency grid, so that the metrics asking for 
+ *  the same channel response over the same freqs[] only evaluate it once.
+ */
+    public void getResponse(double[] freqs, ResponseUnits responseOut, double[] re, double[] im) {
+        if (freqs.length == 0) {
+            throw new RuntimeException("getResponse(): freqs.length = 0!");
+        }
+        ResponseStage stage1 = stages.get(1);
+        String responseId = String.format("%s-%s:%s:%d", getLocation(), getName(), getDigestString(),
+                                          (stage1 == null) ? -1 : stage1.getInputUnits());
+
+        if (!responseCache.get(responseId, responseOut, freqs, re, im)) {
+            computeResponse(freqs, responseOut, re, im);
+            responseCache.put(responseId, responseOut, freqs, re, im);
+        }
+    }
+
+/**
+ *  Return the cache of evaluated responses shared by all ChannelMetas
+ */
+    public static ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    private void computeResponse(double[] freqs, ResponseUnits responseOut, double[] re, double[] im) {
         int outUnits=0;
         switch (responseOut) {
             case DISPLACEMENT:      // return Displacement Response
@@ -388,14 +449,9 @@ public class ChannelMeta extends MemberDigest
                 break;
         }
 
-        if (freqs.length == 0) {
-            throw new RuntimeException("getResponse(): freqs.length = 0!");
-        }
         if (invalidResponse()) {
           throw new RuntimeException("getResponse(): Invalid Response!");
         }
-        Cmplx[] response = null;
-
  // Set response = polezero response (with A0 factored in):
         ResponseStage stage = stages.get(1);
 
@@ -404,7 +460,7 @@ public class ChannelMeta extends MemberDigest
         }
         else {
             PoleZeroStage pz = (PoleZeroStage)stage;
-            response = pz.getResponse(freqs);
+            pz.getResponse(freqs, re, im);
 
             if (outUnits == 0) {  
                 // Default response (in SEED Units) requested --> Don't integrate or differentiate
@@ -452,16 +508,12 @@ public class ChannelMeta extends MemberDigest
 
                 if (n < 0) {                    // INTEGRATION RESPONSE I(w) x (iw)^n
                     for (int i=0; i<freqs.length; i++){
-                        Cmplx iw    = new Cmplx(0.0, s*freqs[i]);
-                        for (int j=1; j<Math.abs(n); j++) iw = Cmplx.mul(iw, iw);
-                        response[i] = Cmplx.mul(iw, response[i]);
+                        multiplyByIw(re, im, i, 0.0, s*freqs[i], Math.abs(n));
                     }
                 }
                 else if (n > 0) {               // DIFFERENTIATION RESPONSE I(w) / (iw)^n
                     for (int i=0; i<freqs.length; i++){
-                        Cmplx iw    = new Cmplx(0.0, -1.0/(s*freqs[i]) );
-                        for (int j=1; j<Math.abs(n); j++) iw = Cmplx.mul(iw, iw);
-                        response[i] = Cmplx.mul(iw, response[i]);
+                        multiplyByIw(re, im, i, 0.0, -1.0/(s*freqs[i]), Math.abs(n));
                     }
                 }
 
@@ -494,14 +546,31 @@ public class ChannelMeta extends MemberDigest
         }
 
         for (int i=0; i<freqs.length; i++){
-            response[i] = Cmplx.mul(scale, response[i]);
+            double r = scale * re[i] - 0. * im[i];
+            im[i]    = 0. * re[i] + scale * im[i];
+            re[i]    = r;
         }
+    }
 
-        return response;
+/**
+ *  response[i] *= iw, where iw = (iwr, iwi) squared (n - 1) times
+ *  (the same arithmetic as Cmplx.mul)
+ */
+    private static void multiplyByIw(double[] re, double[] im, int i, double iwr, double iwi, int n) {
+        for (int j=1; j<n; j++) {
+            double r = iwr * iwr - iwi * iwi;
+            iwi = iwi * iwr + iwr * iwi;
+            iwr = r;
+        }
+        double r = iwr * re[i] - iwi * im[i];
+        im[i]    = iwi * re[i] + iwr * im[i];
+        re[i]    = r;
     }
 
 
 
+
+
 /**
   * processEpochData 
   * Convert EpochData = Hashtable<StageNumber, StageData> for this Channel + Epoch
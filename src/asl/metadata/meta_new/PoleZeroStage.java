@@ -133,6 +133,22 @@ public class PoleZeroStage extends ResponseStage
  *  Should really check that length > 0
 **/
     public Cmplx[] getResponse(double[] freqs){
+      double[] re = new double[freqs.length];
+      double[] im = new double[freqs.length];
+      getResponse(freqs, re, im);
+      Cmplx[] response = new Cmplx[freqs.length];
+      for (int i=0; i<freqs.length; i++){
+        response[i] = new Cmplx(re[i], im[i]);
+      //System.out.format("%12.4f\t%12.4f\n",freqs[i], response[i].mag() );
+      }
+      return response;
+    }
+
+/*  Compute the complex response at given freqs[0,...length] into re[] + im[]
+ *  The poles and zeros are unpacked into primitive arrays once and each frequency
+ *  is evaluated without allocating (same arithmetic as evalResp(f)).
+**/
+    public void getResponse(double[] freqs, double[] re, double[] im){
       //Some polezero responses (e.g., ANMO.IU.20.BN?) appear to have NO zeros
       //if (poleAdded && zeroAdded && normalizationSet) {
       if (poleAdded && normalizationSet) {
@@ -144,12 +160,70 @@ public class PoleZeroStage extends ResponseStage
       if (!(freqs.length > 0)){
         throw new RuntimeException("[ PoleZeroStage-->getResponse Error: Input freqs[] has no zero length! ]");
       }
-      Cmplx[] response = new Cmplx[freqs.length];
+
+      double w;
+      if (getStageType() == 'A'){
+        w = 2*Math.PI;
+      }
+      else if (getStageType() == 'B'){
+        w = 1.;
+      }
+      else {
+        throw new RuntimeException("[ PoleZeroStage-->evalResponse Error: Cannot evalResp a non-PoleZero Stage!]");
+      }
+
+      int nzeros = getNumberOfZeros();
+      int npoles = getNumberOfPoles();
+      double[] zr = new double[nzeros];
+      double[] zi = new double[nzeros];
+      double[] pr = new double[npoles];
+      double[] pi = new double[npoles];
+      for (int j=0; j<nzeros; j++){
+        zr[j] = zeros.get(j).real();
+        zi[j] = zeros.get(j).imag();
+      }
+      for (int j=0; j<npoles; j++){
+        pr[j] = poles.get(j).real();
+        pi[j] = poles.get(j).imag();
+      }
+      double A0 = normalizationConstant;
+
       for (int i=0; i<freqs.length; i++){
-        response[i] = evalResp(freqs[i]);
-      //System.out.format("%12.4f\t%12.4f\n",freqs[i], response[i].mag() );
+     // s = (0, w*f)
+        double sr = 0.0;
+        double si = w*freqs[i];
+        double nr = 1., ni = 0.;   // numerator
+        double dr = 1., di = 0.;   // denomenator
+        for (int j=0; j<nzeros; j++){
+          double tr = sr - zr[j];
+          double ti = si - zi[j];
+          double r  = nr * tr - ni * ti;
+          ni = ni * tr + nr * ti;
+          nr = r;
+        }
+        for (int j=0; j<npoles; j++){
+          double tr = sr - pr[j];
+          double ti = si - pi[j];
+          double r  = dr * tr - di * ti;
+          di = di * tr + dr * ti;
+          dr = r;
+        }
+     // Gf = A0 * numerator / denomenator
+        double gr = A0 * nr - 0. * ni;
+        double gi = 0. * nr + A0 * ni;
+        double q, den;
+        if (Math.abs(dr) >= Math.abs(di)) {
+          q   = di / dr;
+          den = dr + q * di;
+          re[i] = (gr + q * gi) / den;
+          im[i] = (gi - q * gr) / den;
+        } else {
+          q   = dr / di;
+          den = di + q * dr;
+          re[i] = (gr * q + gi) / den;
+          im[i] = (gi * q - gr) / den;
+        }
       }
-      return response;
     }
 
 /*  SEED Manual - Appendix C
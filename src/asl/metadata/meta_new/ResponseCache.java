@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package asl.metadata.meta_new;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import asl.metadata.meta_new.ChannelMeta.ResponseUnits;
+
+/**
+ * A bounded, least-recently-used cache of evaluated instrument responses.
+ *
+ * Responses are keyed on the response id (the channel + the digest of its 
+ * response stages), the requested ResponseUnits and the frequency grid, so 
+ * they are only evaluated again when the metadata epoch changes. The cache is 
+ * bounded by the total number of frequency points it holds.
+ */
+public class ResponseCache
+{
+    private long maxPoints;
+    private long points = 0;
+
+    private LinkedHashMap<Key, double[][]> responses = new LinkedHashMap<Key, double[][]>(16, 0.75f, true);
+
+    private AtomicLong hits   = new AtomicLong(0);
+    private AtomicLong misses = new AtomicLong(0);
+
+    public ResponseCache(long maxPoints)
+    {
+        this.maxPoints = maxPoints;
+    }
+
+/**
+ *  Copy the cached response for (responseId, units, freqs) into re[] + im[]
+ *
+ *  @return false if it isn't cached
+ */
+    public boolean get(String responseId, ResponseUnits units, double[] freqs, double[] re, double[] im)
+    {
+        double[][] response;
+        synchronized (this) {
+            response = responses.get( new Key(responseId, units, freqs) );
+        }
+        if (response == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        System.arraycopy(response[0], 0, re, 0, freqs.length);
+        System.arraycopy(response[1], 0, im, 0, freqs.length);
+        return true;
+    }
+
+/**
+ *  Cache (copies of) the response re[] + im[] for (responseId, units, freqs)
+ */
+    public void put(String responseId, ResponseUnits units, double[] freqs, double[] re, double[] im)
+    {
+        if (freqs.length > maxPoints) {
+            return;
+        }
+        double[] freqsCopy = Arrays.copyOf(freqs, freqs.length);
+        double[][] response = new double[][] { Arrays.copyOf(re, freqs.length), Arrays.copyOf(im, freqs.length) };
+
+        synchronized (this) {
+            double[][] old = responses.put( new Key(responseId, units, freqsCopy), response );
+            if (old != null) {
+                points -= old[0].length;
+            }
+            points += freqs.length;
+
+            Iterator<Map.Entry<Key, double[][]>> it = responses.entrySet().iterator();
+            while (points > maxPoints && it.hasNext()) {
+                Map.Entry<Key, double[][]> eldest = it.next();
+                points -= eldest.getValue()[0].length;
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear()
+    {
+        responses.clear();
+        points = 0;
+    }
+
+    public synchronized int size()
+    {
+        return responses.size();
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public synchronized String toString()
+    {
+        return String.format("ResponseCache: hits=%d misses=%d responses=%d points=%d/%d", 
+                             getHits(), getMisses(), size(), points, maxPoints);
+    }
+
+    private static class Key
+    {
+        private String responseId;
+        private ResponseUnits units;
+        private double[] freqs;
+        private int hash;
+
+        private Key(String responseId, ResponseUnits units, double[] freqs)
+        {
+            this.responseId = responseId;
+            this.units      = units;
+            this.freqs      = freqs;
+            this.hash       = 31 * (31 * responseId.hashCode() + units.hashCode()) + Arrays.hashCode(freqs);
+        }
+
+        @Override public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return hash == other.hash && units == other.units && responseId.equals(other.responseId) 
+                   && Arrays.equals(freqs, other.freqs);
+        }
+    }
+}
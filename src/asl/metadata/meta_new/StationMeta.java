@@ -22,9 +22,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Hashtable;
 import java.util.TreeSet;
 import asl.metadata.*;
@@ -74,6 +74,32 @@ public class StationMeta
         this.blockette50= blockette;
     }
 
+/**
+ *  Return the metadata of this station for another day within the same epochs
+ *    The new stationMeta has its own channels Hashtable (so e.g., addRotatedChannelMeta
+ *    only changes that day) holding ChannelMeta.forDay() copies of this stationMeta's
+ *    channels, with dayBreak set for the channels in dayBreakChannels.
+ */
+    public StationMeta forDay(Calendar timestamp, Collection<ChannelKey> dayBreakChannels)
+    {
+        StationMeta dayMeta = null;
+        try {
+            dayMeta = new StationMeta(blockette50, timestamp);
+        }
+        catch (WrongBlocketteException e) { // We already made this StationMeta from blockette50
+            throw new RuntimeException(e);
+        }
+        dayMeta.comment   = this.comment;
+        dayMeta.latitude  = this.latitude;
+        dayMeta.longitude = this.longitude;
+        dayMeta.elevation = this.elevation;
+        for (ChannelKey chanKey : getChannelKeys()){
+            ChannelMeta channel = channels.get(chanKey);
+            dayMeta.addChannel(chanKey, channel.forDay(timestamp, dayBreakChannels.contains(chanKey)) );
+        }
+        return dayMeta;
+    }
+
     public void setLatitude(double latitude)
     {
         if (! (latitude <= 90. && latitude >= -90) ) {
@@ -147,6 +173,18 @@ public class StationMeta
     public ChannelMeta getChanMeta(String location, String name) {
       return getChanMeta(new ChannelKey(location, name));
     }
+/**
+ *  Return a sorted copy of the channel keys
+ *    The metrics of a day share this stationMeta and may add rotated channels
+ *    (addRotatedChannelMeta) while others look through the channels, so never
+ *    iterate over channels.keySet() directly (Hashtable.put locks the table too).
+ */
+    private TreeSet<ChannelKey> getChannelKeys() {
+      synchronized (channels) {
+        return new TreeSet<ChannelKey>(channels.keySet());
+      }
+    }
+
 /**
  *  Return the entire channels Hashtable
  */
@@ -168,8 +206,7 @@ public class StationMeta
         if (!Channel.validBandCode(band.substring(0,1)) || !Channel.validInstrumentCode(band.substring(1,2)) ) {
             return null;
         }
-        TreeSet<ChannelKey> keys = new TreeSet<ChannelKey>();
-        keys.addAll(channels.keySet());
+        TreeSet<ChannelKey> keys = getChannelKeys();
 
         ArrayList<Channel> channelArrayList = new ArrayList<Channel>();
 
@@ -206,8 +243,7 @@ public class StationMeta
         if (!Channel.validBandCode(band.substring(0,1)) || !Channel.validInstrumentCode(band.substring(1,2)) ) {
             return null;
         }
-        TreeSet<ChannelKey> keys = new TreeSet<ChannelKey>();
-        keys.addAll(channels.keySet());
+        TreeSet<ChannelKey> keys = getChannelKeys();
 
         ArrayList<Channel> channelArrayList = new ArrayList<Channel>();
 
@@ -279,8 +315,7 @@ public class StationMeta
         if (!Channel.validBandCode(band.substring(0,1)) || !Channel.validInstrumentCode(band.substring(1,2)) ) {
             return null;
         }
-        TreeSet<ChannelKey> keys = new TreeSet<ChannelKey>();
-        keys.addAll(channels.keySet());
+        TreeSet<ChannelKey> keys = getChannelKeys();
 
         ArrayList<Channel> channelArrayList = new ArrayList<Channel>();
 
@@ -299,8 +334,7 @@ public class StationMeta
  *  Return a (sorted) ArrayList of channels that are continuous (channelFlag="C?")
  **/
     public List<Channel> getContinuousChannels() {
-        TreeSet<ChannelKey> keys = new TreeSet<ChannelKey>();
-        keys.addAll(channels.keySet());
+        TreeSet<ChannelKey> keys = getChannelKeys();
 
         ArrayList<Channel> channelArrayList = new ArrayList<Channel>();
 
@@ -441,9 +475,7 @@ public class StationMeta
 
     public void print() {
       System.out.print(this);
-      ArrayList<ChannelKey> chanKeys = new ArrayList<ChannelKey>();
-      chanKeys.addAll(channels.keySet() );
-      Collections.sort(chanKeys);
+      TreeSet<ChannelKey> chanKeys = getChannelKeys();
       for (ChannelKey chanKey : chanKeys){
         channels.get(chanKey).print();
       }
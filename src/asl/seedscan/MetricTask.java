@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package asl.seedscan;
+
+import java.util.Hashtable;
+import java.util.concurrent.RecursiveTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import asl.seedscan.event.EventCMT;
+import asl.seedscan.metrics.Metric;
+import asl.seedscan.metrics.MetricData;
+import asl.seedscan.metrics.MetricResult;
+import asl.seedscan.metrics.MetricWrapper;
+
+import sac.SacTimeSeries;
+
+/**
+ * MetricTask - Computes a single metric for one station + day.
+ *
+ * The metrics of a station-day are independent of each other: they only share the 
+ * (read-only) day's MetricData, its rotated channels and its CrossPowerCache, which 
+ * are safe to use from several threads. Scanner.scanDay() forks one MetricTask per 
+ * metric and collects the results in config order.
+ */
+class MetricTask
+extends RecursiveTask<MetricResult>
+{
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = LoggerFactory.getLogger(asl.seedscan.MetricTask.class);
+
+    private MetricWrapper wrapper;
+    private MetricData metricData;
+    private String plotsDir;
+    private Hashtable<String, EventCMT> eventCMTs;
+    private Hashtable<String, Hashtable<String, SacTimeSeries>> eventSynthetics;
+
+    private Metric metric = null;
+
+    MetricTask(MetricWrapper wrapper, MetricData metricData, String plotsDir, 
+               Hashtable<String, EventCMT> eventCMTs, Hashtable<String, Hashtable<String, SacTimeSeries>> eventSynthetics)
+    {
+        this.wrapper         = wrapper;
+        this.metricData      = metricData;
+        this.plotsDir        = plotsDir;
+        this.eventCMTs       = eventCMTs;
+        this.eventSynthetics = eventSynthetics;
+    }
+
+/**
+ * @return The metric's results, or null if it failed
+ */
+    protected MetricResult compute()
+    {
+        try {
+            metric = wrapper.getNewInstance();
+            metric.setBaseOutputDir(plotsDir);
+            metric.setData(metricData);
+
+            if (eventCMTs != null) {
+                metric.setEventTable( eventCMTs );
+                if (eventSynthetics != null) {
+                    metric.setEventSynthetics( eventSynthetics );
+                }
+            }
+            metric.process();
+            return metric.getMetricResult();
+        }
+        catch (RuntimeException e) {
+            logger.error(String.format("Caught exception while computing %s:", this), e);
+            return null;
+        }
+    }
+
+    public String toString()
+    {
+        return (metric == null) ? "metric=null" : metric.getName();
+    }
+}
@@ -28,6 +28,7 @@ public class Scan
     private String scanName = null;
     private String pathPattern;
     private String datalessDir;
+    private String snapshotDir;
     private String eventsDir;
     private String plotsDir;
     private int startDay;
@@ -72,6 +73,17 @@ public class Scan
         return datalessDir;
     }
 
+    // metadata snapshot dir (null = don't keep snapshots)
+    public void setSnapshotDir(String snapshotDir)
+    {
+        this.snapshotDir = snapshotDir;
+    }
+
+    public String getSnapshotDir()
+    {
+        return snapshotDir;
+    }
+
     public void setPlotsDir(String plotsDir)
     {
         this.plotsDir = plotsDir;
@@ -25,12 +25,11 @@ import asl.metadata.Station;
 import asl.metadata.MetaServer;
 import asl.seedscan.database.*;
 
+import timeutils.PSD;
+
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.List;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 public class ScanManager
 {
     private static final Logger logger = LoggerFactory.getLogger(asl.seedscan.ScanManager.class);
@@ -38,6 +37,7 @@ public class ScanManager
     private Scan scan = null;
     private ConcurrentLinkedQueue<Runnable> taskQueue = null;
     private boolean running = true;
+    private ScanProgress progress = null;
 
     public ScanManager(MetricReader reader, MetricInjector injector, List<Station> stationList, Scan scan, MetaServer metaServer)
 
@@ -48,25 +48,35 @@ public class ScanManager
 
         logger.info("Number of Threads to Use = [{}]", threadCount);
 
-        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+     // PSD segments are forked into the scheduler's pool along with the station-days
+        PSD.setParallelism(threadCount);
+
+        StationDayScheduler scheduler = new StationDayScheduler(threadCount);
         for (Station station : stationList) {
             if (passesFilter(station)) {
                 logger.debug("Add station={} to the task queue", station);
                 logger.info("Add station={} to the task queue", station);
-                executor.execute( new Scanner(reader, injector, station, scan, metaServer) );
+                scheduler.submit( new Scanner(reader, injector, station, scan, metaServer) );
             }
             else {
                 logger.debug("station={} Did NOT pass filter for scan={}", station, scan.getName());
             }
         }
-        executor.shutdown();
-/**
-    awaitTermination(long timeout, TimeUnit unit) - Blocks until all tasks have completed execution 
-      after a shutdown request, or the timeout occurs, or the current thread is interrupted, whichever happens first.
-**/
-        while (executor.isTerminated() == false) { // Hang out here until all worker threads have finished
+        scheduler.shutdown();
+        try { // Hang out here until all station-days have been scanned
+            scheduler.awaitCompletion();
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for the station-day scheduler to finish");
         }
-        logger.info("ALL THREADS HAVE FINISHED");
+        progress = scheduler.getProgress();
+        logger.info("ALL THREADS HAVE FINISHED: {}", progress);
+    }
+
+    /**
+     * @return The final progress counters (stations, station-days, bytes ingested, throughput) of the scan
+     */
+    public ScanProgress getProgress() {
+        return progress;
     }
 
     private boolean passesFilter(Station station) {
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package asl.seedscan;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ScanProgress - Thread-safe counters describing how far along a scan is.
+ *
+ * Updated by the StationDayScheduler (stations, station-days) and by the Scanner 
+ * (bytes of seed data read in), and read by anyone wanting to report progress/ETA.
+ */
+public class ScanProgress
+{
+    private long startTime;
+
+    private AtomicLong stationsTotal    = new AtomicLong(0);
+    private AtomicLong stationsStarted  = new AtomicLong(0);
+    private AtomicLong stationsDone     = new AtomicLong(0);
+    private AtomicLong stationDaysTotal = new AtomicLong(0);
+    private AtomicLong stationDaysDone  = new AtomicLong(0);
+    private AtomicLong bytesIngested    = new AtomicLong(0);
+
+    public ScanProgress()
+    {
+        startTime = System.currentTimeMillis();
+    }
+
+    void addStations(long count)
+    {
+        stationsTotal.addAndGet(count);
+    }
+
+    void stationDone()
+    {
+        stationsDone.incrementAndGet();
+    }
+
+    void stationStarted(long days)
+    {
+        stationsStarted.incrementAndGet();
+        stationDaysTotal.addAndGet(days);
+    }
+
+    void stationDayDone()
+    {
+        stationDaysDone.incrementAndGet();
+    }
+
+    void addBytesIngested(long bytes)
+    {
+        bytesIngested.addAndGet(bytes);
+    }
+
+    public long getStationsTotal()
+    {
+        return stationsTotal.get();
+    }
+
+    public long getStationsDone()
+    {
+        return stationsDone.get();
+    }
+
+    /**
+     * @return Number of station-days scheduled so far. This grows as each station is split
+     *         into its days, so it is only final once every station has started.
+     */
+    public long getStationDaysTotal()
+    {
+        return stationDaysTotal.get();
+    }
+
+    public long getStationDaysDone()
+    {
+        return stationDaysDone.get();
+    }
+
+    public long getBytesIngested()
+    {
+        return bytesIngested.get();
+    }
+
+    /**
+     * @return Seconds since the scan started
+     */
+    public double getElapsedSeconds()
+    {
+        return (System.currentTimeMillis() - startTime) / 1000.;
+    }
+
+    /**
+     * @return Bytes of seed data read in per second
+     */
+    public double getBytesPerSecond()
+    {
+        double elapsed = getElapsedSeconds();
+        return (elapsed > 0.) ? getBytesIngested() / elapsed : 0.;
+    }
+
+    /**
+     * @return Station-days completed per second
+     */
+    public double getStationDaysPerSecond()
+    {
+        double elapsed = getElapsedSeconds();
+        return (elapsed > 0.) ? getStationDaysDone() / elapsed : 0.;
+    }
+
+    /**
+     * Estimate the time remaining from the station-day completion rate so far.
+     * Stations not yet split into days are counted as the average number of days per started station.
+     *
+     * @return Estimated seconds until the scan completes, or -1 if no estimate can be made yet
+     */
+    public double getEstimatedSecondsRemaining()
+    {
+        long started = stationsStarted.get();
+        long done    = getStationDaysDone();
+        double rate  = getStationDaysPerSecond();
+        if (started == 0 || done == 0 || rate <= 0.) {
+            return -1.;
+        }
+        double daysPerStation = (double)getStationDaysTotal() / (double)started;
+        double expectedDays   = getStationDaysTotal() + daysPerStation * (getStationsTotal() - started);
+        return Math.max(expectedDays - done, 0.) / rate;
+    }
+
+    public String toString()
+    {
+        double eta = getEstimatedSecondsRemaining();
+        return String.format("stations=%d/%d station-days=%d/%d ingested=%.1f MB (%.2f MB/s, %.3f station-days/s) ETA=%s",
+                getStationsDone(), getStationsTotal(), getStationDaysDone(), getStationDaysTotal(),
+                getBytesIngested() / 1048576., getBytesPerSecond() / 1048576., getStationDaysPerSecond(),
+                (eta < 0.) ? "unknown" : String.format("%.0f s", eta));
+    }
+}
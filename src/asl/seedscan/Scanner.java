@@ -39,7 +39,10 @@ import java.util.ArrayList;
 import java.util.GregorianCalendar;
 import java.util.Calendar;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +53,7 @@ import asl.seedsplitter.SeedSplitter;
 import asl.seedscan.database.MetricDatabase;
 import asl.seedscan.database.MetricInjector;
 import asl.seedscan.database.MetricReader;
+import asl.seedscan.database.MetricValueIdentifier;
 import asl.seedscan.event.*;
 import asl.metadata.*;
 import asl.metadata.meta_new.*;
@@ -69,21 +73,22 @@ public class Scanner
     private MetricReader reader;
     private Scan scan;
     private MetaServer metaServer;
+    private ScanProgress progress = null;
 
     private MetricData currentMetricData = null;
     private MetricData nextMetricData = null;
 
-    private FallOffQueue<SeedSplitProgress> progressQueue;
-
     private static long MB = 1048576L; // 1024*1024 - for java Runtime outputs
 
+ // Number of seed files (= channels) of a station-day to decode at the same time
+    private static final int SPLITTER_THREADS = Runtime.getRuntime().availableProcessors();
+
     public Scanner(MetricReader reader, MetricInjector injector, Station station, Scan scan)
     {
         this.reader = reader;
         this.injector = injector;
         this.station  = station;
         this.scan = scan;
-        this.progressQueue = new FallOffQueue<SeedSplitProgress>(8);
     }
 
     public Scanner(MetricReader reader, MetricInjector injector, Station station, Scan scan, MetaServer metaServer)
@@ -94,7 +99,6 @@ public class Scanner
         //this.metaGen  = metaGen;
         this.metaServer  = metaServer;
         this.scan = scan;
-        this.progressQueue = new FallOffQueue<SeedSplitProgress>(8);
     }
 
 
@@ -106,24 +110,8 @@ public class Scanner
     {
         logger.debug("Enter scan(): Thread id=[{}]", Thread.currentThread().getId());
 
-        GregorianCalendar timestamp = new GregorianCalendar(TimeZone.getTimeZone("GMT") );
-
         Runtime runtime = Runtime.getRuntime();
 
-        // Look for cfg:start_date first:
-        if (scan.getStartDate() > 1990001 && scan.getStartDate() < 2014365) {
-            timestamp.set(Calendar.YEAR, scan.getStartDate() / 1000);
-            timestamp.set(Calendar.DAY_OF_YEAR, scan.getStartDate() % 1000);
-        }
-        else { // Use cfg:start_day
-            timestamp.setTimeInMillis(timestamp.getTimeInMillis() - (scan.getStartDay() * dayMilliseconds));
-        }
-
-     // timestamp is now set to current time - (24 hours x StartDay). What we really want is to set it
-     //   to the start (hh:mm=00:00) of the first day we want to scan
-        timestamp.set(Calendar.HOUR_OF_DAY, 0);      timestamp.set(Calendar.MINUTE, 0);
-        timestamp.set(Calendar.SECOND, 0);      timestamp.set(Calendar.MILLISECOND, 0);
-
      // CMT Event loader - use to load events for each day
         EventLoader eventLoader = new EventLoader( scan.getEventsDir() );
 
@@ -137,26 +125,19 @@ public class Scanner
      // :
      // daysToScan - 1
 
-        for (int i=0; i < scan.getDaysToScan(); i++) {
-            if (i != 0) {
-                timestamp.setTimeInMillis(timestamp.getTimeInMillis() - dayMilliseconds);
-            }
+        List<GregorianCalendar> days = getDayTimestamps();
+
+        for (int i=0; i < days.size(); i++) {
+            GregorianCalendar timestamp = days.get(i);
             GregorianCalendar nextDayTimestamp = (GregorianCalendar)timestamp.clone();
             nextDayTimestamp.setTimeInMillis( timestamp.getTimeInMillis() + dayMilliseconds);
 
             logger.debug(String.format("Scan Station=%s Day=%s Thread id=[%d]", station, EpochData.epochToDateString(timestamp),
                 Thread.currentThread().getId() ));
-//if (true) return;
-
 
 // [1] Get all the channel metadata for this station, for this day
-            //StationMeta stnMeta = metaGen.getStationMeta(station, timestamp); 
-            StationMeta stnMeta = metaServer.getStationMeta(station, timestamp); 
+            StationMeta stnMeta = getStationMeta(timestamp);
             if (stnMeta == null) {                       // No Metadata found for this station + this day --> skip day
-               //System.out.format("== Scanner: No Metadata found for Station:%s_%s + Day:%s --> Skipping\n", 
-                                  //station.getNetwork(), station.getStation(), EpochData.epochToDateString(timestamp) );
-               logger.warn(String.format("== Scanner: No Metadata found for Station:%s_%s + Day:%s --> Skipping\n", 
-                                  station.getNetwork(), station.getStation(), EpochData.epochToDateString(timestamp) ));
                continue;
             }
 
@@ -164,23 +145,6 @@ public class Scanner
                 stnMeta.printStationInfo();
             }
 
-            logger.info(String.format("Scan Station=%s Day=%s", station, EpochData.epochToDateString(timestamp) ));
-
-            Hashtable<String, EventCMT> eventCMTs = eventLoader.getDayEvents( timestamp );
-            Hashtable<String, Hashtable<String, SacTimeSeries>> eventSynthetics = null;
-
-            if (eventCMTs != null) {
-                //SortedSet<String> keys = new TreeSet<String>(eventCMTs.keySet());
-                //for (String key : keys){
-                    //System.out.format("== Scanner: Got EventCMT key=[%s] --> [%s]\n",key, eventCMTs.get(key) ); 
-                //}
-                eventSynthetics = eventLoader.getDaySynthetics( timestamp, station );
-            }
-            else {
-                //System.out.format("== Scanner: NO CMTs FOUND for this day\n");
-            }
-
-
 // [2] Read in all the seed files for this station, for this day & for the next day
 //     If this isn't the first day of the scan then simply copy current into next so we
 //     don't have to reread all of the seed files in
@@ -192,6 +156,10 @@ public class Scanner
               // Need to null out ref to next day before passing currentMetricData to avoid chaining refs
                 if (currentMetricData != null) {
                     currentMetricData.setNextMetricDataToNull();
+                 // The old next day has rolled off the scan --> recycle its blocks
+                    if (nextMetricData != null) {
+                        nextMetricData.releaseData();
+                    }
                     nextMetricData    = currentMetricData;
                 }
             }
@@ -206,89 +174,213 @@ public class Scanner
                                   //runtime.freeMemory()/MB, (runtime.totalMemory() - runtime.freeMemory())/MB );
 
 // [3] Loop over Metrics to compute, for this station, for this day
+            scanDay(timestamp, stnMeta, currentMetricData, eventLoader);
 
-            Hashtable<CrossPowerKey, CrossPower> crossPowerMap = null;
+        } // end loop over day to scan
 
-            for (MetricWrapper wrapper: scan.getMetrics()) {
-                Metric metric = wrapper.getNewInstance();
+     // Done with the last two days too
+        if (nextMetricData != null) {
+            nextMetricData.releaseData();
+        }
+        if (currentMetricData != null && currentMetricData != nextMetricData) {
+            currentMetricData.releaseData();
+        }
+        releaseDigests();
+    } // end scan()
 
-                metric.setBaseOutputDir(scan.getPlotsDir());
+/**
+ *  Read the stored digests of this day's values (each of the scan's metrics on each of the station's 
+ *  channels) in bulk, so that MetricData.valueDigestChanged() doesn't make a database round trip per value
+ */
+    void prefetchDigests(GregorianCalendar timestamp, StationMeta stnMeta)
+    {
+        if (reader == null || !reader.isConnected()) {
+            return;
+        }
+        Set<String> metricNames = new LinkedHashSet<String>();
+        for (MetricWrapper wrapper: scan.getMetrics()) {
+            metricNames.add( wrapper.getNewInstance().getName() );
+        }
+        List<ChannelKey> channelKeys = new ArrayList<ChannelKey>( stnMeta.getChannelHashTable().keySet() );
+        List<MetricValueIdentifier> ids = new ArrayList<MetricValueIdentifier>(metricNames.size() * channelKeys.size());
+        for (String metricName : metricNames) {
+            for (ChannelKey channelKey : channelKeys) {
+                ids.add( new MetricValueIdentifier(timestamp, metricName, station, channelKey.toChannel()) );
+            }
+        }
+        reader.prefetchMetricValueDigests(ids);
+    }
 
-                if (currentMetricData != null) {
-                    metric.setData(currentMetricData);
+    void releaseDigests()
+    {
+        if (reader != null) {
+            reader.forgetMetricValueDigests(station);
+        }
+    }
 
-                    if (eventCMTs != null) {
-                        metric.setEventTable( eventCMTs );
-                        if (eventSynthetics != null) {
-                            metric.setEventSynthetics( eventSynthetics );
-                        }
-                    }
+/**
+ *  Return the (00:00 GMT) timestamps of the days to scan for this station,
+ *  ordered from the most recent (startDay) to the oldest (startDay - daysToScan + 1)
+ */
+    List<GregorianCalendar> getDayTimestamps()
+    {
+        GregorianCalendar timestamp = new GregorianCalendar(TimeZone.getTimeZone("GMT") );
 
-   // Hand off the crossPowerMap from metric to metric, adding to it each time
-                    if (crossPowerMap != null) {
-                        metric.setCrossPowerMap(crossPowerMap);
-                    }
-                    metric.process();
-   // Save the current crossPowerMap for the next metric:
-                    crossPowerMap = metric.getCrossPowerMap();
-                }
-                else if (metric.getClass().getName().contains("AvailabilityMetric")){
+        // Look for cfg:start_date first:
+        if (scan.getStartDate() > 1990001 && scan.getStartDate() < 2014365) {
+            timestamp.set(Calendar.YEAR, scan.getStartDate() / 1000);
+            timestamp.set(Calendar.DAY_OF_YEAR, scan.getStartDate() % 1000);
+        }
+        else { // Use cfg:start_day
+            timestamp.setTimeInMillis(timestamp.getTimeInMillis() - (scan.getStartDay() * dayMilliseconds));
+        }
+
+     // timestamp is now set to current time - (24 hours x StartDay). What we really want is to set it
+     //   to the start (hh:mm=00:00) of the first day we want to scan
+        timestamp.set(Calendar.HOUR_OF_DAY, 0);      timestamp.set(Calendar.MINUTE, 0);
+        timestamp.set(Calendar.SECOND, 0);      timestamp.set(Calendar.MILLISECOND, 0);
+
+        List<GregorianCalendar> days = new ArrayList<GregorianCalendar>();
+        for (int i=0; i < scan.getDaysToScan(); i++) {
+            if (i != 0) {
+                timestamp = (GregorianCalendar)timestamp.clone();
+                timestamp.setTimeInMillis(timestamp.getTimeInMillis() - dayMilliseconds);
+            }
+            days.add(timestamp);
+        }
+        return days;
+    }
+
+/**
+ *  Return the StationMeta for this station + day, or null (with a warning) if no metadata exists
+ */
+    StationMeta getStationMeta(GregorianCalendar timestamp)
+    {
+        StationMeta stnMeta = metaServer.getStationMeta(station, timestamp); 
+        if (stnMeta == null) {
+           logger.warn(String.format("== Scanner: No Metadata found for Station:%s_%s + Day:%s --> Skipping\n", 
+                              station.getNetwork(), station.getStation(), EpochData.epochToDateString(timestamp) ));
+        }
+        return stnMeta;
+    }
+
+/**
+ *  Compute all of the scan's metrics for this station + day and hand the results to the injector.
+ *  currentMetricData may be null (no data for this day), in which case only the AvailabilityMetric 
+ *  is computed (from the metadata alone).
+ */
+    void scanDay(GregorianCalendar timestamp, StationMeta stnMeta, MetricData currentMetricData, EventLoader eventLoader)
+    {
+        logger.info(String.format("Scan Station=%s Day=%s", station, EpochData.epochToDateString(timestamp) ));
+
+        Hashtable<String, EventCMT> eventCMTs = eventLoader.getDayEvents( timestamp );
+        Hashtable<String, Hashtable<String, SacTimeSeries>> eventSynthetics = null;
+
+        if (eventCMTs != null) {
+            eventSynthetics = eventLoader.getDaySynthetics( timestamp, station );
+        }
+
+        if (currentMetricData == null) { // No data for this station + day --> only the AvailabilityMetric
+            for (MetricWrapper wrapper: scan.getMetrics()) {
+                Metric metric = wrapper.getNewInstance();
+                if (metric.getClass().getName().contains("AvailabilityMetric")){
+                    metric.setBaseOutputDir(scan.getPlotsDir());
                     metric.setData( new MetricData(stnMeta) );
                     metric.process();
+                    injectResults(metric.getMetricResult());
                 }
-                else { // No data for this station + day
-                    continue;
-                }
+            }
+            return;
+        }
+
+        prefetchDigests(timestamp, stnMeta);
+
+   // Compute the metrics at the same time (they share currentMetricData, its rotated channels and 
+   //   its CrossPowerCache), then hand the results to the injector in config order
+        List<MetricTask> tasks = new ArrayList<MetricTask>();
+        for (MetricWrapper wrapper: scan.getMetrics()) {
+            tasks.add( new MetricTask(wrapper, currentMetricData, scan.getPlotsDir(), eventCMTs, eventSynthetics) );
+        }
+        if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(tasks);
+        }
+        else {                          // Not called from a StationDayScheduler --> one at a time
+            for (MetricTask task : tasks) {
+                task.invoke();
+            }
+        }
+
+        for (MetricTask task : tasks) {
+            injectResults(task.join());
+        }
 
+        logger.debug(String.format("Station=%s Day=%s %s", station, EpochData.epochToDateString(timestamp),
+                     currentMetricData.getCrossPowerCache() ));
+    } // end scanDay()
+
+/**
+ *  Log the values of a metric's results and hand them to the injector
+ */
+    private void injectResults(MetricResult results)
+    {
    // This is a little convoluted: calibration.getResult() returns a MetricResult, which may contain many values
    //   in a Hashtable<String,String> = map.
    //   MetricResult.getResult(id) returns value = String
-                
-                MetricResult results = metric.getMetricResult();
-                //System.out.format("Results for %s:\n", metric.getClass().getName());
-                if (results == null){
-                }
-                else {
-                    for (String id: results.getIdSortedSet()) {
-                        double value = results.getResult(id);
-                        ByteBuffer digest = results.getDigest(id);
-                        logger.info(String.format("%s [%7s] [%s] %15s:%6.2f [%s]", results.getMetricName(), 
-                            results.getStation(), EpochData.epochToDateString(results.getDate()), id, value, 
-                            Hex.byteArrayToHexString(digest.array()) ));
-
-                        if (Double.isNaN(value)){
-                            logger.warn(String.format("%s [%s] [%s] %s: ERROR: metric value = [ NaN ] !!\n", 
-                              results.getMetricName(), results.getStation(), EpochData.epochToDateString(results.getDate()),
-                              id ));
-                        }
-                        if (Double.isInfinite(value)){
-                            logger.warn(String.format("%s [%s] [%s] %s: ERROR: metric value = [ Infinity ] !!\n", 
-                              results.getMetricName(), results.getStation(), EpochData.epochToDateString(results.getDate()),
-                              id ));
-                        }
-                    }
-                    if (injector.isConnected()) {
-                        try {
-                    	    injector.inject(results);
-                        } catch (InterruptedException ex) {
-                    	    logger.warn(String.format("Interrupted while trying to inject metric [%s]", metric.toString()));
-                        }
-                    }
-                    else {
-                        logger.warn("Injector *IS NOT* connected --> Don't inject");
-                    }
-                }
-            } // end loop over metrics
 
-        } // end loop over day to scan
-    } // end scan()
+        if (results == null){
+            return;
+        }
+        for (String id: results.getIdSortedSet()) {
+            double value = results.getResult(id);
+            ByteBuffer digest = results.getDigest(id);
+            logger.info(String.format("%s [%7s] [%s] %15s:%6.2f [%s]", results.getMetricName(), 
+                results.getStation(), EpochData.epochToDateString(results.getDate()), id, value, 
+                Hex.byteArrayToHexString(digest.array()) ));
+
+            if (Double.isNaN(value)){
+                logger.warn(String.format("%s [%s] [%s] %s: ERROR: metric value = [ NaN ] !!\n", 
+                  results.getMetricName(), results.getStation(), EpochData.epochToDateString(results.getDate()),
+                  id ));
+            }
+            if (Double.isInfinite(value)){
+                logger.warn(String.format("%s [%s] [%s] %s: ERROR: metric value = [ Infinity ] !!\n", 
+                  results.getMetricName(), results.getStation(), EpochData.epochToDateString(results.getDate()),
+                  id ));
+            }
+        }
+        if (injector.isConnected()) {
+            try {
+        	    injector.inject(results);
+            } catch (InterruptedException ex) {
+        	    logger.warn(String.format("Interrupted while trying to inject metric [%s]", results.getMetricName()));
+            }
+        }
+        else {
+            logger.warn("Injector *IS NOT* connected --> Don't inject");
+        }
+    }
+
+    void setProgress(ScanProgress progress)
+    {
+        this.progress = progress;
+    }
+
+    Station getStation()
+    {
+        return station;
+    }
+
+    Scan getScan()
+    {
+        return scan;
+    }
 
 /**
  *  Return a MetricData object for the station + timestamp
  *  If a StationMeta is passed in, then this must be for the current Day so 
  *  attach a MetricReader to the MetricData, otherwise don't
  */
-    private MetricData getMetricData(GregorianCalendar timestamp) {
+    MetricData getMetricData(GregorianCalendar timestamp) {
 
       //System.out.format("== getMetricData: request data for Station=[%s] Day=[%s]\n", station, EpochData.epochToDateString(timestamp));
 
@@ -355,9 +447,19 @@ public class Scanner
 
         Hashtable<String,ArrayList<DataSet>> table = null;
         logger.info(dir.getPath() + " contains " +files.length+ " files.");
-        progressQueue.clear();
+
+        if (progress != null) {
+            long bytes = 0;
+            for (File file : files) {
+                bytes += file.length();
+            }
+            progress.addBytesIngested(bytes);
+        }
+     // Each load gets its own progress queue since days of the same station may be read concurrently
+        FallOffQueue<SeedSplitProgress> progressQueue = new FallOffQueue<SeedSplitProgress>(8);
 
         SeedSplitter splitter = new SeedSplitter(files, progressQueue);
+        splitter.setParallelism(SPLITTER_THREADS);
         table = splitter.doInBackground();
 
         Hashtable<String,ArrayList<Integer>> qualityTable = null;
@@ -57,6 +57,7 @@ import asl.security.*;
 import asl.seedscan.config.*;
 import asl.seedscan.database.*;
 import asl.seedscan.metrics.*;
+import asl.seedsplitter.Sequence;
 import asl.util.*;
 
 /**
@@ -83,6 +84,13 @@ public class SeedScan
         Option opSchemaFile = new Option("s", "schema-file", true, 
                             "The xsd schema file which should be used to verify the config file format. ");  
 
+        Option opOffHeap = new Option("o", "off-heap", true, 
+                            "Keep the samples read in outside the Java heap, up to the given number of MB "
+                          + "(default 3/4 of the max heap size). Must be below -XX:MaxDirectMemorySize, which "
+                          + "defaults to the max heap size. Samples past the limit stay on the heap.");
+        opOffHeap.setOptionalArg(true);
+        opOffHeap.setArgName("MB");
+
         OptionGroup ogConfig = new OptionGroup();
         ogConfig.addOption(opConfigFile);
 
@@ -91,6 +99,7 @@ public class SeedScan
 
         options.addOptionGroup(ogConfig);
         options.addOptionGroup(ogSchema);
+        options.addOption(opOffHeap);
 
         PosixParser optParser = new PosixParser();
         CommandLine cmdLine = null;
@@ -111,6 +120,17 @@ public class SeedScan
             else if (opt.getOpt().equals("s")) {
                 schemaFile = new File(opt.getValue());
             }
+            else if (opt.getOpt().equals("o")) {
+                Sequence.setOffHeap(true);
+                if (opt.getValue() != null) {
+                    try {
+                        Sequence.setOffHeapLimit(Long.parseLong(opt.getValue()) * 1024 * 1024);
+                    } catch (NumberFormatException e) {
+                        logger.error("Invalid off-heap limit '" + opt.getValue() + "' (MB)");
+                        System.exit(1);
+                    }
+                }
+            }
         }
 
 // ==== Configuration Read and Parse Actions ====
@@ -134,9 +154,15 @@ public class SeedScan
 
      // ===== CONFIG: DATABASE =====
         MetricDatabase readDB   = new MetricDatabase(config.getDatabase());
-        MetricDatabase writeDB  = new MetricDatabase(config.getDatabase());
+        MetricDatabase writeDB  = new MetricDatabase(config.getDatabase(), 1);
     	MetricReader   reader 	= new MetricReader(readDB); 
     	MetricInjector injector = new MetricInjector(writeDB);
+        if (config.getDatabase().getInsertBatchSize() != null) {
+            injector.setBatchSize(config.getDatabase().getInsertBatchSize().intValue());
+        }
+        if (config.getDatabase().getInsertMaxLatency() != null) {
+            injector.setMaxLatency(config.getDatabase().getInsertMaxLatency().longValue());
+        }
 
      // ===== CONFIG: SCANS =====
         Hashtable<String, Scan> scans = new Hashtable<String, Scan>();
@@ -162,6 +188,7 @@ public class SeedScan
                 Scan scan = new Scan(scanCfg.getName());
                 scan.setPathPattern(scanCfg.getPath());
                 scan.setDatalessDir(scanCfg.getDatalessDir());
+                scan.setSnapshotDir(scanCfg.getSnapshotDir());
                 scan.setEventsDir(scanCfg.getEventsDir());
                 scan.setPlotsDir(scanCfg.getPlotsDir());
                 scan.setDaysToScan(scanCfg.getDaysToScan().intValue());
@@ -275,11 +302,11 @@ public class SeedScan
                 }
             }
             else {
-                metaServer = new MetaServer(scan.getDatalessDir());
+                metaServer = new MetaServer(scan.getDatalessDir(), scan.getSnapshotDir());
             }
         }
         else { // Use local MetaServer
-            metaServer = new MetaServer(scan.getDatalessDir());
+            metaServer = new MetaServer(scan.getDatalessDir(), scan.getSnapshotDir());
         }
 
         List<Station> stations = null;
@@ -314,9 +341,14 @@ public class SeedScan
             System.exit(1);
         }
 
-        Thread readerThread = new Thread(reader);
-        readerThread.start();
-        logger.info("Reader thread started.");
+     // One reader thread per database connection so that station threads don't queue behind each other's queries
+        List<Thread> readerThreads = new ArrayList<Thread>();
+        for (int i=0; i < Math.max(readDB.getPoolSize(), 1); i++) {
+            Thread readerThread = new Thread(reader);
+            readerThread.start();
+            readerThreads.add(readerThread);
+        }
+        logger.info(readerThreads.size() + " reader thread(s) started.");
         
         Thread injectorThread = new Thread(injector);
         injectorThread.start();
@@ -336,10 +368,8 @@ public class SeedScan
         try {
 	        injector.halt();
 	        logger.info("All stations processed. Waiting for injector thread to finish...");
-            synchronized(injectorThread) {
-	            //injectorThread.wait();
-	            injectorThread.interrupt();
-            }
+         // Let the injector flush its last batch (an interrupt could cut that short)
+	        injectorThread.join();
 	        logger.info("Injector thread halted.");
         } catch (InterruptedException ex) {
         	logger.warn("The injector thread was interrupted while attempting to complete requests.");
@@ -348,9 +378,11 @@ public class SeedScan
         try {
 	        reader.halt();
 	        logger.info("All stations processed. Waiting for reader thread to finish...");
-            synchronized(readerThread) {
-	            //readerThread.wait();
-	            readerThread.interrupt();
+            for (Thread readerThread : readerThreads) {
+                synchronized(readerThread) {
+	                //readerThread.wait();
+	                readerThread.interrupt();
+                }
             }
 	        logger.info("Reader thread halted.");
         } catch (InterruptedException ex) {
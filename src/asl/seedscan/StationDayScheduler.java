@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package asl.seedscan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import asl.metadata.meta_new.ChannelMeta;
+import asl.seedsplitter.Sequence;
+
+/**
+ * StationDayScheduler - Schedules the (station, day) units of a scan over a work-stealing pool.
+ *
+ * Each station submitted becomes a StationScanTask which forks one StationDayTask per day 
+ * to scan. Idle workers steal day units from busy stations, so a rescan is bounded by the 
+ * total work rather than by the slowest station.
+ */
+public class StationDayScheduler
+{
+    private static final Logger logger = LoggerFactory.getLogger(asl.seedscan.StationDayScheduler.class);
+
+    private static final long STATUS_INTERVAL_SECONDS = 60;
+
+    private ForkJoinPool pool;
+    private ScanProgress progress;
+    private List<StationFuture> stations;
+
+    private AtomicLong totalUnitNanos   = new AtomicLong(0);
+    private AtomicLong maxUnitNanos     = new AtomicLong(0);
+
+    public StationDayScheduler(int threadCount)
+    {
+        pool     = new ForkJoinPool(threadCount);
+        progress = new ScanProgress();
+        stations = new ArrayList<StationFuture>();
+    }
+
+    /**
+     * Queue all of the days of a station for scanning.
+     *
+     * @param scanner   The Scanner configured for the station + scan
+     */
+    public void submit(Scanner scanner)
+    {
+        scanner.setProgress(progress);
+        progress.addStations(1);
+        ForkJoinTask<Void> future = pool.submit( new StationScanTask(this, scanner) );
+        stations.add( new StationFuture(scanner, future) );
+    }
+
+    /**
+     * No more stations will be submitted. Already queued work will still be run.
+     */
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * Block until every submitted station has been scanned, logging the scan progress
+     * at regular intervals. A station that failed is logged and does not stop the others.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void awaitCompletion()
+    throws InterruptedException
+    {
+        for (StationFuture station : stations) {
+            boolean done = false;
+            while (!done) {
+                try {
+                    station.future.get(STATUS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+                    done = true;
+                } catch (TimeoutException e) {
+                    logStatus();
+                } catch (ExecutionException e) {
+                    logger.error(String.format("Scan of station=%s failed:", station.scanner.getStation()), e.getCause());
+                    done = true;
+                }
+            }
+        }
+        pool.awaitTermination(STATUS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        logStatus();
+    }
+
+    /**
+     * @return The progress (stations, station-days, bytes ingested, throughput, ETA) of this scan
+     */
+    public ScanProgress getProgress()
+    {
+        return progress;
+    }
+
+    /**
+     * @return Number of queued units (stations + station-days) not yet picked up by a worker
+     */
+    public long getQueueDepth()
+    {
+        return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+    }
+
+    /**
+     * @return Mean wall-clock time (in milliseconds) to process a single station-day
+     */
+    public double getMeanUnitLatency()
+    {
+        long completed = progress.getStationDaysDone();
+        if (completed == 0) {
+            return 0.;
+        }
+        return (double)totalUnitNanos.get() / (double)completed / 1000000.;
+    }
+
+    /**
+     * @return Maximum wall-clock time (in milliseconds) spent on a single station-day
+     */
+    public double getMaxUnitLatency()
+    {
+        return (double)maxUnitNanos.get() / 1000000.;
+    }
+
+    void stationStarted(int days)
+    {
+        progress.stationStarted(days);
+    }
+
+    void stationCompleted()
+    {
+        progress.stationDone();
+    }
+
+    void unitCompleted(StationDayTask unit, long nanos)
+    {
+        totalUnitNanos.addAndGet(nanos);
+        long max = maxUnitNanos.get();
+        while (nanos > max && !maxUnitNanos.compareAndSet(max, nanos)) {
+            max = maxUnitNanos.get();
+        }
+        progress.stationDayDone();
+        logger.debug(String.format("Finished %s in %.3f s [queueDepth=%d]", unit, nanos / 1.e9, getQueueDepth()));
+    }
+
+    private void logStatus()
+    {
+        logger.info(String.format("StationDayScheduler: %s [queueDepth=%d activeThreads=%d steals=%d] "
+                    + "unit latency mean=%.1f ms max=%.1f ms", progress, getQueueDepth(), 
+                    pool.getActiveThreadCount(), pool.getStealCount(), getMeanUnitLatency(), getMaxUnitLatency()));
+        logger.info(Sequence.getSharedBlockPool().toString());
+        if (Sequence.getOffHeap()) {
+            logger.info(Sequence.getSharedSegmentPool().toString());
+        }
+        logger.info(ChannelMeta.getResponseCache().toString());
+    }
+
+    private static class StationFuture
+    {
+        private Scanner scanner;
+        private ForkJoinTask<Void> future;
+
+        private StationFuture(Scanner scanner, ForkJoinTask<Void> future)
+        {
+            this.scanner = scanner;
+            this.future  = future;
+        }
+    }
+}
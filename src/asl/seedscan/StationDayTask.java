@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package asl.seedscan;
+
+import java.util.GregorianCalendar;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import asl.metadata.EpochData;
+import asl.metadata.meta_new.StationMeta;
+import asl.seedscan.metrics.MetricData;
+
+/**
+ * StationDayTask - The unit of work of the StationDayScheduler: all metrics for one station + one day.
+ */
+class StationDayTask
+extends RecursiveAction
+{
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = LoggerFactory.getLogger(asl.seedscan.StationDayTask.class);
+
+    private StationScanTask station;
+    private GregorianCalendar timestamp;
+    private GregorianCalendar nextDayTimestamp;
+    private boolean printStationInfo;
+
+    StationDayTask(StationScanTask station, GregorianCalendar timestamp, GregorianCalendar nextDayTimestamp,
+                   boolean printStationInfo)
+    {
+        this.station          = station;
+        this.timestamp        = timestamp;
+        this.nextDayTimestamp = nextDayTimestamp;
+        this.printStationInfo = printStationInfo;
+    }
+
+    protected void compute()
+    {
+        long startTime = System.nanoTime();
+        Scanner scanner = station.getScanner();
+
+        logger.debug(String.format("Scan Station=%s Day=%s Thread id=[%d]", scanner.getStation(), 
+            EpochData.epochToDateString(timestamp), Thread.currentThread().getId() ));
+
+        try {
+            StationMeta stnMeta = scanner.getStationMeta(timestamp);
+            if (stnMeta == null) {           // No Metadata found for this station + this day --> skip day
+                return;
+            }
+            if (printStationInfo) {
+                stnMeta.printStationInfo();
+            }
+
+            MetricData nextMetricData    = station.acquireMetricData(nextDayTimestamp);
+            MetricData currentMetricData = station.acquireMetricData(timestamp);
+
+            if (currentMetricData != null) {     // This doesn't mean nextMetricData isn't null!
+                currentMetricData.setNextMetricData(nextMetricData);
+            }
+
+            scanner.scanDay(timestamp, stnMeta, currentMetricData, station.getEventLoader());
+
+            // Null out ref to next day to avoid chaining refs while the previous day still holds this one
+            if (currentMetricData != null) {
+                currentMetricData.setNextMetricDataToNull();
+            }
+        }
+        catch (RuntimeException e) {
+            logger.error(String.format("Caught exception while scanning %s:", this), e);
+        }
+        finally {
+            station.releaseMetricData(nextDayTimestamp);
+            station.releaseMetricData(timestamp);
+            station.getScheduler().unitCompleted(this, System.nanoTime() - startTime);
+        }
+    }
+
+    public String toString()
+    {
+        return String.format("Station=%s Day=%s", station.getScanner().getStation(), 
+                             EpochData.epochToDateString(timestamp));
+    }
+}
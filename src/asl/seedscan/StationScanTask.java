@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package asl.seedscan;
+
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import asl.seedscan.event.EventLoader;
+import asl.seedscan.metrics.MetricData;
+
+/**
+ * StationScanTask - Splits the scan of a single station into (station, day) units.
+ *
+ * Each StationDayTask needs the MetricData for its own day and for the next day.
+ * The MetricData for a day is read in once, by whichever unit asks for it first, 
+ * and its blocks are returned to the shared BlockPool as soon as both units that 
+ * depend on it have finished.
+ */
+class StationScanTask
+extends RecursiveAction
+{
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = LoggerFactory.getLogger(asl.seedscan.StationScanTask.class);
+
+    private StationDayScheduler scheduler;
+    private Scanner scanner;
+    private EventLoader eventLoader;
+
+    private Hashtable<Long, DayData> dayData = new Hashtable<Long, DayData>();
+
+    StationScanTask(StationDayScheduler scheduler, Scanner scanner)
+    {
+        this.scheduler = scheduler;
+        this.scanner   = scanner;
+    }
+
+    protected void compute()
+    {
+        eventLoader = new EventLoader( scanner.getScan().getEventsDir() );
+
+        List<GregorianCalendar> days = scanner.getDayTimestamps();
+        List<StationDayTask> units = new ArrayList<StationDayTask>(days.size());
+
+        for (int i=0; i < days.size(); i++) {
+            GregorianCalendar timestamp = days.get(i);
+            GregorianCalendar nextDayTimestamp = (GregorianCalendar)timestamp.clone();
+            nextDayTimestamp.setTimeInMillis( timestamp.getTimeInMillis() + scanner.dayMilliseconds);
+
+            expect(timestamp);
+            expect(nextDayTimestamp);
+            units.add( new StationDayTask(this, timestamp, nextDayTimestamp, (i == 0)) );
+        }
+
+        logger.info("Schedule {} station-days for station={}", units.size(), scanner.getStation());
+        scheduler.stationStarted(units.size());
+
+        invokeAll(units);
+        scanner.releaseDigests();
+
+        scheduler.stationCompleted();
+    }
+
+    Scanner getScanner()
+    {
+        return scanner;
+    }
+
+    EventLoader getEventLoader()
+    {
+        return eventLoader;
+    }
+
+    StationDayScheduler getScheduler()
+    {
+        return scheduler;
+    }
+
+    /**
+     * Return the MetricData for this day, reading it in if no other unit has done so yet.
+     * Units requesting a day that is currently being read in wait for (or help with) the read.
+     */
+    MetricData acquireMetricData(GregorianCalendar timestamp)
+    {
+        DayData day = dayData.get(timestamp.getTimeInMillis());
+        if (day == null) {
+            return null;
+        }
+        boolean load = false;
+        synchronized (day) {
+            if (!day.started) {
+                day.started = true;
+                load = true;
+            }
+        }
+        if (load) {
+            return day.loader.invoke();
+        }
+        return day.loader.join();
+    }
+
+    /**
+     * A unit no longer needs this day. Once all units are done with it the MetricData is dropped.
+     */
+    void releaseMetricData(GregorianCalendar timestamp)
+    {
+        Long key = timestamp.getTimeInMillis();
+        DayData day = null;
+        synchronized (dayData) {
+            day = dayData.get(key);
+            if (day == null) {
+                return;
+            }
+            day.references--;
+            if (day.references > 0) {
+                return;
+            }
+            dayData.remove(key);
+        }
+        // Every unit that acquired this day has joined its loader, so a started loader is done
+        boolean started = false;
+        synchronized (day) {
+            started = day.started;
+        }
+        if (started && day.loader.isDone()) {
+            MetricData metricData = day.loader.getRawResult();
+            if (metricData != null) {
+                metricData.releaseData();
+            }
+        }
+    }
+
+    private void expect(GregorianCalendar timestamp)
+    {
+        Long key = timestamp.getTimeInMillis();
+        synchronized (dayData) {
+            DayData day = dayData.get(key);
+            if (day == null) {
+                day = new DayData( new MetricDataLoader(scanner, timestamp) );
+                dayData.put(key, day);
+            }
+            day.references++;
+        }
+    }
+
+    private static class DayData
+    {
+        private MetricDataLoader loader;
+        private boolean started = false;
+        private int references  = 0;
+
+        private DayData(MetricDataLoader loader)
+        {
+            this.loader = loader;
+        }
+    }
+
+    private static class MetricDataLoader
+    extends RecursiveTask<MetricData>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private Scanner scanner;
+        private GregorianCalendar timestamp;
+
+        private MetricDataLoader(Scanner scanner, GregorianCalendar timestamp)
+        {
+            this.scanner   = scanner;
+            this.timestamp = timestamp;
+        }
+
+        protected MetricData compute()
+        {
+            return scanner.getMetricData(timestamp);
+        }
+    }
+}
@@ -16,7 +16,6 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
  *
  */
-
 package asl.seedscan.database;
 
 import java.nio.ByteBuffer;
@@ -25,7 +24,12 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,43 +38,79 @@ import asl.metadata.Station;
 import asl.seedscan.config.*;
 import asl.seedscan.metrics.*;
 
+/**
+ * MetricDatabase - Runs the stored procedures of the metrics database over a pool of connections.
+ *
+ * Each query borrows a connection for its duration, so up to poolSize queries (e.g., from
+ * several MetricReader threads) run concurrently. Every connection keeps its own prepared
+ * statements, which are reused by later queries on that connection.
+ */
 public class MetricDatabase
 {
 	public static final Logger logger = LoggerFactory.getLogger(asl.seedscan.database.MetricDatabase.class);
 	
-	private Connection connection;
+	private static final String GET_METRIC_DIGEST = "SELECT spGetMetricDigest(?, ?, ?, ?)";
+	private static final String GET_METRIC_VALUE_DIGEST = "SELECT spGetMetricValueDigest(?, ?, ?, ?, ?, ?)";
+	private static final String GET_METRIC_VALUE = "SELECT spGetMetricValue(?, ?, ?, ?, ?, ?)";
+	// Maximum number of values inserted by one statement
+	private static final int MULTI_ROW_INSERT = 64;
+	// Maximum number of digests read by one statement
+	private static final int MULTI_ROW_DIGESTS = 256;
+	private static final String GET_ALL = "CALL spGetAll(?, ?, ?)";
+	
 	private String URI;
 	private String username;
 	private String password;
 	
-	// private CallableStatement callStatement;
+	private List<PooledConnection> connections = new ArrayList<PooledConnection>();
+	private LinkedBlockingQueue<PooledConnection> idleConnections = new LinkedBlockingQueue<PooledConnection>();
+	private volatile boolean multiRowDigestsSupported = true;
 	
 	public MetricDatabase(DatabaseT config)
 	{
-		this(config.getUri(), config.getUsername(), config.getPassword().getPlain());
+		this(config, (config.getPoolSize() == null) ? 1 : config.getPoolSize().intValue());
+	}
+	
+	public MetricDatabase(DatabaseT config, int poolSize)
+	{
+		this(config.getUri(), config.getUsername(), config.getPassword().getPlain(), poolSize);
 	}
 	
 	public MetricDatabase(String URI, String username, String password)
+	{
+		this(URI, username, password, 1);
+	}
+	
+	public MetricDatabase(String URI, String username, String password, int poolSize)
 	{
 		this.URI = URI;
 		this.username = username;
 		this.password = password;
 		
 		logger.info("MetricDatabase Constructor(): Attempt to connect to the dbase");
+		logger.info(String.format("Connection String = \"%s\", User = \"%s\", Pass = \"%s\", Pool Size = %d",
+				this.URI, this.username, this.password, poolSize));
 		
-		try
+		for (int i = 0; i < Math.max(poolSize, 1); i++)
 		{
-			logger.info(String.format("Connection String = \"%s\", User = \"%s\", Pass = \"%s\"",
-					this.URI, this.username, this.password));
-			
-			connection = DriverManager.getConnection(URI, username, password);
+			try
+			{
+				PooledConnection pooled = new PooledConnection(DriverManager.getConnection(URI, username, password));
+				connections.add(pooled);
+				idleConnections.add(pooled);
+			}
+			catch (SQLException e)
+			{
+				System.err.print(e);
+				logger.error("Could not open station database.");
+				// MTH: For now let's continue
+				// throw new RuntimeException("Could not open station database.");
+				break;
+			}
 		}
-		catch (SQLException e)
+		if (connections.size() > 0 && connections.size() < poolSize)
 		{
-			System.err.print(e);
-			logger.error("Could not open station database.");
-			// MTH: For now let's continue
-			// throw new RuntimeException("Could not open station database.");
+			logger.warn(String.format("Opened only %d of %d database connections", connections.size(), poolSize));
 		}
 	}
 	
@@ -84,26 +124,50 @@ public class MetricDatabase
 		return true;
 	}
 	
+	/**
+	 * Number of open connections = number of queries that can run at once
+	 */
+	public int getPoolSize()
+	{
+		return connections.size();
+	}
+	
 	public Connection getConnection()
 	{
-		return connection;
+		if (connections.size() == 0)
+			return null;
+		
+		return connections.get(0).getConnection();
+	}
+	
+	/**
+	 * Close all connections (and their statements). Queries after this will fail.
+	 */
+	public void close()
+	{
+		for (PooledConnection pooled : connections)
+		{
+			pooled.close();
+		}
 	}
 	
 	public ByteBuffer getMetricDigest(Calendar date, String metricName, Station station)
 	{
 		ByteBuffer digest = null;
+		PooledConnection pooled = null;
+		ResultSet resultSet = null;
 		
 		try
 		{
-			CallableStatement callStatement = connection.prepareCall("SELECT spGetMetricDigest(?, ?, ?, ?)");
-			// callStatement = connection.prepareCall("SELECT spGetMetricDigest(?, ?, ?, ?)");
+			pooled = acquire();
+			CallableStatement callStatement = pooled.prepareCall(GET_METRIC_DIGEST);
 			
 			java.sql.Date sqlDate = new java.sql.Date(date.getTime().getTime());
 			callStatement.setDate(1, sqlDate, date);
 			callStatement.setString(2, metricName);
 			callStatement.setString(3, station.getNetwork());
 			callStatement.setString(4, station.getStation());
-			ResultSet resultSet = callStatement.executeQuery();
+			resultSet = callStatement.executeQuery();
 			
 			if (resultSet.next())
 				digest = ByteBuffer.wrap(resultSet.getBytes(1));
@@ -112,6 +176,11 @@ public class MetricDatabase
 		{
 			logger.error(e.getMessage());
 		}
+		finally
+		{
+			close(resultSet);
+			release(pooled);
+		}
 		
 		return digest;
 	}
@@ -119,11 +188,13 @@ public class MetricDatabase
 	public ByteBuffer getMetricValueDigest(Calendar date, String metricName, Station station, Channel channel)
 	{
 		ByteBuffer digest = null;
+		PooledConnection pooled = null;
+		ResultSet resultSet = null;
 		
 		try
 		{
-			CallableStatement callStatement =
-					connection.prepareCall("SELECT spGetMetricValueDigest(?, ?, ?, ?, ?, ?)");
+			pooled = acquire();
+			CallableStatement callStatement = pooled.prepareCall(GET_METRIC_VALUE_DIGEST);
 			
 			java.sql.Date sqlDate = new java.sql.Date(date.getTime().getTime());
 			callStatement.setDate(1, sqlDate, date);
@@ -133,7 +204,7 @@ public class MetricDatabase
 			callStatement.setString(5, channel.getLocation());
 			callStatement.setString(6, channel.getChannel());
 			
-			ResultSet resultSet = callStatement.executeQuery();
+			resultSet = callStatement.executeQuery();
 			
 			if (resultSet.next())
 			{
@@ -148,16 +219,97 @@ public class MetricDatabase
 			// System.out.print(e);
 			logger.error(e.getMessage());
 		}
+		finally
+		{
+			close(resultSet);
+			release(pooled);
+		}
 		
 		return digest;
 	}
 	
+	/**
+	 * Return the stored digests of these metric values, keyed by MetricValueIdentifier.getDigestKey(),
+	 * passing up to MULTI_ROW_DIGESTS values to spGetMetricValueDigest per statement. Values
+	 * without a stored digest have no entry. Returns null if the digests could not be read.
+	 */
+	public Hashtable<String, ByteBuffer> getMetricValueDigests(List<MetricValueIdentifier> ids)
+	{
+		Hashtable<String, ByteBuffer> digests = new Hashtable<String, ByteBuffer>();
+		PooledConnection pooled = null;
+		ResultSet resultSet = null;
+		
+		try
+		{
+			pooled = acquire();
+			
+			for (int first = 0; first < ids.size(); first += MULTI_ROW_DIGESTS)
+			{
+				int statementRows = Math.min(ids.size() - first, MULTI_ROW_DIGESTS);
+				CallableStatement callStatement = pooled.prepareCall(getMetricValueDigestsSQL(statementRows));
+				
+				for (int row = 0; row < statementRows; row++)
+				{
+					MetricValueIdentifier id = ids.get(first + row);
+					java.sql.Date sqlDate = new java.sql.Date(id.getDate().getTime().getTime());
+					int i = row * 7;
+					
+					callStatement.setInt(i + 1, first + row);
+					callStatement.setDate(i + 2, sqlDate, id.getDate());
+					callStatement.setString(i + 3, id.getMetricName());
+					callStatement.setString(i + 4, id.getStation().getNetwork());
+					callStatement.setString(i + 5, id.getStation().getStation());
+					callStatement.setString(i + 6, id.getChannel().getLocation());
+					callStatement.setString(i + 7, id.getChannel().getChannel());
+				}
+				
+				// Rows are (index into ids, digest)
+				resultSet = callStatement.executeQuery();
+				while (resultSet.next())
+				{
+					byte[] digestIn = resultSet.getBytes(2);
+					if (digestIn != null)
+						digests.put(ids.get(resultSet.getInt(1)).getDigestKey(), ByteBuffer.wrap(digestIn));
+				}
+				close(resultSet);
+				resultSet = null;
+			}
+		}
+		catch (SQLException e)
+		{
+			logger.error(e.getMessage());
+			// Syntax error or undefined function: the server can't run the statement at all
+			if (e.getSQLState() != null && e.getSQLState().startsWith("42"))
+				multiRowDigestsSupported = false;
+			digests = null;
+		}
+		finally
+		{
+			close(resultSet);
+			release(pooled);
+		}
+		
+		return digests;
+	}
+	
+	/**
+	 * False once the server has rejected the statement of getMetricValueDigests(),
+	 * after which the digests have to be read one at a time
+	 */
+	public boolean supportsMultiRowDigests()
+	{
+		return multiRowDigestsSupported;
+	}
+	
 	public Double getMetricValue(Calendar date, String metricName, Station station, Channel channel)
 	{
 		Double value = null;
+		PooledConnection pooled = null;
+		ResultSet resultSet = null;
 		try
 		{
-			CallableStatement callStatement = connection.prepareCall("SELECT spGetMetricValue(?, ?, ?, ?, ?, ?)");
+			pooled = acquire();
+			CallableStatement callStatement = pooled.prepareCall(GET_METRIC_VALUE);
 			java.sql.Date sqlDate = new java.sql.Date(date.getTime().getTime());
 			callStatement.setDate(1, sqlDate, date);
 			callStatement.setString(2, metricName);
@@ -165,7 +317,7 @@ public class MetricDatabase
 			callStatement.setString(4, station.getStation());
 			callStatement.setString(5, channel.getLocation());
 			callStatement.setString(6, channel.getChannel());
-			ResultSet resultSet = callStatement.executeQuery();
+			resultSet = callStatement.executeQuery();
 			if (resultSet.next())
 			{
 				value = resultSet.getDouble(1);
@@ -175,68 +327,279 @@ public class MetricDatabase
 		{
 			logger.error(e.getMessage());
 		}
+		finally
+		{
+			close(resultSet);
+			release(pooled);
+		}
 		return value;
 	}
 	
 	public int insertMetricData(MetricResult results)
+	{
+		List<MetricResult> resultsList = new ArrayList<MetricResult>(1);
+		resultsList.add(results);
+		
+		return (insertMetricData(resultsList) < 0) ? -1 : 0;
+	}
+	
+	/**
+	 * Insert the values of all of these results in a single transaction, passing
+	 * up to MULTI_ROW_INSERT values to spInsertMetricData per statement.
+	 * 
+	 * @return the number of values inserted, or -1 if the transaction failed (nothing was inserted)
+	 */
+	public int insertMetricData(List<MetricResult> resultsList)
 	{
 		int result = -1;
+		PooledConnection pooled = null;
 		
-		synchronized(connection)
+		int count = 0;
+		for (MetricResult results : resultsList)
+		{
+			count += results.getIdSet().size();
+		}
+		
+		try
 		{
+			pooled = acquire();
+			Connection connection = pooled.getConnection();
+			connection.setAutoCommit(false);
+			
 			try
 			{
-				connection.setAutoCommit(false);
-				
-				CallableStatement callStatement =
-						connection.prepareCall("SELECT spInsertMetricData(?, ?, ?, ?, ?, ?, ?, ?)");
+				CallableStatement callStatement = null;
+				int statementRows = 0;
+				int row = 0;
+				int remaining = count;
 				
-				for (String id : results.getIdSet())
+				for (MetricResult results : resultsList)
 				{
-					Channel channel = MetricResult.createChannel(id);
 					java.sql.Date date = new java.sql.Date(results.getDate().getTime().getTime());
 					
-					callStatement.setDate(1, date, results.getDate());
-					callStatement.setString(2, results.getMetricName());
-					callStatement.setString(3, results.getStation().getNetwork());
-					callStatement.setString(4, results.getStation().getStation());
-					callStatement.setString(5, channel.getLocation());
-					callStatement.setString(6, channel.getChannel());
-					callStatement.setDouble(7, results.getResult(id));
-					callStatement.setBytes(8, results.getDigest(id).array());
-					
-					callStatement.executeQuery();
+					for (String id : results.getIdSet())
+					{
+						if (row == 0)
+						{
+							statementRows = Math.min(remaining, MULTI_ROW_INSERT);
+							callStatement = pooled.prepareCall(getInsertMetricDataSQL(statementRows));
+						}
+						
+						Channel channel = MetricResult.createChannel(id);
+						int i = row * 8;
+						
+						callStatement.setDate(i + 1, date, results.getDate());
+						callStatement.setString(i + 2, results.getMetricName());
+						callStatement.setString(i + 3, results.getStation().getNetwork());
+						callStatement.setString(i + 4, results.getStation().getStation());
+						callStatement.setString(i + 5, channel.getLocation());
+						callStatement.setString(i + 6, channel.getChannel());
+						callStatement.setDouble(i + 7, results.getResult(id));
+						callStatement.setBytes(i + 8, results.getDigest(id).array());
+						
+						remaining--;
+						if (++row == statementRows)
+						{
+							close(callStatement.executeQuery());
+							row = 0;
+						}
+					}
 				}
 				
 				connection.commit();
-				result = 0;
+				result = count;
 			}
 			catch (SQLException e)
 			{
-				logger.error(e.getMessage());
+				// Don't leave the connection in an aborted transaction for the next query
+				connection.rollback();
+				throw e;
+			}
+			finally
+			{
+				connection.setAutoCommit(true);
 			}
 		}
+		catch (SQLException e)
+		{
+			logger.error(e.getMessage());
+		}
+		finally
+		{
+			release(pooled);
+		}
 		
 		return result;
 	}
 	
+	/**
+	 * Statement calling spInsertMetricData once for each of rows rows of 8 parameters
+	 * (date, metric, network, station, location, channel, value, digest)
+	 */
+	private static String getInsertMetricDataSQL(int rows)
+	{
+		StringBuilder sql = new StringBuilder("SELECT spInsertMetricData(d, m, n, s, l, c, v, g) FROM (VALUES ");
+		for (int i = 0; i < rows; i++)
+		{
+			if (i > 0)
+				sql.append(", ");
+			// The driver leaves the type of a date parameter to the server, which can't infer it inside VALUES
+			sql.append("(CAST(? AS date), ?, ?, ?, ?, ?, ?, ?)");
+		}
+		sql.append(") AS data(d, m, n, s, l, c, v, g)");
+		
+		return sql.toString();
+	}
+	
+	/**
+	 * Statement calling spGetMetricValueDigest once for each of rows rows of 7 parameters
+	 * (index, date, metric, network, station, location, channel)
+	 */
+	private static String getMetricValueDigestsSQL(int rows)
+	{
+		StringBuilder sql = new StringBuilder("SELECT k.i, spGetMetricValueDigest(k.d, k.m, k.n, k.s, k.l, k.c) FROM (VALUES ");
+		for (int i = 0; i < rows; i++)
+		{
+			if (i > 0)
+				sql.append(", ");
+			sql.append("(CAST(? AS integer), CAST(? AS date), ?, ?, ?, ?, ?)");
+		}
+		sql.append(") AS k(i, d, m, n, s, l, c)");
+		
+		return sql.toString();
+	}
+	
 	public String selectAll(String startDate, String endDate)
 	{
 		String result = "";
+		PooledConnection pooled = null;
 		try
 		{
-			CallableStatement callStatement = connection.prepareCall("CALL spGetAll(?, ?, ?)");
+			pooled = acquire();
+			CallableStatement callStatement = pooled.prepareCall(GET_ALL);
 			callStatement.setString(1, startDate);
 			callStatement.setString(2, endDate);
 			callStatement.registerOutParameter(3, java.sql.Types.VARCHAR);
-			callStatement.executeQuery();
+			ResultSet resultSet = callStatement.executeQuery();
 			result = callStatement.getString(3);
+			close(resultSet);
 		}
 		catch (SQLException e)
 		{
 			logger.error(e.getMessage());
 		}
+		finally
+		{
+			release(pooled);
+		}
 		return result;
 	}
 	
+	/**
+	 * Borrow an idle connection, waiting for one if all are in use
+	 */
+	private PooledConnection acquire()
+	throws SQLException
+	{
+		if (connections.size() == 0)
+			throw new SQLException("Not connected to the database");
+		
+		// A pending interrupt must not fail the work in hand (e.g. the
+		// injector's final flush during shutdown), so wait it out and
+		// restore the interrupt status once we have a connection
+		boolean interrupted = false;
+		try
+		{
+			while (true)
+			{
+				try
+				{
+					return idleConnections.take();
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+		}
+		finally
+		{
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void release(PooledConnection pooled)
+	{
+		if (pooled != null)
+			idleConnections.add(pooled);
+	}
+	
+	private static void close(ResultSet resultSet)
+	{
+		if (resultSet == null)
+			return;
+		
+		try
+		{
+			resultSet.close();
+		}
+		catch (SQLException e)
+		{
+			logger.warn(e.getMessage());
+		}
+	}
+	
+	/**
+	 * A connection together with the statements prepared on it.
+	 * Only the thread that has borrowed the connection uses it.
+	 */
+	private static class PooledConnection
+	{
+		private Connection connection;
+		private HashMap<String, CallableStatement> statements = new HashMap<String, CallableStatement>();
+		
+		private PooledConnection(Connection connection)
+		{
+			this.connection = connection;
+		}
+		
+		private Connection getConnection()
+		{
+			return connection;
+		}
+		
+		private CallableStatement prepareCall(String sql)
+		throws SQLException
+		{
+			CallableStatement callStatement = statements.get(sql);
+			if (callStatement == null)
+			{
+				callStatement = connection.prepareCall(sql);
+				statements.put(sql, callStatement);
+			}
+			else
+			{
+				callStatement.clearParameters();
+			}
+			return callStatement;
+		}
+		
+		private void close()
+		{
+			try
+			{
+				for (CallableStatement callStatement : statements.values())
+				{
+					callStatement.close();
+				}
+				statements.clear();
+				connection.close();
+			}
+			catch (SQLException e)
+			{
+				logger.warn(e.getMessage());
+			}
+		}
+	}
 }
@@ -3,6 +3,8 @@
  */
 package asl.seedscan.database;
 
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,20 +15,37 @@ import asl.seedscan.metrics.MetricResult;
 /**
  * @author Joel D. Edwards <jdedwards@usgs.gov>
  *
+ * Results are collected into batches which are inserted in a single transaction, once
+ * a batch holds batchSize values or its oldest result has waited maxLatency milliseconds
+ * (a quiet queue is checked every maxLatency/2 ms). Only one thread should run an injector.
  */
 public class MetricInjector
 extends TaskThread<MetricResult>
 {
     private static final Logger logger = LoggerFactory.getLogger(asl.seedscan.database.MetricInjector.class);
     
+    public static final int  DEFAULT_BATCH_SIZE  = 1000; // values
+    public static final long DEFAULT_MAX_LATENCY = 2000; // milliseconds
+    
 	MetricDatabase metricDB;
 	
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long maxLatency = DEFAULT_MAX_LATENCY;
+	
+	private ArrayList<MetricResult> batch = new ArrayList<MetricResult>();
+	private int batchValues = 0;
+	private long batchStarted = 0;
+	
+	private long valuesInjected = 0;
+	private long injectNanos = 0;
+	
 	/**
 	 * 
 	 */
 	public MetricInjector(MetricDatabase metricDB) {
 		super();
 		this.metricDB = metricDB;
+		setMaxLatency(DEFAULT_MAX_LATENCY);
 	}
 
 	/**
@@ -35,6 +54,26 @@ extends TaskThread<MetricResult>
 	public MetricInjector(MetricDatabase metricDB, int capacity) {
 		super(capacity);
 		this.metricDB = metricDB;
+		setMaxLatency(DEFAULT_MAX_LATENCY);
+	}
+
+	/**
+	 * @param batchSize   Number of values to collect before inserting them
+	 * @param maxLatency  Longest time (ms) a result may wait to be inserted
+	 */
+	public MetricInjector(MetricDatabase metricDB, int batchSize, long maxLatency) {
+		this(metricDB);
+		setBatchSize(batchSize);
+		setMaxLatency(maxLatency);
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(batchSize, 1);
+	}
+
+	public void setMaxLatency(long maxLatency) {
+		this.maxLatency = Math.max(maxLatency, 0);
+		setTimeout(Math.max(this.maxLatency / 2, 1), TimeUnit.MILLISECONDS);
 	}
 
     public boolean isConnected() {
@@ -62,19 +101,70 @@ extends TaskThread<MetricResult>
 		logger.info("performTask: command=" + command + " results=" + results);
 		
 		if (command.equals("INJECT")) {
-			int i = metricDB.insertMetricData(results);
-            if (i != 0) {
-                logger.error("metricDB.insertMetricData FAILED!");
-            }
+			if (batch.isEmpty()) {
+				batchStarted = System.currentTimeMillis();
+			}
+			batch.add(results);
+			batchValues += results.getIdSet().size();
+			
+			if (batchValues >= batchSize || (System.currentTimeMillis() - batchStarted) >= maxLatency) {
+				flush();
+			}
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see asl.concurrent.TaskThread#timedOut()
+	 */
+	@Override
+	protected void timedOut() {
+		if (!batch.isEmpty() && (System.currentTimeMillis() - batchStarted) >= maxLatency) {
+			flush();
+		}
+	}
+
+	/**
+	 * Insert the collected results. If the batch fails as a whole, each result
+	 * is retried on its own so that one bad value doesn't lose the rest.
+	 */
+	private void flush() {
+		if (batch.isEmpty()) {
+			return;
+		}
+		long start = System.nanoTime();
+		
+		int values = metricDB.insertMetricData(batch);
+		if (values < 0) {
+			logger.error(String.format("metricDB.insertMetricData FAILED for a batch of %d results --> insert them one at a time", batch.size()));
+			values = 0;
+			for (MetricResult results : batch) {
+				if (metricDB.insertMetricData(results) != 0) {
+					logger.error("metricDB.insertMetricData FAILED! results=" + results);
+				}
+				else {
+					values += results.getIdSet().size();
+				}
+			}
+		}
+		
+		long elapsed = System.nanoTime() - start;
+		valuesInjected += values;
+		injectNanos += elapsed;
+		logger.info(String.format("Injected %d values from %d results in %.3f s (%.0f values/s) queued=%d [total=%d values, %.0f values/s]",
+				values, batch.size(), elapsed / 1.e9, values / (elapsed / 1.e9), getQueueSize(),
+				valuesInjected, valuesInjected / (injectNanos / 1.e9)));
+		
+		batch.clear();
+		batchValues = 0;
+	}
+
 	/* (non-Javadoc)
 	 * @see asl.concurrent.TaskThread#cleanup()
 	 */
 	@Override
 	protected void cleanup() {
-		// Post-run logic goes here
+		// Don't lose the last (partial) batch
+		flush();
 	}
 
 	public void inject(MetricResult results)
@@ -0,0 +1,19 @@
+package asl.seedscan.database;
+
+import java.util.List;
+
+public class MetricListContext<T>
+extends QueryContext<T>
+{
+	private List<MetricValueIdentifier> ids;
+
+	public MetricListContext(List<MetricValueIdentifier> ids) {
+		super();
+		this.ids = ids;
+	}
+	
+	public List<MetricValueIdentifier> getIds()
+	{
+		return ids;
+	}
+}
@@ -4,11 +4,18 @@
 package asl.seedscan.database;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import asl.concurrent.Task;
 import asl.concurrent.TaskThread;
+import asl.metadata.Station;
 import asl.seedscan.metrics.MetricResult;
 
 /**
@@ -22,6 +29,11 @@ extends TaskThread<QueryContext<? extends Object>>
     private static final Logger logger = LoggerFactory.getLogger(asl.seedscan.database.MetricInjector.class);
     
 	MetricDatabase metricDB;
+	
+	// Digests prefetched by prefetchMetricValueDigests(), keyed by MetricValueIdentifier.getDigestKey()
+	private ConcurrentHashMap<String, ByteBuffer> prefetchedDigests = new ConcurrentHashMap<String, ByteBuffer>();
+	// Keys of all the prefetched values --> a key missing from prefetchedDigests means no stored digest
+	private Set<String> prefetchedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
 	/**
 	 * 
@@ -76,6 +88,13 @@ extends TaskThread<QueryContext<? extends Object>>
 				QueryResult<ByteBuffer> result = new QueryResult<ByteBuffer>(digest);
 				context.getReplyQueue().put(result);
 			}
+			else if (command.equals("GET-METRIC-VALUE-DIGESTS")) {
+				@SuppressWarnings("unchecked")
+				MetricListContext<Hashtable<String, ByteBuffer>> context = (MetricListContext<Hashtable<String, ByteBuffer>>)task.getData(); 
+				Hashtable<String, ByteBuffer> digests = metricDB.getMetricValueDigests(context.getIds());
+				QueryResult<Hashtable<String, ByteBuffer>> result = new QueryResult<Hashtable<String, ByteBuffer>>(digests);
+				context.getReplyQueue().put(result);
+			}
 			else if (command.equals("GET-METRIC-VALUE")) {
 				MetricContext<Double> context = (MetricContext<Double>)task.getData(); 
 				MetricValueIdentifier id = context.getId();
@@ -124,10 +143,16 @@ extends TaskThread<QueryContext<? extends Object>>
 	
     /**
      * Currently getMetricValueDigest() is the only method called (from the MetricData class)
+     * If the digest of this value has been prefetched the answer comes from memory.
     */
 	public ByteBuffer getMetricValueDigest(MetricValueIdentifier id)
 	{
 		ByteBuffer digest = null;
+		String key = id.getDigestKey();
+		if (prefetchedKeys.contains(key)) {
+			digest = prefetchedDigests.get(key);
+			return (digest == null) ? null : digest.duplicate();
+		}
 		try {
 			MetricContext<ByteBuffer> context = new MetricContext<ByteBuffer>(id);
 			addTask("GET-METRIC-VALUE-DIGEST", context);
@@ -137,4 +162,58 @@ extends TaskThread<QueryContext<? extends Object>>
 		}
 		return digest;
 	}
+	
+	/**
+	 * Read the stored digests of these metric values with a few queries, so that
+	 * later calls to getMetricValueDigest() for them don't each make a database round trip.
+	 * Values that aren't prefetched (e.g., rotated or paired channels) are still queried on their own.
+	 * 
+	 * @return true if the digests were prefetched
+	 */
+	public boolean prefetchMetricValueDigests(List<MetricValueIdentifier> ids)
+	{
+		if (ids.size() == 0 || !metricDB.supportsMultiRowDigests()) {
+			return false;
+		}
+		Hashtable<String, ByteBuffer> digests = null;
+		try {
+			MetricListContext<Hashtable<String, ByteBuffer>> context = new MetricListContext<Hashtable<String, ByteBuffer>>(ids);
+			addTask("GET-METRIC-VALUE-DIGESTS", context);
+			digests = context.getReplyQueue().take().getResult();
+		} catch (InterruptedException ex) {
+			logger.warn("Interrupted while awaiting reply from database reader thread.");
+			return false;
+		}
+		if (digests == null) {
+			if (!metricDB.supportsMultiRowDigests()) {
+				logger.warn("The database can't read metric value digests in bulk --> query them one at a time");
+			}
+			return false;
+		}
+		prefetchedDigests.putAll(digests);
+		for (MetricValueIdentifier id : ids) {
+			prefetchedKeys.add(id.getDigestKey());
+		}
+		logger.info(String.format("Prefetched %d of %d metric value digests for station=%s", digests.size(),
+				ids.size(), ids.get(0).getStation()));
+		return true;
+	}
+	
+	/**
+	 * Drop the digests prefetched for this station
+	 */
+	public void forgetMetricValueDigests(Station station)
+	{
+		String prefix = station + ":";
+		for (Iterator<String> it = prefetchedKeys.iterator(); it.hasNext(); ) {
+			if (it.next().startsWith(prefix)) {
+				it.remove();
+			}
+		}
+		for (Iterator<String> it = prefetchedDigests.keySet().iterator(); it.hasNext(); ) {
+			if (it.next().startsWith(prefix)) {
+				it.remove();
+			}
+		}
+	}
 }
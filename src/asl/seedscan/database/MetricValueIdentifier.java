@@ -7,6 +7,8 @@ import asl.metadata.Station;
 
 public class MetricValueIdentifier
 {
+	private static final long DAY_MILLISECONDS = 86400000L;
+	
 	private Calendar date;
 	private String metricName;
 	private Station station;
@@ -38,4 +40,25 @@ public class MetricValueIdentifier
 	{
 		return channel;
 	}
+	
+	/**
+	 * Key of this value's digest in a map of digests prefetched for its station
+	 */
+	public String getDigestKey()
+	{
+		return createDigestKey(date, metricName, station, channel.getLocation(), channel.getChannel());
+	}
+	
+	public static String createDigestKey(Calendar date, String metricName, Station station, String location, String channel)
+	{
+		return String.format("%s:%d:%s:%s-%s", station, getDay(date), metricName, location, channel);
+	}
+	
+	/**
+	 * Day number (days since 1970-01-01 GMT) of the date
+	 */
+	public static long getDay(Calendar date)
+	{
+		return date.getTimeInMillis() / DAY_MILLISECONDS;
+	}
 }
@@ -55,8 +55,8 @@ extends Metric
 {
     private static final Logger logger = LoggerFactory.getLogger(asl.seedscan.metrics.CalibrationMetric.class);
 
-    private static boolean calTableRead   = false;
-    private static boolean calTableExists = false;
+    private static volatile boolean calTableRead   = false;
+    private static volatile boolean calTableExists = false;
 
     private static Hashtable<String, SensorInfo> sensorTable = null;
 
@@ -81,14 +81,18 @@ extends Metric
                           getName(), getStation(), getDay() );
 
         if (!calTableRead) {
-            try {
-                logger.info("Attempt to read from instrument-calibration-file:", get("instrument-calibration-file"));
-                calTableExists  = readCalTable(get("instrument-calibration-file"));
-            }
-            catch(Exception e) {
-                logger.error("Failed attempt to read instrument-calibration-file:" + e.getMessage());
+            synchronized (CalibrationMetric.class) {  // Other CalibrationMetrics may be running at the same time
+                if (!calTableRead) {
+                    try {
+                        logger.info("Attempt to read from instrument-calibration-file:", get("instrument-calibration-file"));
+                        calTableExists  = readCalTable(get("instrument-calibration-file"));
+                    }
+                    catch(Exception e) {
+                        logger.error("Failed attempt to read instrument-calibration-file:" + e.getMessage());
+                    }
+                    calTableRead = true;
+                }
             }
-            calTableRead = true;
         }
 
         if (!calTableExists) {
@@ -121,6 +121,9 @@ extends PowerBandMetric
     private double computeMetric(Channel channelX, Channel channelY) {
 
      // Compute/Get the 1-sided psd[f] using Peterson's algorithm (24 hrs, 13 segments, etc.)
+     //   Gxx, Gyy and Gxy all come from one FFT per channel per segment
+
+        computeCrossPowers(channelX, channelY);
 
         CrossPower crossPower = getCrossPower(channelX, channelX);
         double[] Gxx   = crossPower.getSpectrum();
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package asl.seedscan.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CrossPowerCache - The cross-power spectra computed for one station-day, shared 
+ *                   by all of the metrics working on that day's MetricData.
+ *
+ * The cache is thread-safe and computes each key exactly once: the first caller 
+ * to ask for a missing key reserves it and must then put() the result (or 
+ * cancel() the reservation), while any other caller asking for the same key 
+ * waits for that result instead of computing it again.
+ *
+ * Waiting is done through ForkJoinPool.managedBlock() so that a fork-join pool can 
+ * compensate for blocked workers. A thread never waits for a key it reserved itself 
+ * (a worker joining a subtask may run another metric's task in the meantime); it is
+ * told to compute the key instead.
+ */
+public class CrossPowerCache
+{
+    private static final Logger logger = LoggerFactory.getLogger(asl.seedscan.metrics.CrossPowerCache.class);
+
+    private ConcurrentHashMap<CrossPowerKey, Entry> entries = new ConcurrentHashMap<CrossPowerKey, Entry>();
+
+    private AtomicLong hits   = new AtomicLong(0);
+    private AtomicLong misses = new AtomicLong(0);
+
+    /**
+     * Returns the cross-power for key, waiting for it if another caller is 
+     * computing it. If no one is, the key is reserved for the caller and null
+     * is returned; the caller must then call put() or cancel() for the key.
+     */
+    public CrossPower getOrReserve(CrossPowerKey key)
+    {
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = entries.putIfAbsent(key, new Entry());
+                if (entry == null) {
+                    misses.incrementAndGet();
+                    return null;
+                }
+            }
+            if (entry.owner == Thread.currentThread() && !entry.isDone()) {
+                misses.incrementAndGet();
+                return null;
+            }
+            CrossPower crossPower = entry.await(key);
+            if (crossPower != null) {
+                hits.incrementAndGet();
+                return crossPower;
+            }
+         // The reservation was cancelled --> try again (we may end up computing it)
+        }
+    }
+
+    /**
+     * Reserves key for the caller if it is neither cached nor being computed.
+     * Never waits.
+     *
+     * @return true if the caller must now put() or cancel() the key
+     */
+    public boolean tryReserve(CrossPowerKey key)
+    {
+        if (entries.containsKey(key)) {
+            return false;
+        }
+        if (entries.putIfAbsent(key, new Entry()) == null) {
+            misses.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stores the cross-power for key (normally one reserved by the caller) and 
+     * wakes up anyone waiting for it. A key that is already computed is left as is.
+     */
+    public void put(CrossPowerKey key, CrossPower crossPower)
+    {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            Entry existing = entries.putIfAbsent(key, entry);
+            if (existing != null) {
+                entry = existing;
+            }
+        }
+        if (!entry.isDone()) {
+            entry.set(crossPower);
+        }
+    }
+
+    /**
+     * Drops the caller's reservation of key without a result. Anyone waiting 
+     * for it will try to compute it themselves.
+     */
+    public void cancel(CrossPowerKey key)
+    {
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.isDone()) {
+            entries.remove(key, entry);
+            entry.set(null);
+        }
+    }
+
+    /**
+     * Returns true if the cross-power for key has been computed
+     */
+    public boolean contains(CrossPowerKey key)
+    {
+        Entry entry = entries.get(key);
+        return (entry != null && entry.isDone());
+    }
+
+    public void clear()
+    {
+        entries.clear();
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public String toString()
+    {
+        return String.format("CrossPowerCache: hits=%d misses=%d size=%d", getHits(), getMisses(), size());
+    }
+
+    private static class Entry
+    implements ForkJoinPool.ManagedBlocker
+    {
+        private CountDownLatch done = new CountDownLatch(1);
+        private volatile CrossPower crossPower = null;
+        private Thread owner = Thread.currentThread();   // The thread that reserved the key
+
+        private boolean isDone()
+        {
+            return done.getCount() == 0;
+        }
+
+        private void set(CrossPower crossPower)
+        {
+            this.crossPower = crossPower;
+            done.countDown();
+        }
+
+        private CrossPower await(CrossPowerKey key)
+        {
+            try {
+                ForkJoinPool.managedBlock(this);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("CrossPowerCache: Interrupted waiting for key=" + key);
+            }
+            return crossPower;
+        }
+
+        public boolean block() throws InterruptedException
+        {
+            done.await();
+            return true;
+        }
+
+        public boolean isReleasable()
+        {
+            return isDone();
+        }
+    }
+}
@@ -29,10 +29,13 @@ import asl.seedscan.event.EventCMT;
 
 import freq.Cmplx;
 import timeutils.PSD;
+import timeutils.PSDAccumulator;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,7 +52,6 @@ public abstract class Metric
     private static final Logger logger = LoggerFactory.getLogger(asl.seedscan.metrics.Metric.class);
 
     private Hashtable<String, String> arguments;
-    private Hashtable<CrossPowerKey, CrossPower> crossPowerMap;
 
     private boolean forceUpdate = false;
     private boolean makePlots   = false;
@@ -57,6 +59,9 @@ public abstract class Metric
 
     protected final double NO_RESULT = -999.999; 
 
+    // Number of points of each channel handed to a PSDAccumulator at a time
+    private static final int STREAM_CHUNK_POINTS = 1 << 16;
+
     protected StationMeta  stationMeta  = null;
     protected MetricData   metricData   = null;
     protected MetricResult metricResult = null;
@@ -67,7 +72,6 @@ public abstract class Metric
     public Metric()
     {
         arguments = new Hashtable<String, String>();
-        crossPowerMap = new Hashtable<CrossPowerKey, CrossPower>();
 
         // MTH: 03-18-13: Added to allow these optional arguments to each cfg:metric in config.xml
         addArgument("makeplots");
@@ -96,38 +100,119 @@ public abstract class Metric
     	return createIdentifier(MetricResult.createChannel(MetricResult.createResultId(channelA, channelB)));
     }
 
-    public Hashtable<CrossPowerKey, CrossPower> getCrossPowerMap()
+/**
+ * The cross-powers are cached in the station-day's MetricData so that each one is 
+ * computed once, no matter how many metrics (possibly running at the same time) ask for it.
+ */
+    protected CrossPower getCrossPower(Channel channelA, Channel channelB)
     {
-        return crossPowerMap;
-    }
+        CrossPowerCache crossPowerCache = metricData.getCrossPowerCache();
+        CrossPowerKey key = new CrossPowerKey(channelA, channelB);
 
-    public void setCrossPowerMap(Hashtable<CrossPowerKey, CrossPower> crossPowerMap)
-    {
-        this.crossPowerMap = crossPowerMap;
+        CrossPower crossPower = crossPowerCache.getOrReserve(key);
+        if (crossPower == null) {   // We hold the reservation for key --> compute it
+            try {
+                double[] psd = null;
+                double[] df  = new double[1];            // Dummy array to get params out of computePSD()
+                for (int i=0; i<df.length; i++) df[i]=0;
+                try {
+                    psd = computePSD(channelA, channelB, df);
+                }
+                catch (NullPointerException e) {
+                    System.out.println("== Metric.getCrossPower NullPointerException = " + e);
+                }
+                crossPower = new CrossPower(psd, df[0]);
+                crossPowerCache.put(key, crossPower);
+            }
+            finally {
+                if (crossPower == null) {
+                    crossPowerCache.cancel(key);
+                }
+            }
+        }
+        return crossPower;
     }
 
-    protected CrossPower getCrossPower(Channel channelA, Channel channelB)
+/**
+ * computeCrossPowers - Compute the auto and cross-power spectra of every pair of the 
+ *                      given channels that isn't in the CrossPowerCache yet, from a single 
+ *                      FFT per channel per segment, and put them in the cache so that
+ *                      subsequent getCrossPower() calls are hits.
+ *
+ * If the set can't be done at once (e.g., the sample rates differ) nothing is 
+ * added and getCrossPower() computes each pair on its own as before.
+ */
+    protected void computeCrossPowers(Channel... channels)
     {
-        CrossPowerKey key = new CrossPowerKey(channelA, channelB);
-        CrossPower crossPower;
+        List<Channel> distinct = new ArrayList<Channel>();
+        List<String>  names    = new ArrayList<String>();
+        for (Channel channel : channels) {
+            if (!names.contains(channel.toString())) {
+                names.add(channel.toString());
+                distinct.add(channel);
+            }
+        }
 
-        if (crossPowerMap.containsKey(key)) {
-            crossPower = crossPowerMap.get(key);
+        CrossPowerCache crossPowerCache = metricData.getCrossPowerCache();
+        int nchan = distinct.size();
+
+     // Reserve the pairs nobody has computed (or is computing) yet
+        List<CrossPowerKey> reserved = new ArrayList<CrossPowerKey>();
+        for (int i=0; i<nchan; i++) {
+            for (int j=i; j<nchan; j++) {
+                CrossPowerKey key = new CrossPowerKey(distinct.get(i), distinct.get(j));
+                if (crossPowerCache.tryReserve(key)) {
+                    reserved.add(key);
+                }
+            }
         }
-        else {
-            double[] psd = null;
-            double[] df  = new double[1];            // Dummy array to get params out of computePSD()
-            for (int i=0; i<df.length; i++) df[i]=0;
+        if (reserved.size() == 0) {
+            return;
+        }
+
+        try {
+            ChannelMeta[] chanMeta = new ChannelMeta[nchan];
+            double srate = 0;
             try {
-                psd = computePSD(channelA, channelB, df);
+                for (int i=0; i<nchan; i++) {
+                    Channel channel = distinct.get(i);
+                    double srateI = metricData.getChannelData(channel).get(0).getSampleRate();
+                    if (i > 0 && srateI != srate) {
+                        logger.warn("computeCrossPowers(): srate differs between channels --> compute pairs separately");
+                        return;
+                    }
+                    srate       = srateI;
+                    chanMeta[i] = stationMeta.getChanMeta(channel);
+                }
             }
             catch (NullPointerException e) {
-                System.out.println("== Metric.getCrossPower NullPointerException = " + e);
+                System.out.println("== Metric.computeCrossPowers NullPointerException = " + e);
+                return;
+            }
+            if (srate == 0) throw new RuntimeException("Error: Got srate=0");
+            double dt = 1./srate;
+
+            PSD psdRaw    = streamPSD(distinct, dt);
+            double[] freq = psdRaw.getFreq();
+            double df     = psdRaw.getDeltaF();
+
+            for (int i=0; i<nchan; i++) {
+                for (int j=i; j<nchan; j++) {
+                    CrossPowerKey key = new CrossPowerKey(distinct.get(i), distinct.get(j));
+                    if (reserved.contains(key)) {
+                        double[] psd = removeResponse(psdRaw.getSpectrumReal(i, j), psdRaw.getSpectrumImag(i, j),
+                                                      freq, chanMeta[i], chanMeta[j]);
+                        crossPowerCache.put(key, new CrossPower(psd, df));
+                    }
+                }
+            }
+        }
+        finally {
+         // Release anything we couldn't compute so that getCrossPower() can do it pair by pair
+            for (CrossPowerKey key : reserved) {
+                crossPowerCache.cancel(key);
             }
-            crossPower = new CrossPower(psd, df[0]);
-            crossPowerMap.put(key, crossPower);
         }
-        return crossPower;
     }
 
     public Hashtable<String, SacTimeSeries> getEventSynthetics(String eventIdString)
@@ -287,19 +372,8 @@ public abstract class Metric
 */
     private final double[] computePSD(Channel channelX, Channel channelY, double[] params) {
 
-        int ndata      = 0;
         double srate   = 0;  // srate = sample frequency, e.g., 20Hz
 
-// This would give us 2 channels with the SAME number of (overlapping) points, but 
-//   they might not represent a complete day (e.g., could be a single block of data in the middle of the day)
-//      double[][] channelOverlap = metricData.getChannelOverlap(channelX, channelY);
-//      double[]   chanXData = channelOverlap[0];
-//      double[]   chanYData = channelOverlap[1];
-
-// Instead, getPaddedDayData() gives us a complete (zero padded if necessary) array of data for 1 day:
-        double[] chanXData = metricData.getPaddedDayData(channelX);
-        double[] chanYData = metricData.getPaddedDayData(channelY);
-
         double srateX = metricData.getChannelData(channelX).get(0).getSampleRate();
         double srateY = metricData.getChannelData(channelY).get(0).getSampleRate();
         ChannelMeta chanMetaX = stationMeta.getChanMeta(channelX);
@@ -310,44 +384,119 @@ public abstract class Metric
             throw new RuntimeException(message);
         }
         srate = srateX;
-        ndata = chanXData.length; 
 
         if (srate == 0) throw new RuntimeException("Error: Got srate=0");
         double dt = 1./srate;
 
-        PSD psdRaw    = new PSD(chanXData, chanYData, dt);
-        Cmplx[] spec  = psdRaw.getSpectrum();
+// This would give us 2 channels with the SAME number of (overlapping) points, but 
+//   they might not represent a complete day (e.g., could be a single block of data in the middle of the day)
+//      double[][] channelOverlap = metricData.getChannelOverlap(channelX, channelY);
+//      double[]   chanXData = channelOverlap[0];
+//      double[]   chanYData = channelOverlap[1];
+
+// Instead, use the complete (zero padded if necessary) day of data, streamed through a PSDAccumulator:
+        List<Channel> channels = new ArrayList<Channel>();
+        channels.add(channelX);
+     // For an auto-spectrum only use the channel once so that there is only one FFT per segment
+        if (!channelX.toString().equals(channelY.toString())) {
+            channels.add(channelY);
+        }
+
+        PSD psdRaw    = streamPSD(channels, dt);
         double[] freq = psdRaw.getFreq();
         double df     = psdRaw.getDeltaF();
-        int nf = freq.length;
 
         params[0] = df;
 
-     // Get the instrument response for Acceleration and remove it from the PSD
-        Cmplx[]  instrumentResponseX = chanMetaX.getResponse(freq, ResponseUnits.ACCELERATION);
-        Cmplx[]  instrumentResponseY = chanMetaY.getResponse(freq, ResponseUnits.ACCELERATION);
+        int y = channels.size() - 1;
+        return removeResponse(psdRaw.getSpectrumReal(0, y), psdRaw.getSpectrumImag(0, y), freq, chanMetaX, chanMetaY);
 
-        Cmplx[] responseMagC        = new Cmplx[nf];
+    } // end computePSD
+
+/**
+ * streamPSD - Compute the PSD of every pair of channels from their complete (zero padded) 
+ *             days of data. The days are handed to a PSDAccumulator a piece at a time, 
+ *             straight out of the DataSets, so no whole-day array is ever built.
+ */
+    private final PSD streamPSD(List<Channel> channels, double dt) {
+        int nchan = channels.size();
+        int ndata = metricData.getPaddedDayLength(channels.get(0));
+        for (Channel channel : channels) {
+            if (metricData.getPaddedDayLength(channel) != ndata) {
+                throw new RuntimeException("== PSD Error: ndataX != ndataY --> Can't create new PSD");
+            }
+        }
+
+        PSDAccumulator accumulator = new PSDAccumulator(nchan, ndata, dt);
+        double[] chunk = new double[Math.min(ndata, STREAM_CHUNK_POINTS)];
+        for (int index = 0; index < ndata; index += chunk.length) {
+            int count = Math.min(chunk.length, ndata - index);
+            for (int i = 0; i < nchan; i++) {
+                metricData.copyPaddedDayData(channels.get(i), index, count, chunk, 0);
+                accumulator.add(i, chunk, 0, count);
+            }
+        }
+        return accumulator.getPSD();
+    }
+
+/**
+ * removeResponse - Divide the X and Y instrument responses (for Acceleration) out of 
+ *                  the raw cross-power spectrum (specRe[], specIm[])
+ *
+ * @return psd[f] - The magnitude of the response-corrected spectrum (psd[0] = 0)
+ */
+    private final double[] removeResponse(double[] specRe, double[] specIm, double[] freq, 
+                                          ChannelMeta chanMetaX, ChannelMeta chanMetaY) {
+        int nf = freq.length;
+
+     // Get the instrument response for Acceleration and remove it from the PSD
+        double[] respXr = new double[nf];
+        double[] respXi = new double[nf];
+        chanMetaX.getResponse(freq, ResponseUnits.ACCELERATION, respXr, respXi);
+        double[] respYr = respXr;
+        double[] respYi = respXi;
+        if (chanMetaY != chanMetaX) {
+            respYr = new double[nf];
+            respYi = new double[nf];
+            chanMetaY.getResponse(freq, ResponseUnits.ACCELERATION, respYr, respYi);
+        }
 
         double[] psd  = new double[nf]; // Will hold the 1-sided PSD magnitude
         psd[0]=0; 
 
      // We're computing the squared magnitude as we did with the FFT above
      //   Start from k=1 to skip DC (k=0) where the response=0
+     //   (Same arithmetic as Cmplx.mul(respX, respY.conjg()) + Cmplx.div(spec, responseMagC))
 
         for(int k = 1; k < nf; k++){
-            responseMagC[k] = Cmplx.mul(instrumentResponseX[k], instrumentResponseY[k].conjg()) ;
-            if (responseMagC[k].mag() == 0) {
+            double yr = respYr[k];
+            double yi = -respYi[k];
+            double cr = respXr[k] * yr - respXi[k] * yi;
+            double ci = respXi[k] * yr + respXr[k] * yi;
+            if (Math.sqrt(cr * cr + ci * ci) == 0) {
                 throw new RuntimeException("NLNMDeviation Error: responseMagC[k]=0 --> divide by zero!");
             }
             else {   // Divide out (squared)instrument response & Convert to dB:
-                spec[k] = Cmplx.div(spec[k], responseMagC[k]);
-                psd[k]  = spec[k].mag();
+                double ar = specRe[k];
+                double ai = specIm[k];
+                double r, den, pr, pi;
+                if (Math.abs(cr) >= Math.abs(ci)) {
+                    r   = ci / cr;
+                    den = cr + r * ci;
+                    pr  = (ar + r * ai) / den;
+                    pi  = (ai - r * ar) / den;
+                } else {
+                    r   = cr / ci;
+                    den = ci + r * cr;
+                    pr  = (ar * r + ai) / den;
+                    pi  = (ai * r - ar) / den;
+                }
+                psd[k]  = Math.sqrt(pr * pr + pi * pi);
             }
         }
 
         return psd;
 
-    } // end computePSD
+    } // end removeResponse
 
 } // end class
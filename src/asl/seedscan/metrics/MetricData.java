@@ -44,6 +44,7 @@ import seed.Blockette320;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Hashtable;
 import java.util.Set;
@@ -64,6 +65,9 @@ public class MetricData
 
     private MetricData nextMetricData;
 
+    // The cross-power spectra computed for this station-day, shared by all metrics
+    private CrossPowerCache crossPowerCache = new CrossPowerCache();
+
 
 // Attach nextMetricData here for windows that span into next day
     public void setNextMetricData( MetricData nextMetricData ) {
@@ -76,6 +80,30 @@ public class MetricData
         this.nextMetricData = null;
     }
 
+    public CrossPowerCache getCrossPowerCache() {
+        return crossPowerCache;
+    }
+
+/**
+ * Return the sample blocks of all of this day's DataSets to the shared BlockPool
+ * so the next day read in can reuse them, and drop the cached cross-powers. Only call this once no Metric is still
+ * working on this MetricData (or on a MetricData it is the nextMetricData of).
+ */
+    public void releaseData() {
+        crossPowerCache.clear();
+        if (data == null) {
+            return;
+        }
+        synchronized (data) {
+            for (ArrayList<DataSet> datasets : data.values()) {
+                for (DataSet dataset : datasets) {
+                    dataset.release();
+                }
+            }
+            data.clear();
+        }
+    }
+
   //constructor(s)
 
     public MetricData(	MetricReader metricReader, Hashtable<String,
@@ -152,10 +180,13 @@ public class MetricData
         if (data == null) { return false; }
 
         String locationName = location + "-" + name;
-        Set<String> keys = data.keySet();
-        for (String key : keys){          // key looks like "IU_ANMO 00-BHZ (20.0 Hz)"
-            if (key.contains(locationName) ){
-                return true;
+     // Lock the table while iterating: rotated channels may be added to it by another station-day
+        synchronized (data) {
+            Set<String> keys = data.keySet();
+            for (String key : keys){          // key looks like "IU_ANMO 00-BHZ (20.0 Hz)"
+                if (key.contains(locationName) ){
+                    return true;
+                }
             }
         }
         return false;           
@@ -172,12 +203,14 @@ public class MetricData
     public ArrayList<DataSet> getChannelData(String location, String name)
     {
         String locationName = location + "-" + name;
-        Set<String> keys = data.keySet();
-        for (String key : keys){          // key looks like "IU_ANMO 00-BHZ (20.0 Hz)"
-           if (key.contains(locationName) ){
-            //System.out.format(" key=%s contains locationName=%s\n", key, locationName);
-              return data.get(key);       // return ArrayList<DataSet>
-           }
+        synchronized (data) {
+            Set<String> keys = data.keySet();
+            for (String key : keys){          // key looks like "IU_ANMO 00-BHZ (20.0 Hz)"
+               if (key.contains(locationName) ){
+                //System.out.format(" key=%s contains locationName=%s\n", key, locationName);
+                  return data.get(key);       // return ArrayList<DataSet>
+               }
+            }
         }
         return null;           
     }
@@ -427,7 +460,8 @@ public class MetricData
 
 
 /**
- *
+ *  Return the requested window of a channel's data as an array of doubles,
+ *  copied straight out of the DataSet(s) of this day (and the next)
  */
     public double[] getWindowedData(Channel channel, long windowStartEpoch, long windowEndEpoch) 
     {
@@ -523,29 +557,24 @@ public class MetricData
         long windowMilliSecs = windowEndEpoch - windowStartEpoch;
         int  nWindowPoints   = (int)(windowMilliSecs / interval);
 
-        double[] dataArray  = new double[nWindowPoints];
-
-        int[] series1 = data.getSeries();
-        int[] series2 = null;
-        if (spansDay) {
-             series2 = nextData.getSeries();
-        }
-        int j=0;
-
         //int  istart   = (int)((windowStartEpoch - dataStartEpoch) / interval);
         // MTH: this seems to line it up better with rdseed output window but doesn't seem right ...
         int  istart   = (int)((windowStartEpoch - dataStartEpoch) / interval) + 1;
 
-        for (int i=0; i<nWindowPoints; i++){
-            if( (istart + i) < data.getLength() ) {
-                dataArray[i] = (double)series1[i + istart];
-            }
-            else if (j < nextData.getLength()) {
-                dataArray[i] = (double)series2[j++];
-            }
-            else {
-                // We should never be here!
-            }
+     // Take as many points as we can from this day, the rest from the start of the next day
+        int  nFirst   = Math.max(0, Math.min(nWindowPoints, data.getLength() - istart));
+        int  nSecond  = 0;
+        if (spansDay) {
+            nSecond   = Math.min(nWindowPoints - nFirst, nextData.getLength());
+        }
+
+     // Any points the DataSets don't reach are left at 0.
+        double[] dataArray = new double[nWindowPoints];
+        if (nFirst > 0) {
+            data.copySeries(istart, nFirst, dataArray, 0);
+        }
+        if (nSecond > 0) {
+            nextData.copySeries(0, nSecond, dataArray, nFirst);
         }
 
         return dataArray;
@@ -564,6 +593,27 @@ public class MetricData
             System.out.format("== MetricData.getPaddedDayData() ERROR: We have NO data for channel=[%s]\n", channel);
             return null;
         }
+        double[] data     = new double[getPaddedDayLength(channel)];
+        copyPaddedDayData(channel, 0, data.length, data, 0);
+        return data;
+    }
+
+/**
+ * Return the number of points in a complete day of data for channel (= getPaddedDayData(channel).length)
+ */
+    public int getPaddedDayLength(Channel channel) 
+    {
+        long interval     = getChannelData(channel).get(0).getInterval();     // sample dt in microsecs
+        return (int)(86400000000L/interval);
+    }
+
+/**
+ * Copy the points [index, index + count) of the complete (zero padded) day of data for 
+ * channel into dest[destOffset...], so that the day can be worked on a piece at a time
+ * without building the whole getPaddedDayData() array. 
+ */
+    public void copyPaddedDayData(Channel channel, int index, int count, double[] dest, int destOffset) 
+    {
         ArrayList<DataSet>datasets = getChannelData(channel);
 
         long dayStartTime = metadata.getTimestamp().getTimeInMillis() * 1000; // epoch microsecs since 1970
@@ -571,7 +621,8 @@ public class MetricData
 
         int nPointsPerDay = (int)(86400000000L/interval);
 
-        double[] data     = new double[nPointsPerDay];
+     // Gaps are zero
+        Arrays.fill(dest, destOffset, destOffset + count, 0.);
 
         long lastEndTime = 0;
         int k=0;
@@ -583,31 +634,29 @@ public class MetricData
             int length     = dataset.getLength();
             //System.out.format("== getPaddedDayData: channel=[%s] dataset #%d startTime=%d endTime=%d length=%d\n",
             //channel, i, startTime, endTime, length);
-            int[] series   = dataset.getSeries();
 
             if (i == 0) {
                 lastEndTime = dayStartTime;
             }
             int npad = (int)( (startTime - lastEndTime) / interval ) - 1;
 
-            for (int j=0; j<npad; j++){
-                if (k < data.length) {
-                    data[k] = 0.;
-                }
-                k++;
-            }
-            for (int j=0; j<length; j++){
-                if (k < data.length) {
-                    data[k] = (double)series[j];
-                }
-                k++;
+         // A gap is just skipped over (a dataset that starts at/before lastEndTime has npad < 0 
+         //   and is appended right after the previous one)
+            k += Math.max(npad, 0);
+
+         // Copy the part of this dataset that lands within the day (and within [index, index + count))
+         //   straight out of its blocks
+            int first = Math.max(k, index);
+            int last  = Math.min(Math.min(k + length, nPointsPerDay), index + count);
+            if (last > first) {
+                dataset.copySeries(first - k, last - first, dest, destOffset + first - index);
             }
+            k += length;
 
             lastEndTime = endTime;
         }
         //System.out.format("== fullDayData: nDataSets=%d interval=%d nPointsPerDay%d k=%d\n", datasets.size(),
                           //interval, nPointsPerDay, k );
-        return data;
     }
 
 
@@ -617,7 +666,7 @@ public class MetricData
  *  Channels we can derive end in H1,H2 (e.g., LH1,LH2 or HH1,HH2) --> LHND,LHED or HHND,HHED
  *                             or N1,N2 (e.g., LN1,LN2 or HN1,HN2) --> LNND,LNED or HNND,HNED
  */
-    public void createRotatedChannelData(String location, String channelPrefix)
+    public synchronized void createRotatedChannelData(String location, String channelPrefix)
     {
         boolean use12 = true; // Use ?H1,?H2 to rotate, else use ?HN,?HE
 
@@ -705,12 +754,14 @@ public class MetricData
         String northString  = location + "-" + channelPrefix + "ND"; // e.g., "10-BHND"
         String eastString   = location + "-" + channelPrefix + "ED"; // e.g., "10-BHED"
 
-        Set<String> keys = data.keySet();
-        for (String key : keys){   
-           if (key.contains(lookupString)) { // "LH1" --> "LHND" and "LHED"
-                northKey = key.replaceAll(lookupString, northString);
-                eastKey  = key.replaceAll(lookupString, eastString);
-           }
+        synchronized (data) {
+            Set<String> keys = data.keySet();
+            for (String key : keys){   
+               if (key.contains(lookupString)) { // "LH1" --> "LHND" and "LHED"
+                    northKey = key.replaceAll(lookupString, northString);
+                    eastKey  = key.replaceAll(lookupString, eastString);
+               }
+            }
         }
         //System.out.format("== MetricData.createRotatedChannels(): channel1=%s, channelPrefex=%s\n", channel1, channelPrefix);
         //System.out.format("== MetricData.createRotatedChannels(): northKey=[%s] eastKey=[%s]\n", northKey, eastKey);
@@ -1022,8 +1073,9 @@ public class MetricData
  *  We've been handed a channelArray for which valueDigestChanged() was unable to find metadata.
  *  We want to go through the channels and see if any are rotated-derived channels (e.g., "00-LHND").  
  *  If so, then try to create the rotated channel data + metadata
+ *  Synchronized since the metrics of a day (which share this MetricData) may ask at the same time
  */
-    public void checkForRotatedChannels(ChannelArray channelArray)
+    public synchronized void checkForRotatedChannels(ChannelArray channelArray)
     {
         ArrayList<Channel> channels = channelArray.getChannels();
         for (Channel channel : channels){
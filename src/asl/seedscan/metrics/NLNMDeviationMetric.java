@@ -71,8 +71,9 @@ extends PowerBandMetric
     private static String NLNMFile;
     private static String NHNMFile;
     
-    private static NoiseModel NLNM;
-    private static NoiseModel NHNM;
+    // Only published once they have been read in (see initNHNM/initHLNM)
+    private static volatile NoiseModel NLNM;
+    private static volatile NoiseModel NHNM;
 
     private PlotMaker2 plotMaker = null;
 
@@ -287,8 +288,9 @@ extends PowerBandMetric
     {
     	if (NHNM == null)
     	{
-    		NHNM = new NoiseModel();
-    		readNHNM(NHNMFile, NHNM);
+    		NoiseModel noiseModel = new NoiseModel();
+    		readNHNM(NHNMFile, noiseModel);
+    		NHNM = noiseModel;
     	}
     }
     
@@ -304,8 +306,9 @@ extends PowerBandMetric
     {
     	if (NLNM == null)
     	{
-    		NLNM = new NoiseModel();
-    		readNLNM(NLNMFile, NLNM);
+    		NoiseModel noiseModel = new NoiseModel();
+    		readNLNM(NLNMFile, noiseModel);
+    		NLNM = noiseModel;
     	}
     }
 
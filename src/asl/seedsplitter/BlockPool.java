@@ -23,29 +23,65 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author  Joel D. Edwards <jdedwards@usgs.gov>
  * 
  * Keeps a pool of integer blocks of uniform size into which existing blocks
  * can be injected in order to minimize the need for new allocations.
+ *
+ * The pool is thread-safe and may be shared by any number of Sequences. It is
+ * split into stripes, selected by thread, so that threads returning and taking
+ * blocks at the same time rarely contend for the same lock. A pool may be 
+ * bounded, in which case blocks added once it holds maxBlocks are left to the
+ * garbage collector.
  */
 public class BlockPool
 {
     private static final Logger logger = LoggerFactory.getLogger(asl.seedsplitter.BlockPool.class);
 
-    private ArrayList<int[]> m_pool;
+    private List<ArrayList<int[]>> m_stripes;
     private int m_blockSize = 0;
+    private int m_maxBlocks = 0;
+    private int m_stripeCapacity = 0;
+
+    private AtomicInteger m_resident = new AtomicInteger(0);
+    private AtomicLong m_hits = new AtomicLong(0);
+    private AtomicLong m_misses = new AtomicLong(0);
+    private AtomicLong m_discarded = new AtomicLong(0);
 
     /**
-     * Constructor.
+     * Constructor for an unbounded pool.
      * 
      * @param blockSize 	The size of each block within the pool.
      */
     public BlockPool(int blockSize) 
     {
+        this(blockSize, Integer.MAX_VALUE, 1);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param blockSize 	The size of each block within the pool.
+     * @param maxBlocks 	The maximum number of blocks the pool will hold on to.
+     * @param stripes 		The number of independently locked stripes.
+     */
+    public BlockPool(int blockSize, int maxBlocks, int stripes) 
+    {
+        if (stripes < 1) {
+            stripes = 1;
+        }
         m_blockSize = blockSize;
-        m_pool = new ArrayList<int[]>(8);
+        m_maxBlocks = maxBlocks;
+        m_stripeCapacity = (maxBlocks == Integer.MAX_VALUE) ? maxBlocks : (maxBlocks + stripes - 1) / stripes;
+        m_stripes = new ArrayList<ArrayList<int[]>>(stripes);
+        for (int i = 0; i < stripes; i++) {
+            m_stripes.add(new ArrayList<int[]>(8));
+        }
     }
 
     /**
@@ -59,7 +95,7 @@ public class BlockPool
     }
 
     /**
-     * Adds a new block 
+     * Adds a new block. If the pool is full the block is dropped.
      * 
      * @param block 	The block to inject into the pool.
      * @throws BlockSizeMismatchException	If the size of the added block does not match this BlockPool's block size.
@@ -70,23 +106,141 @@ public class BlockPool
         if (block.length != m_blockSize) {
             throw new BlockSizeMismatchException("");
         }
-        m_pool.add(block);
+        ArrayList<int[]> stripe = getStripe();
+        synchronized (stripe) {
+            if (stripe.size() < m_stripeCapacity) {
+                stripe.add(block);
+                m_resident.incrementAndGet();
+                return;
+            }
+        }
+        m_discarded.incrementAndGet();
     }
 
     /**
      * Returns a block from the pool if it contains any blocks, otherwise a new block is allocated.
+     * The calling thread's own stripe is tried first, then the others.
      *
      * @return  A new block either from the pool, or freshly allocated if the pool is empty.
      */
-    public synchronized int[] getNewBlock() 
+    public int[] getNewBlock() 
+    {
+        int first = getStripeIndex();
+        for (int i = 0; i < m_stripes.size(); i++) {
+            ArrayList<int[]> stripe = m_stripes.get((first + i) % m_stripes.size());
+            synchronized (stripe) {
+                int size = stripe.size();
+                if (size > 0) {
+                    m_resident.decrementAndGet();
+                    m_hits.incrementAndGet();
+                    return stripe.remove(size - 1);
+                }
+            }
+        }
+        m_misses.incrementAndGet();
+        return new int[m_blockSize];
+    }
+
+    /**
+     * Drops every block held by the pool.
+     */
+    public void clear()
     {
-        int[] block = null;
-        if (m_pool.size() > 0) {
-            block = m_pool.remove(0);
-        } else {
-            block = new int[m_blockSize];
+        for (ArrayList<int[]> stripe: m_stripes) {
+            synchronized (stripe) {
+                m_resident.addAndGet(-stripe.size());
+                stripe.clear();
+            }
         }
-        return block;
+    }
+
+    /**
+     * Returns the maximum number of blocks the pool will hold on to.
+     *
+     * @return  The pool's capacity in blocks.
+     */
+    public int getMaxBlocks()
+    {
+        return m_maxBlocks;
+    }
+
+    /**
+     * Returns the number of blocks currently held by the pool.
+     *
+     * @return  The number of idle blocks in the pool.
+     */
+    public int getResidentBlocks()
+    {
+        return m_resident.get();
+    }
+
+    /**
+     * Returns the memory held by the pool's idle blocks.
+     *
+     * @return  The size of the idle blocks in bytes.
+     */
+    public long getResidentBytes()
+    {
+        return (long)m_resident.get() * m_blockSize * 4;
+    }
+
+    /**
+     * Returns the number of requests served from the pool.
+     *
+     * @return  The number of blocks reused.
+     */
+    public long getHits()
+    {
+        return m_hits.get();
+    }
+
+    /**
+     * Returns the number of requests which required a new allocation.
+     *
+     * @return  The number of blocks allocated.
+     */
+    public long getMisses()
+    {
+        return m_misses.get();
+    }
+
+    /**
+     * Returns the number of blocks dropped because the pool was full.
+     *
+     * @return  The number of blocks left to the garbage collector.
+     */
+    public long getDiscarded()
+    {
+        return m_discarded.get();
+    }
+
+    /**
+     * Returns the fraction of requests served from the pool.
+     *
+     * @return  The hit rate, from 0.0 to 1.0.
+     */
+    public double getHitRate()
+    {
+        long hits = m_hits.get();
+        long total = hits + m_misses.get();
+        return (total == 0) ? 0.0 : (double)hits / (double)total;
+    }
+
+    public String toString()
+    {
+        return String.format("BlockPool: hitRate=%.3f hits=%d misses=%d discarded=%d resident=%d blocks (%.1f MB)",
+                             getHitRate(), getHits(), getMisses(), getDiscarded(), getResidentBlocks(),
+                             getResidentBytes() / 1048576.);
+    }
+
+    private int getStripeIndex()
+    {
+        return (int)(Thread.currentThread().getId() % m_stripes.size());
+    }
+
+    private ArrayList<int[]> getStripe()
+    {
+        return m_stripes.get(getStripeIndex());
     }
 }
 
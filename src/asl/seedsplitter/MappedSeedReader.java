@@ -0,0 +1,277 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package asl.seedsplitter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import asl.util.Hex;
+
+/**
+ * The MappedSeedReader maps a MiniSEED file into memory and walks its
+ * records in place. Record boundaries are found by cracking the fixed header
+ * and blockette 1000 directly from the mapping, and each record is exposed 
+ * as a read-only {@link ByteBuffer} view. The same view is repositioned for 
+ * every record, so no per-record allocation or copying takes place.
+ *
+ * Unlike {@link SeedInputStream}, the reader is meant to be consumed on the
+ * thread which processes the records (see {@link SeedSplitProcessor#process}).
+ */
+public class MappedSeedReader
+{
+    private static final Logger logger = LoggerFactory.getLogger(asl.seedsplitter.MappedSeedReader.class);
+
+    public static int MIN_RECORD_SIZE = SeedInputStream.BLOCK_SIZE;
+    public static int MAX_RECORD_SIZE = SeedInputStream.MAX_RECORD_SIZE;
+
+    private File m_file = null;
+    private MappedByteBuffer m_map = null;
+    private ByteBuffer m_header = null;
+    private ByteBuffer m_record = null;
+    private int m_position = 0;
+    private int m_skippedBytes = 0;
+    private long m_totalSkippedBytes = 0;
+    private int m_recordCount = 0;
+    private String m_digest_algorithm = "MD5";
+    private MessageDigest m_digest = null;
+
+    /**
+     * Constructor.
+     * 
+     * @param file			The MiniSEED file to map.
+     * @param disableDigest	A flag to disable assembling a digest of this file's contents.
+     * @throws IOException	If the file could not be opened or mapped.
+     */
+    public MappedSeedReader(File file, boolean disableDigest)
+    throws IOException
+    {
+        m_file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File '" +file.getName()+ "' is too large to map");
+            }
+            // The mapping remains valid after the channel has been closed
+            m_map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        m_header = m_map.duplicate();
+        m_record = m_map.asReadOnlyBuffer();
+        if (!disableDigest) {
+            try {
+                m_digest = MessageDigest.getInstance(m_digest_algorithm);
+            } catch (NoSuchAlgorithmException e) {;}
+        }
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param file			The MiniSEED file to map.
+     * @throws IOException	If the file could not be opened or mapped.
+     */
+    public MappedSeedReader(File file)
+    throws IOException
+    {
+        this(file, false);
+    }
+
+    /**
+     * Returns the mapped file.
+     *
+     * @return the file backing this reader.
+     */
+    public File getFile()
+    {
+        return m_file;
+    }
+
+    /**
+     * Returns the total size of the mapped file.
+     *
+     * @return the file length in bytes.
+     */
+    public long getLength()
+    {
+        return m_map.capacity();
+    }
+
+    /**
+     * Returns the number of bytes skipped ahead of the most recent record.
+     *
+     * @return the bytes skipped while looking for the last record returned.
+     */
+    public int getSkippedBytes()
+    {
+        return m_skippedBytes;
+    }
+
+    /**
+     * Returns the number of bytes skipped over the whole file so far.
+     *
+     * @return the bytes which did not belong to any valid record.
+     */
+    public long getTotalSkippedBytes()
+    {
+        return m_totalSkippedBytes;
+    }
+
+    /**
+     * Returns the number of records returned so far.
+     *
+     * @return the record count.
+     */
+    public int getRecordCount()
+    {
+        return m_recordCount;
+    }
+
+    /**
+     * Returns a hex version of the digest of the bytes read so far.
+     * 
+     * @return a String version of the digest for this file.
+     */
+    public String getDigestString() {
+        String result = null;
+        if (m_digest != null ) {
+            try {
+                result = Hex.byteArrayToHexString(((MessageDigest)m_digest.clone()).digest());
+            }
+            catch (CloneNotSupportedException ex) {;}
+        }
+        return result;
+    }
+
+    /**
+     * Advances to the next MiniSEED record in the file. Chunks which do not
+     * start with a valid fixed header are skipped, as in {@link SeedInputStream}.
+     * 
+     * @return	A read-only view of the record, positioned at its first byte, or
+     *          null once the end of the file has been reached. The view is 
+     *          reused by the next call and must not be retained.
+     */
+    public ByteBuffer nextRecord()
+    {
+        int limit = m_map.capacity();
+        int start = m_position;
+        m_skippedBytes = 0;
+        while ((limit - m_position) >= MIN_RECORD_SIZE) {
+            int recordLength = crackRecordLength(m_position);
+            if ((recordLength < MIN_RECORD_SIZE) || (recordLength > MAX_RECORD_SIZE)) {
+                m_position += MIN_RECORD_SIZE;
+                m_skippedBytes += MIN_RECORD_SIZE;
+                continue;
+            }
+            if (recordLength > (limit - m_position)) {
+                logger.debug("Truncated record at end of file '" +m_file.getName()+ "'");
+                break;
+            }
+            int recordStart = m_position;
+            m_position += recordLength;
+            m_totalSkippedBytes += m_skippedBytes;
+            m_recordCount++;
+            updateDigest(start, m_position);
+
+            m_record.limit(m_position);
+            m_record.position(recordStart);
+            return m_record;
+        }
+        m_skippedBytes += (limit - m_position);
+        m_totalSkippedBytes += m_skippedBytes;
+        m_position = limit;
+        updateDigest(start, limit);
+        return null;
+    }
+
+    /**
+     * Adds a range of the mapped file to the digest.
+     */
+    private void updateDigest(int start, int end)
+    {
+        if ((m_digest == null) || (end <= start)) {
+            return;
+        }
+        m_header.limit(end);
+        m_header.position(start);
+        m_digest.update(m_header);
+    }
+
+    /**
+     * Cracks the record length out of the header at offset without copying it.
+     * This mirrors {@link seed.MiniSeed#crackBlockSize(byte[])} and the swap
+     * detection of {@link seed.MiniSeed#swapNeeded(byte[])}.
+     * 
+     * @param offset	Offset of the candidate record within the file.
+     * @return	The record length, or 0 if no data record indicator or blockette 1000 was found.
+     */
+    private int crackRecordLength(int offset)
+    {
+        ByteBuffer bb = m_header;
+        bb.limit(bb.capacity());
+
+        // Make sure we find either the SEED standard indicator 'D'
+        // or the NEIC post processed data indicator 'Q'
+        // or the one mentioned on the IRIS website 'M'
+        int indicator = bb.get(offset + 6) & 0xFF;
+        if ((indicator != 0x44) && (indicator != 0x4D) && (indicator != 0x51)) { 
+            logger.debug(String.format("Skipping bad indicator: 0x%x", indicator));
+            return 0;
+        }
+        // The rest of the fixed header is left to RecordHeader.crack(): a record
+        // is framed by its blockette 1000 even if its sequence number is garbled.
+
+        int nblks = bb.get(offset + 39);
+        bb.order(ByteOrder.BIG_ENDIAN);
+        int next = bb.getShort(offset + 46);
+        if ((next > 64) || (next < 48)) {   // This looks like swap is needed
+            bb.order(ByteOrder.LITTLE_ENDIAN);
+            next = bb.getShort(offset + 46);
+        }
+        int length = 0;
+        for (int i = 0; i < nblks; i++) {
+            if ((next < 48) || (next >= 64)) {
+                logger.debug("Illegal blockette offset " +next+ " in record at byte " +offset);
+                break;
+            }
+            int type = bb.getShort(offset + next);
+            if (type == 1000) {
+                int exponent = bb.get(offset + next + 6);
+                if ((exponent > 0) && (exponent < 31)) {
+                    length = 1 << exponent;
+                }
+                break;
+            }
+            next = bb.getShort(offset + next + 2);
+        }
+        bb.order(ByteOrder.BIG_ENDIAN);
+        return length;
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package asl.seedsplitter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * The RecordHeader is a binary view of a MiniSEED record's header. It cracks
+ * the channel, sample rate and start time of the record, the fields which are
+ * needed to decode its data (byte order, encoding, sample count, data offset)
+ * and the blockette 1001 timing quality, directly from a buffer holding the 
+ * record. One instance is reused for every record; the start time is computed
+ * with integer arithmetic and the channel is looked up among the channels 
+ * already seen, so nothing is allocated per record.
+ * 
+ * Records which are not plain Steim1/Steim2 data records are flagged as not
+ * decodable, and should be handed to {@link seed.MiniSeed} instead.
+ */
+public class RecordHeader
+{
+    public static final int STEIM1 = 10;
+    public static final int STEIM2 = 11;
+
+    private static final long MICROS_PER_SECOND = 1000000L;
+    private static final long SECONDS_PER_DAY = 86400L;
+    // Days from 0001-01-01 to 1970-01-01 in the proleptic Gregorian calendar
+    private static final long EPOCH_DAY_OFFSET = 719162L;
+
+    private ByteBuffer m_buffer = null;
+    private int m_start = 0;
+    private int m_length = 0;
+    private boolean m_swap = false;
+    private int m_encoding = 0;
+    private int m_recordLength = 0;
+    private int m_numSamples = 0;
+    private int m_dataOffset = 0;
+    private int m_timingQuality = -1;
+    private boolean m_hasBlockette320 = false;
+    private boolean m_decodable = false;
+    private boolean m_valid = false;
+
+    private ArrayList<Channel> m_channels = new ArrayList<Channel>();
+    private Channel m_lastChannel = null;
+
+    /**
+     * Cracks the header of the record occupying length bytes of the buffer 
+     * from start on. Only absolute reads are used; the buffer's position, 
+     * limit and byte order are left alone.
+     * 
+     * @param buffer	The buffer holding the record.
+     * @param start		Absolute offset of the record within the buffer.
+     * @param length	Length of the record in bytes.
+     * @return True if the record's data can be decoded straight from the buffer.
+     *         Use {@link #isValid()} to tell whether the header itself could be cracked.
+     */
+    public boolean crack(ByteBuffer buffer, int start, int length)
+    {
+        m_buffer = buffer;
+        m_start = start;
+        m_length = length;
+        m_encoding = 0;
+        m_recordLength = 0;
+        m_timingQuality = -1;
+        m_hasBlockette320 = false;
+        m_decodable = false;
+        m_valid = false;
+        m_swap = false;
+
+        // Same checks as MiniSeed.swapNeeded(): a numeric sequence number 
+        // followed by a 'D', 'R' or 'Q' quality indicator and a space.
+        for (int i = 0; i < 6; i++) {
+            byte b = buffer.get(start + i);
+            if ((b < '0') || (b > '9')) {
+                return false;
+            }
+        }
+        byte indicator = buffer.get(start + 6);
+        if (((indicator != 'D') && (indicator != 'R') && (indicator != 'Q')) || (buffer.get(start + 7) != ' ')) {
+            return false;
+        }
+        m_valid = true;
+
+        int nblks = buffer.get(start + 39);
+        int next = 0;
+        if (nblks > 0) {
+            // The first blockette normally follows the 48 byte fixed header.
+            next = getShort(46);
+            if ((next > 64) || (next < 48)) {
+                m_swap = true;
+                next = getShort(46);
+                if ((next > 200) || (next < 0)) {
+                    // MiniSeed cannot tell either, and assumes no swap
+                    m_swap = false;
+                    return false;
+                }
+            }
+        } else {
+            // No blockette 1000, so decide based on where the data starts
+            next = getShort(44);
+            m_swap = ((next < 0) || (next > 512));
+        }
+        boolean orderChecked = false;
+        for (int i = 0; i < nblks; i++) {
+            if ((next < 48) || (next >= 400) || ((next + 8) > length)) {
+                break;
+            }
+            int type = getShort(next);
+            switch (type) {
+                case 1000:
+                    if (!orderChecked) {
+                        // A non-zero word order byte means the record is big-endian after all
+                        if (buffer.get(start + next + 5) != 0) {
+                            m_swap = false;
+                        }
+                        orderChecked = true;
+                    }
+                    m_encoding = buffer.get(start + next + 4);
+                    m_recordLength = 1 << buffer.get(start + next + 6);
+                    break;
+                case 1001:
+                    m_timingQuality = buffer.get(start + next + 4) & 0xFF;
+                    break;
+                case 320:
+                    m_hasBlockette320 = true;
+                    break;
+                case -5885:
+                    // Mis-swapped blockette 1001, only MiniSeed knows how to repair it
+                    return false;
+                default:
+            }
+            next = getShort(next + 2);
+        }
+        m_numSamples = getShort(30);
+        m_dataOffset = getShort(44);
+
+        m_decodable = ((m_encoding == STEIM1) || (m_encoding == STEIM2)) &&
+                      (m_recordLength == length) &&
+                      (m_dataOffset >= 48) && (m_dataOffset < length) &&
+                      !m_hasBlockette320;
+        return m_decodable;
+    }
+
+    /**
+     * Returns true if the last record cracked has a valid fixed header. Only
+     * the heartbeat test may be applied to an invalid record.
+     * 
+     * @return true if the sequence number and quality indicator are well formed.
+     */
+    public boolean isValid()
+    {
+        return m_valid;
+    }
+
+    /**
+     * Returns true if the last record cracked is a heartbeat: an all zero
+     * sequence number and blank station and location codes. Follows 
+     * {@link seed.MiniSeed#crackIsHeartBeat(byte[])}.
+     * 
+     * @return true for heartbeat records.
+     */
+    public boolean isHeartBeat()
+    {
+        for (int i = 0; i < 6; i++) {
+            if ((m_buffer.get(m_start + i) != 48) || (m_buffer.get(m_start + i + 6) != 32) || 
+                (m_buffer.get(m_start + i + 12) != 32)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the record's start time, computed without any Calendar.
+     * 
+     * @return microseconds since the epoch of the first sample.
+     */
+    public long getStartTime()
+    {
+        int year   = getShort(20);
+        int doy    = getShort(22);
+        int hour   = m_buffer.get(m_start + 24) & 0xFF;
+        int minute = m_buffer.get(m_start + 25) & 0xFF;
+        int second = m_buffer.get(m_start + 26) & 0xFF;
+        int husec  = getShort(28) & 0xFFFF;
+
+        long y = year - 1;
+        long days = 365L * y + y / 4 - y / 100 + y / 400 - EPOCH_DAY_OFFSET + (doy - 1);
+        long seconds = days * SECONDS_PER_DAY + hour * 3600L + minute * 60L + second;
+        return seconds * MICROS_PER_SECOND + husec * 100L;
+    }
+
+    /**
+     * Returns the record's sample rate, following {@link seed.MiniSeed#crackRate(byte[])}.
+     * 
+     * @return the sample rate in Hz, or 0 if the rate factor or multiplier is 0.
+     */
+    public double getSampleRate()
+    {
+        return sampleRate((short)getShort(32), (short)getShort(34));
+    }
+
+    private static double sampleRate(short rateFactor, short rateMultiplier)
+    {
+        double rate = rateFactor;
+        // if rate > 0 its in hz, < 0 its period.
+        // if multiplier > 0 it multiplies, if < 0 it divides.
+        if ((rateFactor == 0) || (rateMultiplier == 0)) {
+            return 0;
+        }
+        if (rate >= 0) {
+            if (rateMultiplier > 0) {
+                rate *= rateMultiplier;
+            } else {
+                rate /= -rateMultiplier;
+            }
+        } else {
+            if (rateMultiplier > 0) {
+                rate = -rateMultiplier / rate;
+            } else {
+                rate = -1. / (-rateMultiplier) / rate;
+            }
+        }
+        return rate;
+    }
+
+    /**
+     * Returns the channel of the last record cracked. Channels are told apart
+     * by the raw station, location, channel and network codes and sample rate
+     * fields, so a channel's strings and key are only built the first time it
+     * is seen.
+     * 
+     * @return the Channel shared by every record of this channel and sample rate.
+     */
+    public Channel getChannel()
+    {
+        long name = m_buffer.getLong(m_start + 8);
+        long rest = ((long)m_buffer.getInt(m_start + 16) << 32) | (m_buffer.getInt(m_start + 32) & 0xFFFFFFFFL);
+        if ((m_lastChannel != null) && m_lastChannel.matches(name, rest)) {
+            return m_lastChannel;
+        }
+        for (Channel channel: m_channels) {
+            if (channel.matches(name, rest)) {
+                m_lastChannel = channel;
+                return channel;
+            }
+        }
+        byte[] seed = new byte[12];
+        for (int i = 0; i < 12; i++) {
+            seed[i] = m_buffer.get(m_start + 8 + i);
+        }
+        m_lastChannel = new Channel(name, rest, new String(seed), getSampleRate());
+        m_channels.add(m_lastChannel);
+        return m_lastChannel;
+    }
+
+    /**
+     * Returns every channel seen so far.
+     * 
+     * @return the channels in the order they were first seen.
+     */
+    ArrayList<Channel> getChannels()
+    {
+        return m_channels;
+    }
+
+    /**
+     * The identity of a channel as found in a record header: network, station, 
+     * location and channel codes, sample rate and the interned channel key
+     * "NN_SSSSS LL-CCC (R.R Hz)" used by the SeedSplitProcessor's tables.
+     */
+    public static class Channel
+    {
+        private long m_name;
+        private long m_rest;
+        private String m_network;
+        private String m_station;
+        private String m_location;
+        private String m_channel;
+        private double m_sampleRate;
+        private String m_key;
+
+        // Filled in by the SeedSplitProcessor the first time it sees this channel
+        Boolean accepted = null;
+        long interval = 0;
+        int records = 0;
+
+        private Channel(long name, long rest, String seed, double sampleRate)
+        {
+            m_name = name;
+            m_rest = rest;
+            // seed holds station(5) location(2) channel(3) network(2)
+            m_network  = seed.substring(10,12).trim();
+            m_station  = seed.substring(0,5).trim();
+            m_location = seed.substring(5,7).trim();
+        // MTH:
+            if (m_location.equals("")) {
+                m_location = "--";            // Set Default location to "--"
+            }
+            m_channel  = seed.substring(7,10).trim();
+            m_sampleRate = sampleRate;
+            m_key = String.format("%s_%s %s-%s (%.1f Hz)", m_network, m_station, m_location, m_channel, m_sampleRate).intern();
+        }
+
+        private boolean matches(long name, long rest)
+        {
+            return (m_name == name) && (m_rest == rest);
+        }
+
+        public String getNetwork()
+        {
+            return m_network;
+        }
+
+        public String getStation()
+        {
+            return m_station;
+        }
+
+        public String getLocation()
+        {
+            return m_location;
+        }
+
+        public String getChannel()
+        {
+            return m_channel;
+        }
+
+        public double getSampleRate()
+        {
+            return m_sampleRate;
+        }
+
+        public String getKey()
+        {
+            return m_key;
+        }
+    }
+
+    /**
+     * Cracks the header of a record held in its own array.
+     * 
+     * @param record	The raw MiniSEED record.
+     * @return True if the record's data can be decoded straight from the buffer.
+     */
+    public boolean crack(byte[] record)
+    {
+        if ((m_buffer == null) || !m_buffer.hasArray() || (m_buffer.array() != record)) {
+            m_buffer = ByteBuffer.wrap(record);
+        }
+        return crack(m_buffer, 0, record.length);
+    }
+
+    private int getShort(int offset)
+    {
+        short value = m_buffer.getShort(m_start + offset);
+        if ((m_buffer.order() == ByteOrder.LITTLE_ENDIAN) != m_swap) {
+            value = Short.reverseBytes(value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the buffer holding the last record cracked.
+     * 
+     * @return the record's buffer.
+     */
+    public ByteBuffer getBuffer()
+    {
+        return m_buffer;
+    }
+
+    /**
+     * Returns the absolute offset of the record's data frames within the buffer.
+     * 
+     * @return offset of the first data frame.
+     */
+    public int getDataStart()
+    {
+        return m_start + m_dataOffset;
+    }
+
+    /**
+     * Returns the number of bytes of data frames.
+     * 
+     * @return length of the data section.
+     */
+    public int getDataLength()
+    {
+        return m_length - m_dataOffset;
+    }
+
+    /**
+     * Returns true if the record is little-endian.
+     * 
+     * @return the byte swap flag to decode with.
+     */
+    public boolean isSwapped()
+    {
+        return m_swap;
+    }
+
+    /**
+     * Returns the blockette 1000 encoding format.
+     * 
+     * @return {@link #STEIM1}, {@link #STEIM2} or another SEED encoding.
+     */
+    public int getEncoding()
+    {
+        return m_encoding;
+    }
+
+    /**
+     * Returns the number of samples in the record.
+     * 
+     * @return the sample count.
+     */
+    public int getNumSamples()
+    {
+        return m_numSamples;
+    }
+
+    /**
+     * Returns the blockette 1001 timing quality.
+     * 
+     * @return the timing quality, or -1 if there is no blockette 1001.
+     */
+    public int getTimingQuality()
+    {
+        return m_timingQuality;
+    }
+
+    /**
+     * Returns the record's sequence number.
+     * 
+     * @return the sequence number, or -1 if it is not numeric.
+     */
+    public int getSequence()
+    {
+        int sequence = 0;
+        for (int i = 0; i < 6; i++) {
+            int digit = m_buffer.get(m_start + i) - '0';
+            if ((digit < 0) || (digit > 9)) {
+                return -1;
+            }
+            sequence = sequence * 10 + digit;
+        }
+        return sequence;
+    }
+
+    /**
+     * Returns true if the last record cracked can be decoded straight from the buffer.
+     * 
+     * @return the value returned by the last crack().
+     */
+    public boolean isDecodable()
+    {
+        return m_decodable;
+    }
+}
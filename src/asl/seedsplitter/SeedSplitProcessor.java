@@ -22,11 +22,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.InterruptedException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.GregorianCalendar;
 import java.util.Hashtable;
 import java.util.Iterator;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.TimeZone;
 import java.util.TreeSet;
@@ -35,7 +34,9 @@ import java.util.ArrayList;
 import seed.Blockette320;
 import seed.IllegalSeednameException;
 import seed.MiniSeed;
-import seed.SeedUtil;
+import seed.Steim1Decoder;
+import seed.Steim2Decoder;
+import seed.SteimDecodeResult;
 import seed.SteimException;
 
 import asl.concurrent.FallOffQueue;
@@ -43,8 +44,8 @@ import asl.concurrent.FallOffQueue;
 /**
  * @author Joel D. Edwards <jdedwards@usgs.gov>
  * 
- * The SeedSplitProcessor receives MiniSEED records via a Queue, and splits
- * them up by channel into trees. All of the channel trees are stored in the
+ * The SeedSplitProcessor receives MiniSEED records via a Queue (or directly 
+ * from a {@link MappedSeedReader}), and splits them up by channel into trees. All of the channel trees are stored in the
  * hash table. Each tree is an ordered group of DataSet objects, each
  * containing a contiguous block of data outside of the time range of any 
  * other DataSet in the same tree.
@@ -60,17 +61,33 @@ implements Runnable
     private boolean m_running;
     private Hashtable<String,TreeSet<DataSet>> m_trees = null;
     private Hashtable<String,ArrayList<DataSet>> m_table = null;
-    private static TimeZone m_tz = TimeZone.getTimeZone("GMT");
 
 //MTH:
     private Hashtable<String,ArrayList<Integer>> m_qualityTable = null;
     private Hashtable<String,ArrayList<Blockette320>> m_calTable = null;
 
+    private Hashtable<String,DataSet> m_temps = null;
+    private int m_kept = 0;
+    private int m_discarded = 0;
+    private byte[] m_recordBuffer = null;
+    private RecordHeader m_header = new RecordHeader();
+    private Steim1Decoder m_steim1 = new Steim1Decoder();
+    private Steim2Decoder m_steim2 = new Steim2Decoder();
+
     private Pattern m_patternNetwork  = null;
     private Pattern m_patternStation  = null;
     private Pattern m_patternLocation = null;
     private Pattern m_patternChannel  = null;
 
+    /**
+     * Constructor for a processor which is only fed through 
+     * {@link #process(MappedSeedReader)}.
+     */
+    public SeedSplitProcessor()
+    {
+        _construct(null, null, new Hashtable<String,ArrayList<DataSet>>());
+    }
+
     /**
      * Constructor.
      * 
@@ -115,6 +132,7 @@ implements Runnable
         m_running = false;
         m_table = table;
         m_trees = new Hashtable<String,TreeSet<DataSet>>();
+        m_temps = new Hashtable<String,DataSet>();
 
     }
 
@@ -186,295 +204,335 @@ implements Runnable
     public void run() {
 
         ByteBlock block = null;
+        // total number of bytes that have been received from the queue
+        long byteTotal = 0;
+        SeedSplitProgress progress = null;
+
+        m_running = true;
+        while (m_running) {
+            try {
+                block = m_queue.take();
+                // even if we don't end up using this data, it counts toward our progress
+                byteTotal += block.getLength();
+                byteTotal += block.getSkippedBytes();
+                progress = new SeedSplitProgress(byteTotal);
+                if (block.isLast()) {
+                    m_running = false;
+                } else if (block.isEnd()) {
+                    progress.setFileDone(true);
+                } else {
+                    processRecord(ByteBuffer.wrap(block.getData()), 0, block.getLength());
+                }
+            } catch (InterruptedException e) {
+                logger.warn("Caught InterruptedException");
+            } // end try
+            m_progressQueue.put(progress);
+        } // end while(m_running)
+
+        finish();
+
+        if ((progress != null) && !progress.errorOccurred()) {
+            progress = new SeedSplitProgress(byteTotal, true);
+            m_progressQueue.put(progress);
+        }
+
+// Print out m_qualityTable to see what we got ...
+        //TreeSet<String> keys = new TreeSet<String>();
+        //keys.addAll(m_qualityTable.keySet());
+        //for (String qkey : keys){
+            //ArrayList<Integer> qualities = m_qualityTable.get(qkey);
+            //System.out.format("== [key=%s] --> nQuality=%d\n", qkey, qualities.size() );
+        //}
+        //System.exit(0);
+
+    } // run()
+
+    /**
+     * Converts every record of a memory-mapped file into one or more 
+     * {@link DataSet} objects on the calling thread, then builds the 
+     * hash table. No queue or second thread is involved.
+     * 
+     * @param reader	The reader supplying the file's MiniSEED records.
+     */
+    public void process(MappedSeedReader reader)
+    {
+        ByteBuffer record = null;
+        while ((record = reader.nextRecord()) != null) {
+            processRecord(record, record.position(), record.remaining());
+        }
+        finish();
+    }
+
+    /**
+     * Returns the record as an array of exactly its length, which is what
+     * MiniSeed expects. Records which are not already held in such an array
+     * are copied into one buffer, reused while the record length stays the same.
+     */
+    private byte[] getRecordBytes(ByteBuffer buffer, int start, int length)
+    {
+        if (buffer.hasArray() && (buffer.arrayOffset() == 0) && (start == 0) && (buffer.array().length == length)) {
+            return buffer.array();
+        }
+        if ((m_recordBuffer == null) || (m_recordBuffer.length != length)) {
+            m_recordBuffer = new byte[length];
+        }
+        for (int i = 0; i < length; i++) {
+            m_recordBuffer[i] = buffer.get(start + i);
+        }
+        return m_recordBuffer;
+    }
+
+    /**
+     * Returns true if the channel passes the network, station, location and 
+     * channel filters.
+     */
+    private boolean accept(RecordHeader.Channel channel)
+    {
+        if ((m_patternNetwork != null) && !m_patternNetwork.matcher(channel.getNetwork()).matches()) {
+            return false;
+        }
+        if ((m_patternStation != null) && !m_patternStation.matcher(channel.getStation()).matches()) {
+            return false;
+        }
+        if ((m_patternLocation != null) && !m_patternLocation.matcher(channel.getLocation()).matches()) {
+            return false;
+        }
+        if ((m_patternChannel != null) && !m_patternChannel.matcher(channel.getChannel()).matches()) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Converts a single SEED record and adds its samples to the DataSet 
+     * currently being assembled for its channel. The channel, start time and
+     * (for Steim1/Steim2 data) the samples are taken straight from the buffer
+     * through a {@link RecordHeader}.
+     * 
+     * @param buffer	The buffer holding the raw MiniSEED record.
+     * @param start		Absolute offset of the record within the buffer.
+     * @param length	Length of the record in bytes.
+     */
+    private void processRecord(ByteBuffer buffer, int start, int length) {
+
         MiniSeed  record = null;
         DataSet   tempData = null;
-
-        String network  = null;
-        String station  = null;
-        String location = null;
-        String channel  = null;
-        double sampleRate = 0.0;
+        RecordHeader.Channel channel = null;
         long   interval = 0;
-
-        int[] ymd = null;
-        int year;
-        int month;
-        int day;
-        int doy;
-        int hour;
-        int minute;
-        int second;
-        int husec;
         long startTime = 0;
 
-        byte[] recordBytes = null;
         int[] samples = null;
-        int[] timeComp = null;
-        GregorianCalendar cal = null;
-        String seedstring = null;
-        // total number of bytes that have been received from the queue
-        long byteTotal = 0;
-        SeedSplitProgress progress = null;
         String key = null;
         TreeSet<DataSet> tree = null;
-        Hashtable<String,DataSet> temps = new Hashtable<String,DataSet>();
-        Hashtable<String,Integer> recordCounts = new Hashtable<String,Integer>();
 
-        Matcher matcher = null;
+        try {
+            boolean decodable = m_header.crack(buffer, start, length);
+            if (m_header.isHeartBeat()) {
+                logger.debug("Found HEARTBEAT record!");
+                return;
+            }
+            // The filters and the sample interval only need to be evaluated
+            // the first time a channel is seen.
+            channel = m_header.getChannel();
+            if (channel.accepted == null) {
+                channel.accepted = accept(channel);
+                try {
+                    channel.interval = DataSet.sampleRateToInterval(channel.getSampleRate());
+                } catch (IllegalSampleRateException e) {
+                    channel.interval = -1;
+                }
+            }
+            if (!channel.accepted) {
+                m_discarded++;
+                return;
+            }
+            if (!m_header.isValid()) {
+                logger.warn("Caught IllegalSeednameException");
+                return;
+            }
+            interval = channel.interval;
+            if (interval < 0) {
+                logger.debug(String.format("Illegal Sample Rate: sequence #%d, rate = %f", m_header.getSequence(), channel.getSampleRate()));
+                m_discarded++;
+                return;
+            }
+            m_kept++;
+            key = channel.getKey();
+            logger.debug("{}", key);
+            channel.records++;
 
-        int kept = 0;
-        int discarded = 0;
+            startTime = m_header.getStartTime();
 
-        m_running = true;
-        while (m_running) {
-            progress: {
+            if (!m_temps.containsKey(key)) {
+                tempData = null;
+            } else {
+                tempData = m_temps.get(key);
+            }
+            
+            if (!m_trees.containsKey(key)) {
+                tree = new TreeSet<DataSet>(new SequenceComparator());
+                m_trees.put(key, tree);
+            } else {
+                tree = m_trees.get(key);
+            }
+
+            // Allow for a fudge factor of 1 millisecond if sample 
+            // rate is less than 100 Hz.
+            //
+            // Is this a good idea, or would it be better to simply 
+            // report a gap so the user is aware of the jump?
+            //
+            //long intervalAdjustment = (interval > 10000 ? 1000 : 0);
+            long intervalAdjustment = interval / 100;
+
+            boolean replaceDataSet = false;
+            // Temporarily disabled fudge factor
+
+            if ((tempData == null) || ((startTime - tempData.getEndTime()) > (interval + intervalAdjustment))) {
+            //if ((tempData == null) || ((startTime - tempData.getEndTime()) > interval)) {
+            // (VIM-HACK) }
+                replaceDataSet = true;
+            } else {
+                if ((startTime - tempData.getEndTime()) < (interval - intervalAdjustment)) {
+                //if ((startTime - tempData.getEndTime()) < interval) {
+                // (VIM-HACK) }
+                    replaceDataSet = true;
+                    logger.debug(String.format("Found data overlap <%s] - [%s> sequence #%d.!\n",
+                                     DataSet.timestampToString(tempData.getEndTime()),
+                                     DataSet.timestampToString(startTime),
+                                     m_header.getSequence()));
+                    if (m_header.getSequence() <= lastSequenceNumber) {
+                        logger.debug(String.format("Out of sequence last=%d current=%d", lastSequenceNumber, m_header.getSequence()));
+                    }
+                    //throw new SeedRecordOverlapException();
+                }
+            }
+            if (replaceDataSet) {
+                if (tempData != null) {
+                    tree.add(tempData);
+                    logger.debug("Adding DataSet to TreeSet.");
+                    logger.debug(String.format("  Range: %s - %s (%d data points {CHECK: %d})",
+                                               DataSet.timestampToString(tempData.getStartTime()),
+                                               DataSet.timestampToString(tempData.getEndTime()),
+                                               ((tempData.getEndTime() - tempData.getStartTime()) / tempData.getInterval() + 1),
+                                               tempData.getLength()));
+                    tempData = null;
+                    m_temps.remove(key);
+                }
+                logger.debug("Creating new DataSet");
+                tempData = new DataSet();
+                tempData.setNetwork(channel.getNetwork());
+                tempData.setStation(channel.getStation());
+                tempData.setLocation(channel.getLocation());
+                tempData.setChannel(channel.getChannel());
+                tempData.setStartTime(startTime);
                 try {
-                    block = m_queue.take();
-                    // even if we don't end up using this data, it counts toward our progress
-                    byteTotal += block.getLength();
-                    byteTotal += block.getSkippedBytes();
-                    progress = new SeedSplitProgress(byteTotal);
-                    recordBytes = block.getData();
-                    if (block.isLast()) {
-                        m_running = false;
-                    } else if (block.isEnd()) {
-                        progress.setFileDone(true);
-                    } else if (MiniSeed.crackIsHeartBeat(recordBytes)) {
-                        logger.debug("Found HEARTBEAT record!");
-                    } else { //MTH
-                        seedstring = MiniSeed.crackSeedname(recordBytes);
-                        network = seedstring.substring(0,2).trim();
-                        if (m_patternNetwork != null) {
-                            matcher = m_patternNetwork.matcher(network);
-                            if (!matcher.matches()) {
-                                discarded++;
-                                break progress;
-                            }
-                        }
-                        station = seedstring.substring(2,7).trim();
-                        if (m_patternStation != null) {
-                            matcher = m_patternStation.matcher(station);
-                            if (!matcher.matches()) {
-                                discarded++;
-                                break progress;
-                            }
-                        }
-                        location = seedstring.substring(10,12).trim();
-                    // MTH:
-                        if (location.equals("") || location == null) {
-                            location = "--";            // Set Default location to "--"
-                        }
-                        if (m_patternLocation != null) {
-                            matcher = m_patternLocation.matcher(location);
-                            if (!matcher.matches()) {
-                                discarded++;
-                                break progress;
-                            }
-                        }
-                        channel = seedstring.substring(7,10).trim();
-                        if (m_patternChannel != null) {
-                            matcher = m_patternChannel.matcher(channel);
-                            if (!matcher.matches()) {
-                                discarded++;
-                                break progress;
-                            }
-                        }
-                        sampleRate = MiniSeed.crackRate(recordBytes);
-                        try {
-                            interval = DataSet.sampleRateToInterval(sampleRate);
-                        } catch (IllegalSampleRateException e) {
-                            MiniSeed ms = new MiniSeed(recordBytes);
-                            logger.debug(String.format("Illegal Sample Rate: sequence #%d, rate = %f", ms.getSequence(), sampleRate));
-                            discarded++;
-                            break progress;
-                        }
-                        kept++;
-                        logger.debug(String.format("%s_%s %s-%s", network, station, location, channel));
-                        key = String.format("%s_%s %s-%s (%.1f Hz)", network, station, location, channel, sampleRate);
-
-                        if (!recordCounts.containsKey(key)) {
-                            recordCounts.put(key, 1);
-                        } else {
-                            recordCounts.put(key, recordCounts.get(key) + 1);
-                        }
-
-                        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
-
-                        year   = MiniSeed.crackYear(recordBytes);
-                        doy    = MiniSeed.crackDOY(recordBytes);
-                        ymd    = SeedUtil.ymd_from_doy(year, doy);
-                        month  = ymd[1] - 1;
-                        day    = ymd[2];
-                        timeComp = MiniSeed.crackTime(recordBytes);
-                        hour   = timeComp[0];
-                        minute = timeComp[1];
-                        second = timeComp[2];
-                        husec  = timeComp[3];
-
-//System.out.format("== SeedSplitProcessor: key=%s [%d/%d/%d %2d:%2d:%2d]\n", key, year,month,day,hour,minute,second);
-                        cal = new GregorianCalendar(m_tz);
-                        cal.set(year, month, day, hour, minute, second);
-                        cal.setTimeInMillis((cal.getTimeInMillis() / 1000L * 1000L) + (husec / 10));
-                        startTime = (cal.getTimeInMillis() * 1000) + (husec % 10) * 100; 
-
-                        if (!temps.containsKey(key)) {
-                            tempData = null;
-                        } else {
-                            tempData = temps.get(key);
-                        }
-                        
-                        if (!m_trees.containsKey(key)) {
-                            tree = new TreeSet<DataSet>(new SequenceComparator());
-                            m_trees.put(key, tree);
-                        } else {
-                            tree = m_trees.get(key);
-                        }
-
-                        // Allow for a fudge factor of 1 millisecond if sample 
-                        // rate is less than 100 Hz.
-                        //
-                        // Is this a good idea, or would it be better to simply 
-                        // report a gap so the user is aware of the jump?
-                        //
-                        //long intervalAdjustment = (interval > 10000 ? 1000 : 0);
-                        long intervalAdjustment = interval / 100;
-
-                        boolean replaceDataSet = false;
-                        // Temporarily disabled fudge factor
-
-                        if ((tempData == null) || ((startTime - tempData.getEndTime()) > (interval + intervalAdjustment))) {
-                        //if ((tempData == null) || ((startTime - tempData.getEndTime()) > interval)) {
-                        // (VIM-HACK) }
-                            replaceDataSet = true;
-                        } else {
-                            MiniSeed ms = new MiniSeed(recordBytes);
-                            if ((startTime - tempData.getEndTime()) < (interval - intervalAdjustment)) {
-                            //if ((startTime - tempData.getEndTime()) < interval) {
-                            // (VIM-HACK) }
-                                replaceDataSet = true;
-                                logger.debug(String.format("Found data overlap <%s] - [%s> sequence #%d.!\n",
-                                                 DataSet.timestampToString(tempData.getEndTime()),
-                                                 DataSet.timestampToString(startTime),
-                                                 ms.getSequence()));
-                                if (ms.getSequence() <= lastSequenceNumber) {
-                                    logger.debug(String.format("Out of sequence last=%d current=%d", lastSequenceNumber, ms.getSequence()));
-                                }
-                                //throw new SeedRecordOverlapException();
-                            }
-                        }
-                        if (replaceDataSet) {
-                            if (tempData != null) {
-                                tree.add(tempData);
-                                logger.debug("Adding DataSet to TreeSet.");
-                                logger.debug(String.format("  Range: %s - %s (%d data points {CHECK: %d})",
-                                                           DataSet.timestampToString(tempData.getStartTime()),
-                                                           DataSet.timestampToString(tempData.getEndTime()),
-                                                           ((tempData.getEndTime() - tempData.getStartTime()) / tempData.getInterval() + 1),
-                                                           tempData.getLength()));
-                                tempData = null;
-                                temps.remove(key);
-                            }
-                            logger.debug("Creating new DataSet");
-                            tempData = new DataSet();
-                            tempData.setNetwork(network);
-                            tempData.setStation(station);
-                            tempData.setLocation(location);
-                            tempData.setChannel(channel);
-                            tempData.setStartTime(startTime);
-                            try {
-                                tempData.setSampleRate(sampleRate);
-                            } catch (RuntimeException e) {
-                                MiniSeed ms = new MiniSeed(recordBytes);
-                                logger.debug(String.format("Invalid Start Time: sequence #%d", ms.getSequence()));
-                                tempData = null;
-                                break progress;
-                            } catch (IllegalSampleRateException e) {
-                                MiniSeed ms = new MiniSeed(recordBytes);
-                                logger.debug(String.format("Invalid Sample Rate: sequence #%d, rate = %f", ms.getSequence(), ms.getRate()));
-                                tempData = null;
-                                break progress;
-                            }
-                            temps.put(key, tempData);
-                        } // replaceDataSet
-
-                        record = new MiniSeed(recordBytes);
-                        samples = record.decomp();
-
-                    // MTH: decomp() will return null in the event of Steim2 Exception, etc.
-                        if (samples == null) {
-                            logger.warn("SeedSplitProcessor: Caught SteimException --> Skip this block");
-                        }
-                        else {  // samples != null
-
-                        // blockettes = record.getBlockettes();
-                        lastSequenceNumber = record.getSequence();
-                        tempData.extend(samples, 0, samples.length);
-
-                    // MTH: Get timing quality from the current miniseed block and store it for this key
-                        int quality = record.getTimingQuality();
-
-                        if (m_qualityTable == null) {
-                            m_qualityTable = new Hashtable<String, ArrayList<Integer>>();
-                        }
-
-                        ArrayList<Integer> qualityArray = null;
-                        if (m_qualityTable.get(key) == null) {
-                            qualityArray = new ArrayList<Integer>(); 
-                            m_qualityTable.put(key, qualityArray);
-                        }
-                        else {
-                            qualityArray = m_qualityTable.get(key); 
-                        }
-                        if (quality >= 0) { // getTimingQuality() return -1 if no B1001 block found
-                            qualityArray.add(quality);
-                        }
-
-                    // MTH: Get calibration block from the current miniseed block and store it for this key
-                    //  byteBuf320 = 64-byte Blockette320 as per SEED Manual HOWEVER, D. Ketcham's MiniSeed.getBlockette320()
-                    //  only returns 32-bytes ?? --> modified to return 64-bytes
-                        byte[] byteBuf320 = record.getBlockette320();
-                        if (byteBuf320 != null) { 
+                    tempData.setSampleRate(channel.getSampleRate());
+                } catch (RuntimeException e) {
+                    logger.debug(String.format("Invalid Start Time: sequence #%d", m_header.getSequence()));
+                    tempData = null;
+                    return;
+                } catch (IllegalSampleRateException e) {
+                    logger.debug(String.format("Invalid Sample Rate: sequence #%d, rate = %f", m_header.getSequence(), channel.getSampleRate()));
+                    tempData = null;
+                    return;
+                }
+                m_temps.put(key, tempData);
+            } // replaceDataSet
+
+            int quality = -1;
+            byte[] byteBuf320 = null;
+            if (decodable) {
+                // Plain Steim1/Steim2 data record: decode it straight into the DataSet's blocks
+                SteimDecodeResult result = tempData.extend(
+                        (m_header.getEncoding() == RecordHeader.STEIM1) ? m_steim1 : m_steim2,
+                        m_header.getBuffer(), m_header.getDataStart(), m_header.getDataLength(),
+                        m_header.getNumSamples(), m_header.isSwapped());
+                if (result.hadError()) {
+                    logger.warn("SeedSplitProcessor: " + result.getReverseError() + result.getSampleCountError() + " --> Skip this block");
+                    return;
+                }
+                lastSequenceNumber = m_header.getSequence();
+                quality = m_header.getTimingQuality();
+            } else {
+                record = new MiniSeed(getRecordBytes(buffer, start, length));
+                samples = record.decomp();
+
+            // MTH: decomp() will return null in the event of Steim2 Exception, etc.
+                if (samples == null) {
+                    logger.warn("SeedSplitProcessor: Caught SteimException --> Skip this block");
+                    return;
+                }
+
+                // blockettes = record.getBlockettes();
+                lastSequenceNumber = record.getSequence();
+                tempData.extend(samples, 0, samples.length);
+                quality = record.getTimingQuality();
+                byteBuf320 = record.getBlockette320();
+            }
+
+        // MTH: Store the timing quality of the current miniseed block for this key
+            if (m_qualityTable == null) {
+                m_qualityTable = new Hashtable<String, ArrayList<Integer>>();
+            }
+
+            ArrayList<Integer> qualityArray = null;
+            if (m_qualityTable.get(key) == null) {
+                qualityArray = new ArrayList<Integer>(); 
+                m_qualityTable.put(key, qualityArray);
+            }
+            else {
+                qualityArray = m_qualityTable.get(key); 
+            }
+            if (quality >= 0) { // getTimingQuality() return -1 if no B1001 block found
+                qualityArray.add(quality);
+            }
+
+        // MTH: Get calibration block from the current miniseed block and store it for this key
+        //  byteBuf320 = 64-byte Blockette320 as per SEED Manual HOWEVER, D. Ketcham's MiniSeed.getBlockette320()
+        //  only returns 32-bytes ?? --> modified to return 64-bytes
+            if (byteBuf320 != null) { 
 //System.out.format("== SeedSplitProcessor: Blockette320 found for key=%s kept=[%d] discarded=[%d]\n", key, kept, discarded);
-                            Blockette320 blockette320 = new Blockette320(byteBuf320);
+                Blockette320 blockette320 = new Blockette320(byteBuf320);
 //System.out.format("== blockette320: epoch secs=[%d]\n", blockette320.getCalibrationEpoch() );
 
-                            if (m_calTable == null) {
-                                m_calTable =  new Hashtable<String, ArrayList<Blockette320>>();
-                            }
-
-                            ArrayList<Blockette320> calBlock = null; 
-                            if (m_calTable.get(key) == null) {
-                                calBlock = new ArrayList<Blockette320>(); 
-                                m_calTable.put(key, calBlock);
-                            }
-                            else {
-                                calBlock = m_calTable.get(key); 
-                            }
-                            calBlock.add(blockette320);
-                        }
-                        else { 
-//System.out.format("== SeedSplitProcessor: BLOCKETTE320 *NOT* FOUND for key=%s kept=[%d] discarded=[%d]\n", key, kept, discarded);
-                        }
+                if (m_calTable == null) {
+                    m_calTable =  new Hashtable<String, ArrayList<Blockette320>>();
+                }
 
-                    } // end else samples != null
+                ArrayList<Blockette320> calBlock = null; 
+                if (m_calTable.get(key) == null) {
+                    calBlock = new ArrayList<Blockette320>(); 
+                    m_calTable.put(key, calBlock);
+                }
+                else {
+                    calBlock = m_calTable.get(key); 
+                }
+                calBlock.add(blockette320);
+            }
+            else { 
+//System.out.format("== SeedSplitProcessor: BLOCKETTE320 *NOT* FOUND for key=%s kept=[%d] discarded=[%d]\n", key, kept, discarded);
+            }
 
-                    } // end else MTH
+        } catch (SteimException e) {
+            logger.warn("Caught SteimException");
+        } catch (IllegalSeednameException e) {
+            logger.warn("Caught IllegalSeednameException");
+        } // end try
+    }
 
-                } catch (SteimException e) {
-                    logger.warn("Caught SteimException");
-                } catch (InterruptedException e) {
-                    logger.warn("Caught InterruptedException");
-                } catch (IllegalSeednameException e) {
-                    logger.warn("Caught IllegalSeednameException");
-                } // end try
-            }
-            m_progressQueue.put(progress);
-        } // end while(m_running)
-        for (String tempKey: temps.keySet()) {
+    /**
+     * Closes the DataSets still being assembled and merges each channel's
+     * tree into the hash table.
+     */
+    private void finish() {
+        DataSet tempData = null;
+        TreeSet<DataSet> tree = null;
+        for (String tempKey: m_temps.keySet()) {
             tempData = null;
             tree = null;
-            if (temps.containsKey(tempKey)) {
-                tempData = temps.get(tempKey);
+            if (m_temps.containsKey(tempKey)) {
+                tempData = m_temps.get(tempKey);
             }
             if (m_trees.containsKey(tempKey)) {
                 tree = m_trees.get(tempKey);
@@ -518,76 +576,61 @@ implements Runnable
         }
         //*/
 
-        Iterator<DataSet> iter;
-        DataSet currDataSet;
-        DataSet lastDataSet;
         for (String chanKey: m_trees.keySet()) {
             tree = m_trees.get(chanKey);
-            ArrayList<DataSet> list = new ArrayList<DataSet>(tree.size());
             if (!tree.isEmpty()) {
                 logger.debug("Processing " +tree.size()+ " tree elements for '" +chanKey+ "'");
-                iter = tree.iterator();
-                currDataSet = null;
-                lastDataSet = (DataSet)iter.next();
-//MTH
-//System.out.format("== chanKey:[%s] First DataSet:[%s - %s] BlockCount=[%d] Length=[%d]\n", chanKey,
-//    DataSet.timestampToString(lastDataSet.getStartTime()), DataSet.timestampToString(lastDataSet.getEndTime()), 
-//    lastDataSet.getBlockCount(), lastDataSet.getLength() );
-
-                while (iter.hasNext()) {
-                    currDataSet = (DataSet)iter.next();
-//MTH
-//System.out.format("== chanKey:[%s] Next DataSet:[%s - %s] BlockCount=[%d] Length=[%d]\n", chanKey,
-//    DataSet.timestampToString(currDataSet.getStartTime()), DataSet.timestampToString(currDataSet.getEndTime()), 
-//    currDataSet.getBlockCount(), currDataSet.getLength() );
-
-                    try {
-                        logger.debug("Merging DataSets...");
-                        currDataSet.mergeInto(lastDataSet);
-                        logger.debug("Done.");
-                    } catch (SequenceIntervalMismatchException e) {
-                        throw new RuntimeException("Interval Mismatch. This should never happen!");
-                    } catch (SequenceMergeRangeException e) {
-                        logger.debug("Failed.");
-                        list.add(lastDataSet);
-                        lastDataSet = currDataSet;
-                        currDataSet = null;
-                    } catch (SequenceTimingException e) {
-                        logger.debug("Timing Error. Sequences could not be correctly paired!");
-                        list.add(lastDataSet);
-                        currDataSet.trimStart(lastDataSet.getStartTime());
-                        lastDataSet = currDataSet;
-                        currDataSet = null;
-                        //throw new RuntimeException("Timing Error. These sequences cannot be correctly paired!");
-                    }
-                }
-                list.add(lastDataSet);
-                m_table.put(chanKey, list);
+                m_table.put(chanKey, mergeTree(tree));
             } else {
                 logger.debug("Empty tree for '" +chanKey+ "'");
             }
         }
         logger.debug("SeedSplitProcessor Thread> Yeah, we're done.");
-        logger.debug("Kept " +kept+ " records");
-        logger.debug("Discarded " +discarded+ " records");
-        for (String countKey: recordCounts.keySet()) {
-            logger.debug("  " +countKey+ ": " +recordCounts.get(key)+ " records");
+        logger.debug("Kept " +m_kept+ " records");
+        logger.debug("Discarded " +m_discarded+ " records");
+        for (RecordHeader.Channel channel: m_header.getChannels()) {
+            logger.debug("  " +channel.getKey()+ ": " +channel.records+ " records");
         }
-        if ((progress != null) && !progress.errorOccurred()) {
-            progress = new SeedSplitProgress(byteTotal, true);
-            m_progressQueue.put(progress);
-        }
-
-// Print out m_qualityTable to see what we got ...
-        //TreeSet<String> keys = new TreeSet<String>();
-        //keys.addAll(m_qualityTable.keySet());
-        //for (String qkey : keys){
-            //ArrayList<Integer> qualities = m_qualityTable.get(qkey);
-            //System.out.format("== [key=%s] --> nQuality=%d\n", qkey, qualities.size() );
-        //}
-        //System.exit(0);
-
-    } // run()
+    }
 
+    /**
+     * Merges the time-ordered DataSets of a single channel into as few 
+     * contiguous DataSets as possible.
+     * 
+     * @param tree	Non-empty, time-ordered set of DataSets for one channel.
+     * @return The contiguous DataSets for this channel, in time order.
+     */
+    static ArrayList<DataSet> mergeTree(TreeSet<DataSet> tree)
+    {
+        ArrayList<DataSet> list = new ArrayList<DataSet>(tree.size());
+        Iterator<DataSet> iter = tree.iterator();
+        DataSet currDataSet = null;
+        DataSet lastDataSet = (DataSet)iter.next();
+
+        while (iter.hasNext()) {
+            currDataSet = (DataSet)iter.next();
+            try {
+                logger.debug("Merging DataSets...");
+                currDataSet.mergeInto(lastDataSet);
+                logger.debug("Done.");
+            } catch (SequenceIntervalMismatchException e) {
+                throw new RuntimeException("Interval Mismatch. This should never happen!");
+            } catch (SequenceMergeRangeException e) {
+                logger.debug("Failed.");
+                list.add(lastDataSet);
+                lastDataSet = currDataSet;
+                currDataSet = null;
+            } catch (SequenceTimingException e) {
+                logger.debug("Timing Error. Sequences could not be correctly paired!");
+                list.add(lastDataSet);
+                currDataSet.trimStart(lastDataSet.getStartTime());
+                lastDataSet = currDataSet;
+                currDataSet = null;
+                //throw new RuntimeException("Timing Error. These sequences cannot be correctly paired!");
+            }
+        }
+        list.add(lastDataSet);
+        return list;
+    }
 }
 
@@ -26,10 +26,16 @@ import java.io.FileInputStream;
 import java.io.BufferedInputStream;
 import java.io.FileNotFoundException;
 import java.io.File;
+import java.io.IOException;
 import java.lang.Thread;
 import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -69,6 +75,10 @@ extends SwingWorker<Hashtable<String,ArrayList<DataSet>>, SeedSplitProgress>
     private FallOffQueue<SeedSplitProgress> m_progressQueue;
     private FallOffQueue<SeedSplitProgress> m_externalProgressQueue = null;
     private SeedSplitProgress m_lastProgress = null;
+    private int m_parallelism = 1;
+
+    // Splits files in parallel for callers that aren't fork-join workers themselves
+    private static ForkJoinPool splitPool = null;
 
     private Pattern m_patternNetwork  = null;
     private Pattern m_patternStation  = null;
@@ -165,6 +175,20 @@ extends SwingWorker<Hashtable<String,ArrayList<DataSet>>, SeedSplitProgress>
 
     }
 
+    /**
+     * Sets the number of files which are split concurrently. Each file is 
+     * memory-mapped and decoded by its own SeedSplitProcessor on a single pool 
+     * thread, and the per-file results are merged once every file has been 
+     * processed. A value of 1 (the default) 
+     * feeds all files through a single SeedSplitProcessor, one at a time.
+     * 
+     * @param threads	Maximum number of files to split at the same time.
+     */
+    public void setParallelism(int threads)
+    {
+        m_parallelism = (threads < 1) ? 1 : threads;
+    }
+
     /**
      * Get the results after the SeedSplitter has finished processing all files.
      * 
@@ -213,6 +237,10 @@ extends SwingWorker<Hashtable<String,ArrayList<DataSet>>, SeedSplitProgress>
     @Override
     public Hashtable<String,ArrayList<DataSet>> doInBackground()
     {
+        if (m_parallelism > 1) {
+            return doInBackgroundParallel();
+        }
+
         SeedSplitProgress progress = null;
         int progressPercent = 0; // 0 - 100
         int lastPercent = 0;
@@ -315,5 +343,212 @@ extends SwingWorker<Hashtable<String,ArrayList<DataSet>>, SeedSplitProgress>
         this.setProgress(100);
         return m_table;
     }
+
+    /**
+     * Splits up to m_parallelism files at the same time, each through its own
+     * decode pipeline, then merges the per-file results into a single table.
+     * 
+     * The files are forked into the caller's fork-join pool when it is a 
+     * fork-join worker (e.g., a station-day scan), so that no threads are added
+     * on top of the ones already busy; otherwise they run on one shared pool.
+     * 
+     * @return  A hash table containing all of the data acquired from the file list.
+     */
+    private Hashtable<String,ArrayList<DataSet>> doInBackgroundParallel()
+    {
+        long totalBytes = 0;
+        long stageBytes = 0;
+        for (File file: m_files) {
+            totalBytes += file.length();
+        }
+
+        m_table = new Hashtable<String,ArrayList<DataSet>>();
+        m_qualityTable = null;
+        m_calTable = null;
+
+        int nwave = Math.min(m_parallelism, m_files.length);
+        for (int first = 0; first < m_files.length; first += nwave) {
+            List<SplitTask> tasks = new ArrayList<SplitTask>(nwave);
+            for (int i = first; i < Math.min(first + nwave, m_files.length); i++) {
+                tasks.add(new SplitTask(i));
+            }
+            try {
+                if (ForkJoinTask.inForkJoinPool()) {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+                else {
+                    ForkJoinPool pool = getSplitPool();
+                    for (SplitTask task : tasks) {
+                        pool.execute(task);
+                    }
+                    for (SplitTask task : tasks) {
+                        task.join();
+                    }
+                }
+            } catch (RuntimeException e) {
+                logger.error("Failed to split files", e);
+                discardResults(tasks);
+                return null;
+            }
+            if (this.isCancelled()) {
+                discardResults(tasks);
+                return null;
+            }
+
+            // Merge in file order so the results match those of a sequential split
+            for (SplitTask task : tasks) {
+                SeedSplitProcessor processor = task.getRawResult();
+                if (processor != null) {
+                    mergeResults(processor);
+                }
+                stageBytes += m_files[task.index].length();
+                int progressPercent = (totalBytes > 0) ? (int)(stageBytes * 100L / totalBytes) : 0;
+                this.setProgress((progressPercent > 99) ? 99 : progressPercent);
+            }
+        }
+        m_lastProgress = new SeedSplitProgress(totalBytes, true);
+        logger.debug("All done. Setting progress to 100%");
+        this.setProgress(100);
+        return m_table;
+    }
+
+    /**
+     * Returns the blocks of everything split so far to the BlockPool: the tables
+     * merged from the earlier waves and those of the wave's tasks that finished.
+     * 
+     * @param tasks	The tasks of the current wave.
+     */
+    private void discardResults(List<SplitTask> tasks)
+    {
+        for (SplitTask task : tasks) {
+            task.quietlyJoin();     // A failed wave may still have tasks running
+            if (task.isCompletedNormally() && task.getRawResult() != null) {
+                releaseTable(task.getRawResult().getTable());
+            }
+        }
+        releaseTable(m_table);
+        m_table = null;
+    }
+
+    private static void releaseTable(Hashtable<String,ArrayList<DataSet>> table)
+    {
+        for (ArrayList<DataSet> list : table.values()) {
+            for (DataSet dataSet : list) {
+                dataSet.release();
+            }
+        }
+    }
+
+    private static synchronized ForkJoinPool getSplitPool()
+    {
+        if (splitPool == null) {
+            splitPool = new ForkJoinPool();
+        }
+        return splitPool;
+    }
+
+    private class SplitTask
+    extends RecursiveTask<SeedSplitProcessor>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private int index;
+
+        private SplitTask(int index)
+        {
+            this.index = index;
+        }
+
+        protected SeedSplitProcessor compute()
+        {
+            return splitFile(index);
+        }
+    }
+
+    /**
+     * Maps a single file and runs its records through its own SeedSplitProcessor.
+     * Records are decoded on the calling thread straight from the mapping.
+     * 
+     * @param index	Index of the file within the file list.
+     * @return The processor holding this file's tables, or null if the file could not be read.
+     */
+    private SeedSplitProcessor splitFile(int index)
+    {
+        File file = m_files[index];
+
+        SeedSplitProcessor processor = new SeedSplitProcessor();
+        processor.setNetworkPattern(m_patternNetwork);
+        processor.setStationPattern(m_patternStation);
+        processor.setLocationPattern(m_patternLocation);
+        processor.setChannelPattern(m_patternChannel);
+
+        MappedSeedReader reader = null;
+        try {
+            reader = new MappedSeedReader(file);
+        } catch (FileNotFoundException e) {
+            logger.debug("File '" +file.getName()+ "' not found\n");
+            return null;
+        } catch (IOException e) {
+            logger.warn("Unable to map file '" +file.getName()+ "'", e);
+            return null;
+        }
+        logger.debug("Processing file " + file.getName() + "...");
+        processor.process(reader);
+        m_digests[index] = reader.getDigestString();
+
+        logger.debug("Finished processing file " + file.getName() + " (" + reader.getRecordCount() 
+                     + " records, " + reader.getTotalSkippedBytes() + " bytes skipped)");
+        return processor;
+    }
+
+    /**
+     * Adds the tables of a single-file SeedSplitProcessor to this SeedSplitter's tables.
+     * DataSets of a channel that was already seen in another file are re-merged.
+     * 
+     * @param processor	A SeedSplitProcessor which has finished processing its file.
+     */
+    private void mergeResults(SeedSplitProcessor processor)
+    {
+        Hashtable<String,ArrayList<DataSet>> table = processor.getTable();
+        for (String key: table.keySet()) {
+            ArrayList<DataSet> list = table.get(key);
+            if (!m_table.containsKey(key)) {
+                m_table.put(key, list);
+            } else {
+                TreeSet<DataSet> tree = new TreeSet<DataSet>(new SequenceComparator());
+                tree.addAll(m_table.get(key));
+                tree.addAll(list);
+                m_table.put(key, SeedSplitProcessor.mergeTree(tree));
+            }
+        }
+
+        Hashtable<String,ArrayList<Integer>> qualityTable = processor.getQualityTable();
+        if (qualityTable != null) {
+            if (m_qualityTable == null) {
+                m_qualityTable = new Hashtable<String,ArrayList<Integer>>();
+            }
+            for (String key: qualityTable.keySet()) {
+                if (!m_qualityTable.containsKey(key)) {
+                    m_qualityTable.put(key, qualityTable.get(key));
+                } else {
+                    m_qualityTable.get(key).addAll(qualityTable.get(key));
+                }
+            }
+        }
+
+        Hashtable<String,ArrayList<Blockette320>> calTable = processor.getCalTable();
+        if (calTable != null) {
+            if (m_calTable == null) {
+                m_calTable = new Hashtable<String,ArrayList<Blockette320>>();
+            }
+            for (String key: calTable.keySet()) {
+                if (!m_calTable.containsKey(key)) {
+                    m_calTable.put(key, calTable.get(key));
+                } else {
+                    m_calTable.get(key).addAll(calTable.get(key));
+                }
+            }
+        }
+    }
 }
 
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+
+package asl.seedsplitter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+
+/**
+ * Keeps a pool of off-heap integer segments of uniform size, the off-heap 
+ * counterpart of the {@link BlockPool}.
+ *
+ * Direct buffers are only freed when the garbage collector gets to them, so
+ * segments are meant to be handed back to the pool rather than dropped. A 
+ * segment added once the pool holds maxSegments is left to the collector.
+ *
+ * No more than maxLiveSegments segments are allocated and not yet dropped at 
+ * any time (whether in use or idle in the pool). Past that, getNewSegment() 
+ * returns null and the caller keeps its data on the heap instead.
+ */
+public class SegmentPool
+{
+    private static final Logger logger = LoggerFactory.getLogger(asl.seedsplitter.SegmentPool.class);
+
+    private ArrayList<IntBuffer> m_pool;
+    private int m_segmentSize = 0;
+    private int m_maxSegments = 0;
+    private int m_maxLiveSegments = 0;
+    private int m_liveSegments = 0;
+
+    private long m_hits = 0;
+    private long m_misses = 0;
+    private long m_discarded = 0;
+    private long m_refused = 0;
+
+    /**
+     * Constructor.
+     * 
+     * @param segmentSize 	The number of integers in each segment.
+     * @param maxSegments 	The maximum number of segments the pool will hold on to.
+     * @param maxLiveSegments	The maximum number of segments allocated at any time.
+     */
+    public SegmentPool(int segmentSize, int maxSegments, int maxLiveSegments) 
+    {
+        m_segmentSize = segmentSize;
+        m_maxSegments = maxSegments;
+        m_maxLiveSegments = maxLiveSegments;
+        m_pool = new ArrayList<IntBuffer>(8);
+    }
+
+    /**
+     * Changes the maximum number of segments allocated at any time. Segments 
+     * already allocated beyond a lowered limit are dropped as they are returned.
+     * 
+     * @param maxLiveSegments	The maximum number of segments allocated at any time.
+     */
+    public synchronized void setMaxLiveSegments(int maxLiveSegments)
+    {
+        m_maxLiveSegments = maxLiveSegments;
+    }
+
+    /**
+     * Returns the segment size.
+     * 
+     * @return 	The number of integers in each segment.
+     */
+    public int getSegmentSize()
+    {
+        return m_segmentSize;
+    }
+
+    /**
+     * Returns a segment to the pool. If the pool is full the segment is dropped.
+     * 
+     * @param segment 	The segment to return to the pool.
+     * @throws BlockSizeMismatchException	If the size of the segment does not match this pool's segment size.
+     */
+    public synchronized void addSegment(IntBuffer segment)
+        throws BlockSizeMismatchException
+    {
+        if (segment.capacity() != m_segmentSize) {
+            throw new BlockSizeMismatchException("");
+        }
+        if ((m_pool.size() < m_maxSegments) && (m_liveSegments <= m_maxLiveSegments)) {
+            m_pool.add(segment);
+        } else {
+            m_discarded++;
+            m_liveSegments--;
+        }
+    }
+
+    /**
+     * Returns a segment from the pool if it contains any, otherwise a new direct segment is allocated.
+     *
+     * @return  A cleared segment either from the pool, or freshly allocated if the pool is empty,
+     *          or null if the pool is empty and maxLiveSegments segments are already allocated.
+     */
+    public synchronized IntBuffer getNewSegment() 
+    {
+        IntBuffer segment = null;
+        int size = m_pool.size();
+        if (size > 0) {
+            m_hits++;
+            segment = m_pool.remove(size - 1);
+            segment.clear();
+        } else if (m_liveSegments >= m_maxLiveSegments) {
+            m_refused++;
+        } else {
+            m_misses++;
+            m_liveSegments++;
+            segment = ByteBuffer.allocateDirect(m_segmentSize * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        return segment;
+    }
+
+    /**
+     * Returns the number of segments currently held by the pool.
+     *
+     * @return  The number of idle segments in the pool.
+     */
+    public synchronized int getResidentSegments()
+    {
+        return m_pool.size();
+    }
+
+    /**
+     * Returns the fraction of requests served from the pool.
+     *
+     * @return  The hit rate, from 0.0 to 1.0.
+     */
+    public synchronized double getHitRate()
+    {
+        long total = m_hits + m_misses;
+        return (total == 0) ? 0.0 : (double)m_hits / (double)total;
+    }
+
+    public synchronized String toString()
+    {
+        return String.format("SegmentPool: hitRate=%.3f hits=%d misses=%d discarded=%d refused=%d resident=%d segments (%.1f MB)"
+                             + " live=%d segments (%.1f MB)",
+                             getHitRate(), m_hits, m_misses, m_discarded, m_refused, m_pool.size(),
+                             (double)m_pool.size() * m_segmentSize * 4 / 1048576.,
+                             m_liveSegments, (double)m_liveSegments * m_segmentSize * 4 / 1048576.);
+    }
+}
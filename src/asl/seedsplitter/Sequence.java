@@ -21,6 +21,8 @@ package asl.seedsplitter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
@@ -29,6 +31,11 @@ import java.util.TimeZone;
 
 import asl.security.MemberDigest;
 
+import seed.SteimDecodeResult;
+import seed.SteimDecoder;
+import seed.SteimException;
+import seed.SteimSampleSink;
+
 /**
  * @author	Joel D. Edwards <jdedwards@usgs.gov>
  *
@@ -41,12 +48,36 @@ extends MemberDigest
     public static final int BLOCK_SIZE = 4096;
     private static TimeZone m_tz = TimeZone.getTimeZone("GMT");;
 
+    // Blocks are shared by every Sequence, so a day's blocks can be reused 
+    // by the next day's once it is released. The pool holds on to at most
+    // an eighth of the maximum heap.
+    private static BlockPool m_sharedPool = new BlockPool(BLOCK_SIZE,
+            (int)Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8 / (BLOCK_SIZE * 4)),
+            Runtime.getRuntime().availableProcessors());
+
+    // Off-heap segments for Sequences which keep their full blocks outside the
+    // heap. The idle segments are bounded to a quarter of the maximum heap, and
+    // all of them (by default) to three quarters of it, below the JVM's default 
+    // -XX:MaxDirectMemorySize (the maximum heap).
+    private static SegmentPool m_sharedSegments = new SegmentPool(BLOCK_SIZE,
+            (int)Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 4 / (BLOCK_SIZE * 4)),
+            (int)Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 4 * 3 / (BLOCK_SIZE * 4)));
+    private static boolean m_defaultOffHeap = false;
+
     private BlockPool m_pool = null;
+    private SegmentPool m_segmentPool = null;
+    private boolean m_offHeap = false;
 
+    // With off-heap storage only the tail block stays in m_blocks; every full
+    // block is moved to the matching entry of m_segments and its m_blocks 
+    // entry is set to null (unless the off-heap limit has been reached, in 
+    // which case the full block stays in m_blocks).
     private ArrayList<int[]> m_blocks = null;
+    private ArrayList<IntBuffer> m_segments = null;
     private int[] m_block = null;
     private int m_length = 0;
     private int m_remainder = 0;
+    private TailSink m_tail = null;
 
     private long m_startTime = 0; // Microseconds since the epoch
     private double m_sampleRate = 0.0;
@@ -59,10 +90,10 @@ extends MemberDigest
         sequence.m_startTime  = m_startTime;
         sequence.m_sampleRate = m_sampleRate;
         sequence.m_interval   = m_interval;
-        for (int[] block: m_blocks) {
-            sequence.extend(block, 0, block.length); }
-        sequence.m_length     = m_length;
-        sequence.m_remainder  = m_remainder;
+        int[] scratch = m_offHeap ? new int[BLOCK_SIZE] : null;
+        for (int i = 0; i < m_blocks.size(); i++) {
+            sequence.extend(_blockArray(i, scratch), 0, _validSamples(i));
+        }
         return sequence;
     }
 
@@ -73,18 +104,104 @@ extends MemberDigest
     {
         super();
         TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
-        m_pool = new BlockPool(BLOCK_SIZE);
+        m_pool = m_sharedPool;
+        m_segmentPool = m_sharedSegments;
+        m_offHeap = m_defaultOffHeap;
         _reset();
     }
 
+    /**
+     * Selects whether Sequences created from now on keep their full blocks
+     * in off-heap memory. The API is the same either way, except that 
+     * getBlock() returns a copy of a block held off-heap rather than a 
+     * reference, so writing to it does not change the Sequence.
+     *
+     * @param offHeap   True to store samples off-heap.
+     */
+    public static void setOffHeap(boolean offHeap)
+    {
+        m_defaultOffHeap = offHeap;
+    }
+
+    /**
+     * Limits the off-heap memory taken by the samples of all Sequences. Once
+     * the limit is reached, further full blocks stay on the heap. The limit 
+     * must be below -XX:MaxDirectMemorySize, which otherwise fails the 
+     * allocation with an OutOfMemoryError.
+     *
+     * @param bytes     The maximum number of bytes held off-heap.
+     */
+    public static void setOffHeapLimit(long bytes)
+    {
+        m_sharedSegments.setMaxLiveSegments((int)Math.min(Integer.MAX_VALUE, bytes / (BLOCK_SIZE * 4)));
+    }
+
+    /**
+     * Reports whether Sequences created from now on store samples off-heap.
+     *
+     * @return True if new Sequences store samples off-heap.
+     */
+    public static boolean getOffHeap()
+    {
+        return m_defaultOffHeap;
+    }
+
+    /**
+     * Returns the SegmentPool shared by all off-heap Sequences.
+     *
+     * @return The shared SegmentPool.
+     */
+    public static SegmentPool getSharedSegmentPool()
+    {
+        return m_sharedSegments;
+    }
+
+    /**
+     * Returns the BlockPool shared by all Sequences.
+     *
+     * @return The shared BlockPool.
+     */
+    public static BlockPool getSharedBlockPool()
+    {
+        return m_sharedPool;
+    }
+
     /**
      * Flushes all entries from the time series, but does not remove metadata.
+     * The first block is only taken from the pool once data is added.
      */
     private void _reset() 
     {
         m_length = 0;
         m_blocks = new ArrayList<int[]>(8);
-        this._addBlock();
+        m_segments = m_offHeap ? new ArrayList<IntBuffer>(8) : null;
+        m_block = null;
+        m_remainder = 0;
+    }
+
+    /**
+     * Returns all of the blocks to the BlockPool and flushes all entries 
+     * from the time series.
+     */
+    private void _releaseBlocks()
+    {
+        try {
+            for (int[] block: m_blocks) {
+                if (block != null) {
+                    m_pool.addBlock(block);
+                }
+            }
+            if (m_segments != null) {
+                for (IntBuffer segment: m_segments) {
+                    if (segment != null) {
+                        m_segmentPool.addSegment(segment);
+                    }
+                }
+            }
+        } catch (BlockSizeMismatchException e) {
+            throw new RuntimeException("Impossible situation! BlockSizeMismatchException on BlockPool.addBlock()", e); // This should never happen
+        }
+        _reset();
     }
 
     /**
@@ -92,11 +209,68 @@ extends MemberDigest
      */
     private void _addBlock() 
     {
-        m_block = m_pool.getNewBlock();
+        if (m_offHeap && (m_block != null)) {
+            // Move the full tail block off-heap and reuse its array as the new tail
+            int last = m_blocks.size() - 1;
+            IntBuffer segment = m_segmentPool.getNewSegment();
+            if (segment != null) {
+                segment.put(m_block);
+                m_blocks.set(last, null);
+                m_segments.set(last, segment);
+            } else {
+                // At the off-heap limit: the full block stays on the heap
+                m_block = m_pool.getNewBlock();
+            }
+        } else {
+            m_block = m_pool.getNewBlock();
+        }
         m_blocks.add(m_block);
+        if (m_offHeap) {
+            m_segments.add(null);
+        }
         m_remainder = BLOCK_SIZE;
     }
 
+    /**
+     * Returns the number of valid samples in the block at this index.
+     */
+    private int _validSamples(int index)
+    {
+        return (index < (m_blocks.size() - 1)) ? BLOCK_SIZE : (BLOCK_SIZE - m_remainder);
+    }
+
+    /**
+     * Returns the block at this index, copying it into scratch first if it
+     * is held off-heap.
+     */
+    private int[] _blockArray(int index, int[] scratch)
+    {
+        int[] block = m_blocks.get(index);
+        if (block == null) {
+            IntBuffer segment = m_segments.get(index).duplicate();
+            segment.clear();
+            segment.get(scratch, 0, BLOCK_SIZE);
+            block = scratch;
+        }
+        return block;
+    }
+
+    /**
+     * Copies samples out of the block at this index.
+     */
+    private void _copyBlock(int index, int srcPos, int[] dest, int destPos, int length)
+    {
+        int[] block = m_blocks.get(index);
+        if (block == null) {
+            IntBuffer segment = m_segments.get(index).duplicate();
+            segment.clear();
+            segment.position(srcPos);
+            segment.get(dest, destPos, length);
+        } else {
+            System.arraycopy(block, srcPos, dest, destPos, length);
+        }
+    }
+
     /**
      * Sets the timestamp of the first data point.
      * 
@@ -107,9 +281,10 @@ extends MemberDigest
     {
         addToDigest(m_startTime);
         addToDigest(m_sampleRate);
-        int remaining = m_blocks.size();
-        for (int[] block: m_blocks) {
-            int numSamples = (--remaining > 0) ? BLOCK_SIZE : (BLOCK_SIZE - m_remainder);
+        int[] scratch = m_offHeap ? new int[BLOCK_SIZE] : null;
+        for (int b = 0; b < m_blocks.size(); b++) {
+            int[] block = _blockArray(b, scratch);
+            int numSamples = _validSamples(b);
             for (int i = 0; i < numSamples; i++) {
                 addToDigest(block[i]);
             }
@@ -148,12 +323,22 @@ extends MemberDigest
      */
     public void clear()
     {
-        _reset();
+        _releaseBlocks();
         m_startTime  = 0;
         m_sampleRate = 0.0;
         m_interval   = 0;
     }
 
+    /**
+     * Returns this Sequence's blocks to the shared BlockPool. The Sequence is
+     * left empty, and must not be used once its data has been released if 
+     * anything still holds a reference to one of its blocks.
+     */
+    public void release()
+    {
+        _releaseBlocks();
+    }
+
     /**
      * Extends the time-series by adding the specified data to the internal buffer.
      *
@@ -171,6 +356,9 @@ extends MemberDigest
            NullPointerException
     {
         int copySize = 0;
+        if ((m_block == null) && (length > 0)) {
+            this._addBlock();
+        }
         while (length > 0) {
             copySize = (m_remainder > length) ? length : m_remainder;
 //System.out.format("=== Sequence.extend(): length=%d remainder=%d copySize=%d\n", length, m_remainder, copySize);
@@ -186,6 +374,112 @@ extends MemberDigest
         }
     }
 
+    /**
+     * Extends the time-series by decoding Steim frames straight into its tail
+     * block, adding blocks from the BlockPool as they fill up, so the samples
+     * are never held in an intermediate array. If the decoder fails or reports
+     * an error the time-series is left as it was before the call.
+     *
+     * @param   decoder     The Steim1 or Steim2 decoder to use.
+     * @param   frames      The buffer holding the compressed frames.
+     * @param   offset      Absolute offset of the first frame within frames.
+     * @param   length      Number of bytes of frames.
+     * @param   numSamples  Number of samples to decode.
+     * @param   swapBytes   True if the frames are little-endian.
+     *
+     * @return  The decoder's result, which is only valid until its next decode.
+     * @throws  SteimException - if the frames could not be decoded.
+     */
+    public SteimDecodeResult extend(SteimDecoder decoder, ByteBuffer frames, int offset, int length, 
+                                    int numSamples, boolean swapBytes)
+    throws SteimException
+    {
+        if (m_tail == null) {
+            m_tail = new TailSink();
+        }
+        if (m_block == null) {
+            this._addBlock();
+        }
+        int blockCount = m_blocks.size();
+        int oldLength = m_length;
+        int oldRemainder = m_remainder;
+        SteimDecodeResult result = null;
+        try {
+            result = decoder.decode(frames, offset, length, numSamples, swapBytes, 0, m_tail);
+        } finally {
+            if ((result == null) || result.hadError()) {
+                _truncate(blockCount, oldLength, oldRemainder);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops everything written after the time-series had the given shape,
+     * returning the blocks which were added since to the BlockPool.
+     */
+    private void _truncate(int blockCount, int length, int remainder)
+    {
+        int[] tail = m_block;
+        try {
+            while (m_blocks.size() > blockCount) {
+                int last = m_blocks.size() - 1;
+                int[] block = m_blocks.remove(last);
+                IntBuffer segment = m_offHeap ? m_segments.remove(last) : null;
+                if (segment != null) {
+                    m_segmentPool.addSegment(segment);
+                }
+                if ((block != null) && (block != tail)) {
+                    m_pool.addBlock(block);
+                }
+            }
+            m_block = m_blocks.get(blockCount - 1);
+            if (m_block == null) {
+                // The old tail was moved off-heap while decoding, bring it back
+                IntBuffer segment = m_segments.set(blockCount - 1, null);
+                segment.clear();
+                segment.get(tail);
+                m_segmentPool.addSegment(segment);
+                m_blocks.set(blockCount - 1, tail);
+                m_block = tail;
+            } else if (m_block != tail) {
+                m_pool.addBlock(tail);
+            }
+        } catch (BlockSizeMismatchException e) {
+            throw new RuntimeException("Impossible situation! BlockSizeMismatchException on BlockPool.addBlock()", e); // This should never happen
+        }
+        m_length = length;
+        m_remainder = remainder;
+    }
+
+    /**
+     * Lets a SteimDecoder write into the tail block, following the same 
+     * bookkeeping as extend(int[], int, int).
+     */
+    private class TailSink
+    implements SteimSampleSink
+    {
+        public int[] getSampleArray()
+        {
+            return m_block;
+        }
+
+        public int getSampleOffset()
+        {
+            return BLOCK_SIZE - m_remainder;
+        }
+
+        public void samplesWritten(int count)
+        {
+            m_length += count;
+            if (m_remainder <= count) {
+                _addBlock();
+            } else {
+                m_remainder -= count;
+            }
+        }
+    }
+
     /**
      * Trims the sequence such that its data is within the specified time range.
      *
@@ -215,6 +509,7 @@ extends MemberDigest
                 int[] series = this.getSeries(startTime, endTime);
                 newSequence.extend(series, 0, series.length);
                 this.swapData(newSequence);
+                newSequence.release();
             } catch (SequenceRangeException e) {
                 throw new RuntimeException("Sequence Range Error in trim(). This should never happen!");
             }
@@ -251,6 +546,8 @@ extends MemberDigest
      */
     public void swapData(Sequence seq) {
         ArrayList<int[]> tempBlocks = m_blocks;
+        ArrayList<IntBuffer> tempSegments = m_segments;
+        boolean tempOffHeap    = m_offHeap;
         int[]   tempBlock      = m_block;
         int     tempLength     = m_length;
         int     tempRemainder  = m_remainder;
@@ -259,6 +556,8 @@ extends MemberDigest
         long    tempInterval   = m_interval;
 
         m_blocks     = seq.m_blocks;
+        m_segments   = seq.m_segments;
+        m_offHeap    = seq.m_offHeap;
         m_block      = seq.m_block;
         m_length     = seq.m_length;
         m_remainder  = seq.m_remainder;
@@ -267,6 +566,8 @@ extends MemberDigest
         m_interval   = seq.m_interval;
 
         seq.m_blocks     = tempBlocks;
+        seq.m_segments   = tempSegments;
+        seq.m_offHeap    = tempOffHeap;
         seq.m_block      = tempBlock;
         seq.m_length     = tempLength;
         seq.m_remainder  = tempRemainder;
@@ -346,7 +647,7 @@ extends MemberDigest
                 DataSet.timestampToString(this.getStartTime()), DataSet.timestampToString(this.getEndTime()), 
                 DataSet.timestampToString(seq.getStartTime()), DataSet.timestampToString(seq.getEndTime()) 
             );
-            this._reset();
+            this._releaseBlocks();
             return;
         }
 
@@ -357,13 +658,15 @@ extends MemberDigest
             return ;
         }
 
-        BlockPool pool = seq.m_pool;
         int[] block = null;
+        IntBuffer segment = null;
+        int[] scratch = m_offHeap ? new int[BLOCK_SIZE] : null;
 
         // We are going to flush the old data away through this process,
         // so let's do it now, and keep the old data around. This should
         // prevent others from messing with it while we are working.
         ArrayList<int[]> blocks = m_blocks;
+        ArrayList<IntBuffer> segments = m_segments;
         long startTime = m_startTime;
         long interval = m_interval;
         int remainder = m_remainder;
@@ -383,6 +686,8 @@ extends MemberDigest
         while (skipCount >= BLOCK_SIZE) {
             skipCount -= BLOCK_SIZE;
             block = blocks.remove(0);
+            segment = (segments != null) ? segments.remove(0) : null;
+            _recycle(block, segment);
         }
 
         int blockCount  = blocks.size();
@@ -391,6 +696,7 @@ extends MemberDigest
         int copyLength  = 0;
         for (int i = 0; i < blockCount; i++) {
             block = blocks.remove(0);
+            segment = (segments != null) ? segments.remove(0) : null;
             // If we end up on the last block, we need to update the block length to
             // compensate for the skipped data points, and force the copyLength
             // computation below to be updated with this information.
@@ -408,15 +714,35 @@ extends MemberDigest
             }
             // Append the block's contents to the target Sequence
             if (copyLength > 0) {
-                seq.extend(block, blockOffset, copyLength);
+                if (block == null) {
+                    IntBuffer source = segment.duplicate();
+                    source.clear();
+                    source.get(scratch, 0, BLOCK_SIZE);
+                    seq.extend(scratch, blockOffset, copyLength);
+                } else {
+                    seq.extend(block, blockOffset, copyLength);
+                }
             }
-            // Add the block to the target Sequence's BlockPool after its contents have been copied.
-            try {
-                pool.addBlock(block);
-            } catch (BlockSizeMismatchException e) {
-                e.printStackTrace();
-                throw new RuntimeException("Impossible situation! BlockSizeMismatchException on BlockPool.addBlock()", e); // This should never happen
+            // Return the block to the pool after its contents have been copied.
+            _recycle(block, segment);
+        }
+    }
+
+    /**
+     * Returns a block removed from a Sequence to the BlockPool, or its 
+     * segment to the SegmentPool if it was held off-heap.
+     */
+    private void _recycle(int[] block, IntBuffer segment)
+    {
+        try {
+            if (segment != null) {
+                m_segmentPool.addSegment(segment);
+            } else {
+                m_pool.addBlock(block);
             }
+        } catch (BlockSizeMismatchException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Impossible situation! BlockSizeMismatchException on BlockPool.addBlock()", e); // This should never happen
         }
     }
 
@@ -472,17 +798,22 @@ extends MemberDigest
     }
 
     /**
-     * Returns a reference the block at the specified index.
+     * Returns a reference the block at the specified index. If the block is
+     * held off-heap a copy of it is returned instead.
      *
      * @param index     The index of the desired block
      *
-     * @return refernce to the int array at the specified index.
+     * @return refernce to the int array at the specified index (a copy for an off-heap block).
      * @throws ArrayIndexOutOfBoundsException - index out of range (index < 0 || index >= getLength()).
      */
     public int[] getBlock(int index) 
     throws ArrayIndexOutOfBoundsException 
     {
-        return m_blocks.get(index);
+        int[] block = m_blocks.get(index);
+        if (block == null) {
+            block = _blockArray(index, new int[BLOCK_SIZE]);
+        }
+        return block;
     }
 
     /**
@@ -545,7 +876,6 @@ extends MemberDigest
         }
 
         int[] series = new int[count];
-        int[] block = null;
         int numBlocks = m_blocks.size();
         int finalBlock = numBlocks - 1;
         int seriesLength = 0;
@@ -555,7 +885,6 @@ extends MemberDigest
         int jump = index % blockLength; // start at this index within the first block copied
 
         for (int i=burn; (i < numBlocks) && (count > 0); i++) {
-            block = m_blocks.get(i);
             blockLength = BLOCK_SIZE - jump;
             if (i == finalBlock) {
                 blockLength = blockLength - m_remainder;
@@ -563,7 +892,7 @@ extends MemberDigest
             if (blockLength > count) {
                 blockLength = count;
             }
-            System.arraycopy(block, jump, series, seriesLength, blockLength);
+            _copyBlock(i, jump, series, seriesLength, blockLength);
             seriesLength += blockLength;
             count -= blockLength;
             jump = 0;
@@ -572,6 +901,45 @@ extends MemberDigest
         return series;
     }
 
+    /**
+     * Copies a subset of the data points in this sequence straight from its 
+     * blocks into an existing array of doubles.
+     *
+     * @param index         The index of the first data point to copy.
+     * @param count         The number of data points to copy.
+     * @param dest          The array into which the data points are copied.
+     * @param destOffset    The index within dest of the first data point.
+     *
+     * @throws IndexOutOfBoundsException - if the range is outside this sequence or dest.
+     */
+    public void copySeries(int index, int count, double[] dest, int destOffset)
+    throws IndexOutOfBoundsException
+    {
+        if ((index < 0) || (count < 0) || ((index + count) > m_length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        int b = index / BLOCK_SIZE;
+        int jump = index % BLOCK_SIZE;
+        while (count > 0) {
+            int n = Math.min(BLOCK_SIZE - jump, count);
+            int[] block = m_blocks.get(b);
+            if (block != null) {
+                for (int i = 0; i < n; i++) {
+                    dest[destOffset + i] = block[jump + i];
+                }
+            } else {
+                IntBuffer segment = m_segments.get(b);
+                for (int i = 0; i < n; i++) {
+                    dest[destOffset + i] = segment.get(jump + i);
+                }
+            }
+            b++;
+            destOffset += n;
+            count -= n;
+            jump = 0;
+        }
+    }
+
     /**
      * Returns a new Array containing all of the data points in this sequence.
      *
@@ -858,10 +1226,9 @@ extends MemberDigest
                     collapsed = (Sequence)sequence.clone();
                 }
                 //append newSeq to collapsed
-                int remaining = source.m_blocks.size();
-                for (int[] block: source.m_blocks) {
-                    int numSamples = (--remaining > 0) ? BLOCK_SIZE : (BLOCK_SIZE - source.m_remainder);
-                    collapsed.extend(block, 0, numSamples);
+                int[] scratch = source.m_offHeap ? new int[BLOCK_SIZE] : null;
+                for (int i = 0; i < source.m_blocks.size(); i++) {
+                    collapsed.extend(source._blockArray(i, scratch), 0, source._validSamples(i));
                 }
             }
         }
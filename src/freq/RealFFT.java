@@ -0,0 +1,225 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package freq;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RealFFT - Forward FFT of real-valued data, working in place on a primitive
+ *           double[] buffer instead of Cmplx object arrays.
+ *
+ * The nfft real points are transformed as nfft/2 complex points, followed by
+ * the usual split into the nfft/2 + 1 positive frequencies (DC ... Nyquist).
+ * The sign convention and scaling are the same as Cmplx.fft2():
+ *   X[k] = sum_n x[n] exp(+2 PI i k n / nfft)
+ *
+ * The twiddle factors and bit-reversal permutation depend only on nfft, so
+ * they are computed once and shared by every caller through getInstance(nfft).
+ * An instance holds no per-transform state and may be used by any number of
+ * threads at once.
+ */
+public class RealFFT
+{
+    private static final ConcurrentHashMap<Integer, RealFFT> instances = new ConcurrentHashMap<Integer, RealFFT>();
+
+    private final int nfft;     // Number of real points
+    private final int n;        // Number of complex points = nfft/2
+
+    private final double[] cos; // cos(2 PI k / nfft), k = 0, ..., nfft/2 - 1
+    private final double[] sin; // sin(2 PI k / nfft), k = 0, ..., nfft/2 - 1
+    private final int[] swaps;  // Pairs of complex indices exchanged by the bit-reversal
+
+    /**
+     * Return the (shared) transform for this number of points.
+     *
+     * @param nfft  Number of real points, must be a power of 2
+     */
+    public static RealFFT getInstance(int nfft)
+    {
+        RealFFT fft = instances.get(nfft);
+        if (fft == null) {
+            fft = new RealFFT(nfft);
+            RealFFT previous = instances.putIfAbsent(nfft, fft);
+            if (previous != null) {
+                fft = previous;
+            }
+        }
+        return fft;
+    }
+
+    private RealFFT(int nfft)
+    {
+        if (nfft < 1 || (nfft & (nfft - 1)) != 0) {
+            throw new IllegalArgumentException("RealFFT: nfft=" + nfft + " is not a power of 2");
+        }
+        this.nfft = nfft;
+        this.n    = nfft / 2;
+
+        int ntwiddle = Math.max(n, 1);
+        cos = new double[ntwiddle];
+        sin = new double[ntwiddle];
+        for (int k = 0; k < ntwiddle; k++) {
+            double theta = 2.0 * Math.PI * (double)k / (double)nfft;
+            cos[k] = Math.cos(theta);
+            sin[k] = Math.sin(theta);
+        }
+
+     // Same bit-reversal walk as Cmplx.four1(), but only the swaps are kept
+        int[] pairs = new int[n];
+        int npairs = 0;
+        int j = 0;
+        for (int i = 0; i < n; i++) {
+            if (j > i) {
+                pairs[npairs++] = i;
+                pairs[npairs++] = j;
+            }
+            int m = n >> 1;
+            while (m >= 1 && j >= m) {
+                j -= m;
+                m >>= 1;
+            }
+            j += m;
+        }
+        swaps = new int[npairs];
+        System.arraycopy(pairs, 0, swaps, 0, npairs);
+    }
+
+    /**
+     * @return The number of real points transformed
+     */
+    public int getSize()
+    {
+        return nfft;
+    }
+
+    /**
+     * @return The length of the buffer needed by forward() = nfft + 2
+     */
+    public int getBufferLength()
+    {
+        return nfft + 2;
+    }
+
+    /**
+     * Forward transform in place.
+     *
+     * @param data  On input the nfft real points in data[0 ... nfft-1] (zero padded by the caller).
+     *              On output the nfft/2 + 1 positive frequencies (f = 0, df, ..., fNyq),
+     *              interleaved as data[2k] = real, data[2k+1] = imag.
+     *              Must hold at least nfft + 2 values.
+     */
+    public void forward(double[] data)
+    {
+        if (data.length < nfft + 2) {
+            throw new IllegalArgumentException("RealFFT: buffer length=" + data.length + " < nfft + 2");
+        }
+        if (nfft == 1) {     // Just DC
+            data[1] = 0.;
+            return;
+        }
+
+        transform(data);
+
+     // Split the n point complex transform Z of the even (real) and odd (imag) points
+     //   into the transform X of the nfft real points:
+     //     E[k] = (Z[k] + conj(Z[n-k])) / 2
+     //     O[k] = (Z[k] - conj(Z[n-k])) / 2i
+     //     X[k] = E[k] + exp(+2 PI i k / nfft) O[k]   and X[n-k] from the conjugate symmetry of E and O
+        double zr = data[0];
+        double zi = data[1];
+        data[0]      = zr + zi;
+        data[1]      = 0.;
+        data[2*n]    = zr - zi;
+        data[2*n+1]  = 0.;
+
+        for (int k = 1; k <= n/2; k++) {
+            int a = 2 * k;
+            int b = 2 * (n - k);
+            double ar = data[a];
+            double ai = data[a+1];
+            double br = data[b];
+            double bi = data[b+1];
+
+            double er = 0.5 * (ar + br);
+            double ei = 0.5 * (ai - bi);
+            double or = 0.5 * (ai + bi);
+            double oi = -0.5 * (ar - br);
+
+            double c = cos[k];
+            double s = sin[k];
+            double tr = c * or - s * oi;
+            double ti = c * oi + s * or;
+
+            data[a]   =  er + tr;
+            data[a+1] =  ei + ti;
+            data[b]   =  er - c * or + s * oi;
+            data[b+1] = -ei + c * oi + s * or;
+        }
+    }
+
+    /**
+     * Convenience version of forward() which leaves data alone.
+     *
+     * @param data  Real data (zero padded or truncated to nfft points)
+     * @return The nfft/2 + 1 positive frequencies, interleaved (real, imag)
+     */
+    public double[] forwardCopy(double[] data)
+    {
+        double[] buffer = new double[nfft + 2];
+        System.arraycopy(data, 0, buffer, 0, Math.min(data.length, nfft));
+        forward(buffer);
+        return buffer;
+    }
+
+    /**
+     * In place n point complex FFT of interleaved data[0 ... 2n-1] (radix 2, decimation in time).
+     */
+    private void transform(double[] data)
+    {
+        for (int p = 0; p < swaps.length; p += 2) {
+            int i = 2 * swaps[p];
+            int j = 2 * swaps[p+1];
+            double temp = data[i];
+            data[i] = data[j];
+            data[j] = temp;
+            temp = data[i+1];
+            data[i+1] = data[j+1];
+            data[j+1] = temp;
+        }
+
+        for (int half = 1; half < n; half <<= 1) {
+            int size   = half << 1;
+            int stride = nfft / size;     // exp(+2 PI i j / size) = cos/sin[j * stride]
+            for (int j = 0; j < half; j++) {
+                double wr = cos[j * stride];
+                double wi = sin[j * stride];
+                for (int i = j; i < n; i += size) {
+                    int a = 2 * i;
+                    int b = 2 * (i + half);
+                    double tr = wr * data[b]   - wi * data[b+1];
+                    double ti = wr * data[b+1] + wi * data[b];
+                    data[b]   = data[a]   - tr;
+                    data[b+1] = data[a+1] - ti;
+                    data[a]   += tr;
+                    data[a+1] += ti;
+                }
+            }
+        }
+    }
+}
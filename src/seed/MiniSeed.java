@@ -1373,20 +1373,39 @@ public class MiniSeed  implements MiniSeedOutputHandler {
   }
   public int [] decomp() throws SteimException {
     int rev=0;
-    byte [] frames = new byte[getBlockSize()-dataOffset];
-    System.arraycopy(buf,dataOffset, frames,0,getBlockSize()-dataOffset); 
     int [] samples=null;
-    if(getEncoding() == 10) samples = Steim1.decode(frames, getNsamp(), swap, rev);
-    if(getEncoding() == 11) samples = Steim2.decode(frames, getNsamp(), swap, rev);
+    if(getEncoding() == 10) {
+      byte [] frames = new byte[getBlockSize()-dataOffset];
+      System.arraycopy(buf,dataOffset, frames,0,getBlockSize()-dataOffset); 
+      samples = Steim1.decode(frames, getNsamp(), swap, rev);
+    }
+    if(getEncoding() == 11) {
+      samples = new int[getNsamp()];
+      if(decomp(samples, 0) < 0) return null;
+    }
+    return samples;
+  }
+  /** Decompress a Steim2 record straight from this record's buffer into a caller supplied array
+   * using this thread's {@link Steim2Decoder}, so no frames copy or per frame arrays are made.
+   *@param samples The array to decode into, must have room for getNsamp() samples after offset
+   *@param offset Where in samples the first sample goes
+   *@return The number of samples decoded, or -1 if the record is not Steim2 or had a reverse 
+   *  integration or sample count error
+   *@throws SteimException if the frames cannot be decoded
+   */
+  public int decomp(int [] samples, int offset) throws SteimException {
+    if(getEncoding() != 11) return -1;
+    SteimDecodeResult result = Steim2.getDecoder().decode(buf, dataOffset, getBlockSize()-dataOffset, 
+        getNsamp(), swap, 0, samples, offset);
 
     // Would adding this block "as is" cause a reverse constant error (or steim error)?  If so, restore block
     // to state before adding this one, write it out, and make this block the beginning of next output block
-    if(Steim2.hadReverseError() || Steim2.hadSampleCountError()) {
-      if(Steim2.hadReverseError()) Util.prta("Decomp  "+Steim2.getReverseError()+" "+toString());
-      if(Steim2.hadSampleCountError()) Util.prta("decomp "+Steim2.getSampleCountError()+" "+toString());
-      return null;
+    if(result.hadError()) {
+      if(result.hadReverseError()) Util.prta("Decomp  "+result.getReverseError()+" "+toString());
+      if(result.hadSampleCountError()) Util.prta("decomp "+result.getSampleCountError()+" "+toString());
+      return -1;
     }
-    return samples;
+    return result.getSampleCount();
   }
   public void fixReverseIntegration() {
    try {
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+
+package seed;
+
+import java.nio.ByteBuffer;
+
+/**
+ *  Allocation free Steim1 decoder, see {@link SteimDecoder}. Decodes the same
+ *  samples as {@link Steim1#decode(byte[],int,boolean,int)}, except that a 
+ *  short block is reported as a sample count error instead of being padded 
+ *  with zeros.
+ */
+public class Steim1Decoder extends SteimDecoder {
+
+  protected void decodeFrames(ByteBuffer b, int offset, int numFrames, boolean reverse) throws SteimException {
+    int i;
+    for (i=0; i< numFrames && !isFull(); i++ ) {
+      int frame = offset + i*64;
+      int nibbles = word(b, frame, reverse);
+      startFrame();
+      for (int w=0; w<16; w++) {
+        int pos = frame + w*4;
+        switch ((nibbles >> (30 - w*2)) & 0x03) {
+          case 0:
+            // header info: in frame 0 word 1 is X(0), word 2 is X(n). As in Steim1.extractSamples(),
+            // any further header word of frame 0 is taken as a difference
+            if (i == 0 && w == 1) setX0(word(b, pos, reverse));
+            else if (i == 0 && w > 2) diff(word(b, pos, reverse));
+            break;
+          case 1:   // 4 one byte differences
+            diff(b.get(pos));
+            diff(b.get(pos+1));
+            diff(b.get(pos+2));
+            diff(b.get(pos+3));
+            break;
+          case 2:   // 2 two byte differences
+            diff(half(b, pos, reverse));
+            diff(half(b, pos+2, reverse));
+            break;
+          case 3:   // 1 four byte difference
+            diff(word(b, pos, reverse));
+            break;
+          default:
+        }
+      }
+      if(i == 0) endFirstFrame();   // only a difference of frame 0 can seed X(-1)
+      endFrame(i);
+    }
+    result.setFrameCount(i);
+    if(getCurrent() != getNumSamples()) {
+      result.setSampleCountError("Steim1 sample count error got "+getCurrent()+" expected "+getNumSamples());
+    }
+  }
+}
@@ -46,42 +46,46 @@ import java.util.Calendar;
 public class Steim2 {
 
 
-  static int xminus1;
   static boolean dbg;
   static boolean strictRIC=false;
   static boolean traceBackErrors;
-  static String reverseError;
-  static String sampleCountError;
-  static int [] frameNsamp = new int[63];
-  static int [] frameReverse = new int[63];
-  static int [] frameForward = new int[63];
   static StringBuffer sb;
+  /** Each thread decodes with its own decoder so the results below are those of this thread's last decode */
+  private static final ThreadLocal<Steim2Decoder> decoders = new ThreadLocal<Steim2Decoder>() {
+    @Override
+    protected Steim2Decoder initialValue() {
+      return new Steim2Decoder();
+    }
+  };
+  /** @return the decoder (and result) used by this thread's static decodes */
+  public static Steim2Decoder getDecoder() {return decoders.get();}
+  private static SteimDecodeResult lastResult() {return decoders.get().getResult();}
   public static void setStrictRIC(boolean t) {strictRIC=t;}
-  public static String getDebugString() {return sb.toString();}
+  public static String getDebugString() {return (sb == null? "": sb.toString());}
   static public void setTracebackErrors(boolean t) {traceBackErrors=t;}
   static public void setDebug(boolean t) {dbg=t;}
   /** return if the last decode had a reverse integration error, this error does not cause a SteimException
    *@return true if last decode had a reverse integeration error*/
-  static public boolean hadReverseError() {return (reverseError != null);}
+  static public boolean hadReverseError() {return lastResult().hadReverseError();}
   /** get some text documenting the last reverse integration error
    *@return The text describing the reverse integration error*/
-  static public String getReverseError() {return (reverseError == null? "": reverseError);}
+  static public String getReverseError() {return lastResult().getReverseError();}
   /** return if the last decode had a reverse integration error, this error does not cause a SteimException
    *@return true if last decode had a reverse integeration error*/
-  static public boolean hadSampleCountError() {return (sampleCountError != null);}
+  static public boolean hadSampleCountError() {return lastResult().hadSampleCountError();}
   /** get some text documenting the last sample count error
    *@return The text describing the reverse integration error*/
-  static public String getSampleCountError() {return (sampleCountError == null? "": sampleCountError);}
-  static public int getXminus1() {return xminus1;}
+  static public String getSampleCountError() {return lastResult().getSampleCountError();}
+  static public int getXminus1() {return lastResult().getXminus1();}
   /** return an array with the number of samples in each frame of the last decode
    *@return An array with the number of samples in each of the last decode*/
-  static public int [] getFrameNsamp() {return frameNsamp;}
+  static public int [] getFrameNsamp() {return lastResult().getFrameNsamp();}
   /** return an array with the value of the reverse integration constant for each frame in last decode
    *@return An array with the reverse integration constants from last decode */
-  static public int [] getFrameReverse() {return frameReverse;}
+  static public int [] getFrameReverse() {return lastResult().getFrameReverse();}
   /** return an array with the value of the reverse integration constant for each frame in last decode
    *@return An array with the reverse integration constants from last decode */
-  static public int [] getFrameForward() {return frameForward;}
+  static public int [] getFrameForward() {return lastResult().getFrameForward();}
 	/**
 	 *  Decode the indicated number of samples from the provided byte array and
 	 *  return an integer array of the decompressed values.  Being differencing
@@ -95,6 +99,7 @@ public class Steim2 {
 	 *  byte array <b>b</b>.
 	 *  @param bias the first difference value will be computed from this value.
 	 *  If set to 0, the method will attempt to use the X(0) constant instead.
+	 *  The work is done by this thread's {@link Steim2Decoder}, see {@link #getDecoder()}.
 	 *  @return int array of length <b>numSamples</b>.
 	 *  @throws SteimException - encoded data length is not multiple of 64
 	 *  bytes.
@@ -102,77 +107,8 @@ public class Steim2 {
 		if (b.length % 64 != 0) {
 		  throw new SteimException("encoded data length is not multiple of 64 bytes (" + b.length + ")"); 
 		}
-    dbg=false;
-    for(int i=0; i<63; i++) {frameReverse[i]=2147000000; frameNsamp[i] = 0;frameForward[i]=-2147000000;}
-    reverseError=null;
-    sampleCountError=null;
 		int[] samples = new int[numSamples];
-    if(numSamples == 0) return samples;
-		int[] tempSamples;
-		int numFrames = b.length / 64;
-    if(numFrames < 1 || numFrames > 64) throw new SteimException("# frames unknown = "+numFrames);
-		int current = 0;
-		int start=0, end=0;
-		int firstData=0;
-		int lastValue = 0;
-    
-    if(dbg ){
-      if(sb == null) sb=new StringBuffer(10000);
-      else sb.delete(0,  sb.length()-1);
-    }
-    int lastCurrent=0;
-		//System.err.println("DEBUG: number of samples: " + numSamples + ", number of frames: " + numFrames + ", byte array size: " + b.length);
-		for (int i=0; i< numFrames; i++ ) {
-			//System.err.println("DEBUG: start of frame " + i);
-			tempSamples = extractSamples(b, i*64, swapBytes);   // returns only differences except for frame 0
-			firstData = 0; // d(0) is byte 0 by default
-			if (i==0) {   // special case for first frame
-				lastValue = bias; // assign our X(-1)
-        xminus1=lastValue;
-				// x0 and xn are in 1 and 2 spots
-				start = tempSamples[1];  // X(0) is byte 1 for frame 0
-				end = tempSamples[2];    // X(n) is byte 2 for frame 0
-				firstData = 3; // d(0) is byte 3 for frame 0
-				//System.err.println("DEBUG: frame " + i + ", bias = " + bias + ", x(0) = " + start + ", x(n) = " + end);
-				// if bias was zero, then we want the first sample to be X(0) constant
-        if(tempSamples.length < 4)
-          Util.prt("   **** Bad tempsamples (<3) in first frame!="+tempSamples.length);
-        else if (bias == 0) {
-          lastValue = start - tempSamples[3];  // X(-1) = X(0) - d(0)
-          xminus1 = lastValue;
-        }
-			}
-			//System.err.print("DEBUG: ");
-			for (int j = firstData; j < tempSamples.length && current < numSamples; j++) {
-				samples[current] = lastValue + tempSamples[j];  // X(n) = X(n-1) + d(n)
-				lastValue = samples[current];
-				//System.err.print("d(" + (j-firstData) + ")" + tempSamples[j] + ", x(" + current + ")" + samples[current] + ";");
-				current++;
-			}
-			//System.err.println("DEBUG: end of frame " + i);
-      if(i == 0) frameNsamp[i] = current;
-      else frameNsamp[i] = current - lastCurrent;   // number of samples in this frame
-      if(current > 0) frameReverse[i] = samples[current-1];
-      frameForward[i] = samples[lastCurrent];
-      lastCurrent = current;
-      if(current >= numSamples) break;                // no need to process the empty frames
-		}  // end for each frame...
-    if(current <= 0) {
-      //System.out.println("Steim2 illegal # current");
-      throw new SteimException("Steim2 found no samples in block");
-    }
-    if(samples[current-1] != end && (end != 0 || strictRIC)) {       // if end is zero, presume it was never set and hence is not an error
-      reverseError="Steim2 reverse integration error is="+samples[current-1]+"!="+end+" expected at "+(current-1);
-      //System.out.println("Steim2 reverse integration error is="+samples[current-1]+"!="+end+" rev constant");
-      if(traceBackErrors) 
-        new RuntimeException("Steim2 rev int err (non-fatal) is="+samples[current-1]+"!="+end+" rev constant").printStackTrace();
-    }
-    if(current != numSamples) {
-      sampleCountError="Steim2 sample count error got "+current+" expected "+numSamples;
-      //System.out.println(sampleCountError);
-      if(traceBackErrors) 
-        new RuntimeException("Steim2 sample Count err (non-fatal) is="+current+" expected"+numSamples).printStackTrace();
-    }
+    decoders.get().decode(b, 0, b.length, numSamples, swapBytes, bias, samples, 0);
 		return samples;
 	}
 
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+
+package seed;
+
+import java.nio.ByteBuffer;
+
+/**
+ *  Allocation free Steim2 decoder, see {@link SteimDecoder}.
+ *  <p>
+ *  Unlike the static {@link Steim2#decode(byte[],int,boolean,int)}, the
+ *  reverse integration and sample count errors are reported through the 
+ *  decoder's {@link SteimDecodeResult} rather than static fields.
+ */
+public class Steim2Decoder extends SteimDecoder {
+
+  protected void decodeFrames(ByteBuffer b, int offset, int numFrames, boolean reverse) throws SteimException {
+    int end = 0;
+    int i;
+    for (i=0; i< numFrames && !isFull(); i++ ) {
+      int frame = offset + i*64;
+      int nibbles = word(b, frame, reverse);
+      startFrame();
+      for (int w=0; w<16; w++) {
+        int pos = frame + w*4;
+        int tempInt;
+        switch ((nibbles >> (30 - w*2)) & 0x03) {
+          case 0:
+            // header info: in frame 0 word 1 is X(0) and word 2 is X(n). As in Steim2.extractSamples(),
+            // one further header word ahead of the first difference of frame 0 is taken as d(0)
+            if (i == 0 && w == 1) setX0(word(b, pos, reverse));
+            else if (i == 0 && w == 2) end = word(b, pos, reverse);
+            else if (i == 0 && w > 2 && getCurrent() == 0) diff(word(b, pos, reverse));
+            break;
+          case 1:   // 4 one byte differences
+            diff(b.get(pos));
+            diff(b.get(pos+1));
+            diff(b.get(pos+2));
+            diff(b.get(pos+3));
+            break;
+          case 2:
+            tempInt = word(b, pos, reverse);
+            switch ((tempInt >> 30) & 0x03) {
+              case 1:   // 1 thirty bit difference
+                diff((tempInt << 2) >> 2);
+                break;
+              case 2:   // 2 fifteen bit differences
+                diff((tempInt << 2) >> 17);
+                diff((tempInt << 17) >> 17);
+                break;
+              case 3:   // 3 ten bit differences
+                diff((tempInt << 2) >> 22);
+                diff((tempInt << 12) >> 22);
+                diff((tempInt << 22) >> 22);
+                break;
+              default:
+            }
+            break;
+          case 3:
+            tempInt = word(b, pos, reverse);
+            switch ((tempInt >> 30) & 0x03) {
+              case 0:   // 5 six bit differences
+                for (int d=0; d<5; d++) diff((tempInt << (2+d*6)) >> 26);
+                break;
+              case 1:   // 6 five bit differences
+                for (int d=0; d<6; d++) diff((tempInt << (2+d*5)) >> 27);
+                break;
+              case 2:   // 7 four bit differences, with 2 unused bits
+                for (int d=0; d<7; d++) diff((tempInt << (4+d*4)) >> 28);
+                break;
+              default:
+            }
+            break;
+          default:
+        }
+      }
+      if(i == 0) endFirstFrame();   // only a difference of frame 0 can seed X(-1)
+      endFrame(i);
+    }
+    result.setFrameCount(i);
+    int current = getCurrent();
+    if(current <= 0) {
+      throw new SteimException("Steim2 found no samples in block");
+    }
+    int lastSample = getLastValue();
+    if(lastSample != end && (end != 0 || Steim2.strictRIC)) {       // if end is zero, presume it was never set and hence is not an error
+      result.setReverseError("Steim2 reverse integration error is="+lastSample+"!="+end+" expected at "+(current-1));
+      if(Steim2.traceBackErrors) 
+        new RuntimeException("Steim2 rev int err (non-fatal) is="+lastSample+"!="+end+" rev constant").printStackTrace();
+    }
+    if(current != getNumSamples()) {
+      result.setSampleCountError("Steim2 sample count error got "+current+" expected "+getNumSamples());
+      if(Steim2.traceBackErrors) 
+        new RuntimeException("Steim2 sample Count err (non-fatal) is="+current+" expected"+getNumSamples()).printStackTrace();
+    }
+  }
+}
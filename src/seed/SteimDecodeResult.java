@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+
+package seed;
+
+/**
+ *  Outcome of a single Steim decode. Holds the number of samples produced,
+ *  the non-fatal integration/sample count errors and the per frame statistics
+ *  which {@link Steim2} used to keep in static fields.
+ *  <p>
+ *  A decoder reuses its result object, so the values are only valid until the
+ *  next decode on the same decoder.
+ */
+public class SteimDecodeResult {
+  public static final int MAX_FRAMES = 64;
+
+  private int sampleCount;
+  private int frameCount;
+  private int xminus1;
+  private String reverseError;
+  private String sampleCountError;
+  private final int [] frameNsamp = new int[MAX_FRAMES];
+  private final int [] frameReverse = new int[MAX_FRAMES];
+  private final int [] frameForward = new int[MAX_FRAMES];
+
+  /** clear the result ahead of a new decode */
+  void reset() {
+    sampleCount = 0;
+    frameCount = 0;
+    xminus1 = 0;
+    reverseError = null;
+    sampleCountError = null;
+    for(int i=0; i<MAX_FRAMES; i++) {frameReverse[i]=2147000000; frameNsamp[i] = 0;frameForward[i]=-2147000000;}
+  }
+  void setSampleCount(int n) {sampleCount=n;}
+  void setFrameCount(int n) {frameCount=n;}
+  void setXminus1(int x) {xminus1=x;}
+  void setReverseError(String s) {reverseError=s;}
+  void setSampleCountError(String s) {sampleCountError=s;}
+  void setFrame(int i, int nsamp, int forward, int reverse) {
+    frameNsamp[i]=nsamp; frameForward[i]=forward; frameReverse[i]=reverse;
+  }
+
+  /** @return the number of samples written by the decode */
+  public int getSampleCount() {return sampleCount;}
+  /** @return the number of frames which were examined */
+  public int getFrameCount() {return frameCount;}
+  /** @return the X(-1) value the first difference was integrated from */
+  public int getXminus1() {return xminus1;}
+  /** @return true if the decode had either a reverse integration or a sample count error*/
+  public boolean hadError() {return (reverseError != null || sampleCountError != null);}
+  /** return if the decode had a reverse integration error, this error does not cause a SteimException
+   *@return true if the decode had a reverse integeration error*/
+  public boolean hadReverseError() {return (reverseError != null);}
+  /** @return The text describing the reverse integration error*/
+  public String getReverseError() {return (reverseError == null? "": reverseError);}
+  /** return if the decode had a sample count error, this error does not cause a SteimException
+   *@return true if the decode had a sample count error*/
+  public boolean hadSampleCountError() {return (sampleCountError != null);}
+  /** @return The text describing the sample count error*/
+  public String getSampleCountError() {return (sampleCountError == null? "": sampleCountError);}
+  /** @return An array with the number of samples in each frame of the decode */
+  public int [] getFrameNsamp() {return frameNsamp;}
+  /** @return An array with the reverse integration constants (last sample) of each frame */
+  public int [] getFrameReverse() {return frameReverse;}
+  /** @return An array with the forward integration constants (first sample) of each frame */
+  public int [] getFrameForward() {return frameForward;}
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+
+package seed;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ *  Base of the allocation free Steim decoders.
+ *  <p>
+ *  A decoder keeps all of its state in the instance and integrates the
+ *  differences of each frame straight into a caller supplied int array, or into
+ *  the arrays of a {@link SteimSampleSink}. The non-fatal errors are reported
+ *  through its {@link SteimDecodeResult}. Nothing is allocated per frame
+ *  (nor per record when decoding from a ByteBuffer).
+ *  <p>
+ *  An instance is not thread safe: give each thread its own decoder.
+ */
+public abstract class SteimDecoder {
+  protected final SteimDecodeResult result = new SteimDecodeResult();
+  private ByteBuffer wrapped;
+
+  // output state used by diff()
+  private SteimSampleSink sink;
+  private int [] out;
+  private int outStart;
+  private int outPos;
+  private int outEnd;
+  private int numSamples;
+  private int current;
+  private int lastValue;
+  private boolean seedFromX0;
+  private int x0;
+  private int frameStart;
+  private int frameForward;
+
+  /** @return the result of the last decode, reused by the next decode */
+  public SteimDecodeResult getResult() {return result;}
+
+  /**
+   *  Decode frames held in a byte array.
+   *  @param b the array holding the frames
+   *  @param offset offset of the first frame in <b>b</b>
+   *  @param length number of bytes of frames, a multiple of 64
+   *  @param numSamples the number of samples to decode
+   *  @param swapBytes if true the frames are little endian
+   *  @param bias the first difference value will be computed from this value.
+   *  If set to 0, the X(0) constant is used instead.
+   *  @param samples the array to decode into
+   *  @param samplesOffset where in <b>samples</b> the first sample goes
+   *  @return the result of this decode (reused by the next decode)
+   *  @throws SteimException if the frames cannot be decoded
+   */
+  public SteimDecodeResult decode(byte [] b, int offset, int length, int numSamples, boolean swapBytes, int bias,
+      int [] samples, int samplesOffset) throws SteimException {
+    return decode(wrap(b), offset, length, numSamples, swapBytes, bias, samples, samplesOffset);
+  }
+
+  /**
+   *  Decode frames held in a ByteBuffer (for instance a mapped file). Only
+   *  absolute reads are used, so the position, limit and order of <b>b</b> are
+   *  left alone.
+   *  @param b the buffer holding the frames
+   *  @param offset absolute offset of the first frame in <b>b</b>
+   *  @param length number of bytes of frames, a multiple of 64
+   *  @param numSamples the number of samples to decode
+   *  @param swapBytes if true the frames are little endian
+   *  @param bias the first difference value will be computed from this value.
+   *  If set to 0, the X(0) constant is used instead.
+   *  @param samples the array to decode into
+   *  @param samplesOffset where in <b>samples</b> the first sample goes
+   *  @return the result of this decode (reused by the next decode)
+   *  @throws SteimException if the frames cannot be decoded
+   */
+  public SteimDecodeResult decode(ByteBuffer b, int offset, int length, int numSamples, boolean swapBytes, int bias,
+      int [] samples, int samplesOffset) throws SteimException {
+    if(samplesOffset < 0 || samples.length - samplesOffset < numSamples) 
+      throw new SteimException("output array too small for "+numSamples+" samples at "+samplesOffset);
+    sink = null;
+    out = samples;
+    outStart = samplesOffset;
+    outEnd = samplesOffset + numSamples;
+    return run(b, offset, length, numSamples, swapBytes, bias);
+  }
+
+  /**
+   *  Decode frames held in a ByteBuffer into the arrays of a sink.
+   *  @param b the buffer holding the frames
+   *  @param offset absolute offset of the first frame in <b>b</b>
+   *  @param length number of bytes of frames, a multiple of 64
+   *  @param numSamples the number of samples to decode
+   *  @param swapBytes if true the frames are little endian
+   *  @param bias the first difference value will be computed from this value.
+   *  If set to 0, the X(0) constant is used instead.
+   *  @param samples the sink receiving the samples
+   *  @return the result of this decode (reused by the next decode)
+   *  @throws SteimException if the frames cannot be decoded
+   */
+  public SteimDecodeResult decode(ByteBuffer b, int offset, int length, int numSamples, boolean swapBytes, int bias,
+      SteimSampleSink samples) throws SteimException {
+    sink = samples;
+    out = sink.getSampleArray();
+    outStart = sink.getSampleOffset();
+    outEnd = out.length;
+    return run(b, offset, length, numSamples, swapBytes, bias);
+  }
+
+  /** @return a buffer wrapping b, reused for as long as the same array is passed in */
+  protected ByteBuffer wrap(byte [] b) {
+    if(wrapped == null || wrapped.array() != b) wrapped = ByteBuffer.wrap(b);
+    return wrapped;
+  }
+
+  private SteimDecodeResult run(ByteBuffer b, int offset, int length, int numSamples, boolean swapBytes, int bias) 
+      throws SteimException {
+    if (length % 64 != 0) {
+      throw new SteimException("encoded data length is not multiple of 64 bytes (" + length + ")"); 
+    }
+    result.reset();
+    outPos = outStart;
+    if(numSamples == 0) return result;
+    int numFrames = length / 64;
+    if(numFrames < 1 || numFrames > SteimDecodeResult.MAX_FRAMES) throw new SteimException("# frames unknown = "+numFrames);
+
+    this.numSamples = numSamples;
+    current = 0;
+    lastValue = bias;           // X(-1)
+    seedFromX0 = (bias == 0);   // if bias is zero, X(-1) = X(0) - d(0)
+    x0 = 0;
+    try {
+      // getInt() honors the buffer's order, the frames are big endian unless swapBytes
+      decodeFrames(b, offset, numFrames, (b.order() == ByteOrder.LITTLE_ENDIAN) != swapBytes);
+    } finally {
+      if(sink != null && outPos > outStart) sink.samplesWritten(outPos - outStart);
+      sink = null;
+      out = null;
+    }
+    result.setSampleCount(current);
+    return result;
+  }
+
+  /**
+   *  Decode the frames, passing each difference to {@link #diff(int)} and the
+   *  X(0) constant to {@link #setX0(int)}. Each frame is bracketed by 
+   *  {@link #startFrame()} and {@link #endFrame(int)}.
+   *  @param b the buffer holding the frames
+   *  @param offset absolute offset of the first frame in <b>b</b>
+   *  @param numFrames the number of 64 byte frames
+   *  @param reverse if true each word read from <b>b</b> needs its bytes reversed
+   *  @throws SteimException if the frames cannot be decoded
+   */
+  protected abstract void decodeFrames(ByteBuffer b, int offset, int numFrames, boolean reverse) throws SteimException;
+
+  /** @return the number of samples decoded so far */
+  protected final int getCurrent() {return current;}
+  /** @return the number of samples asked for */
+  protected final int getNumSamples() {return numSamples;}
+  /** @return true once numSamples samples have been decoded */
+  protected final boolean isFull() {return current >= numSamples;}
+  /** @return the last sample decoded so far */
+  protected final int getLastValue() {return lastValue;}
+  /** @param x The X(0) forward integration constant of frame 0 */
+  protected final void setX0(int x) {x0 = x;}
+
+  /** stop integrating X(-1) from X(0): called at the end of frame 0 */
+  protected final void endFirstFrame() {seedFromX0 = false;}
+
+  /** integrate one difference into the output, X(n) = X(n-1) + d(n) */
+  protected final void diff(int d) {
+    if(current >= numSamples) return;
+    if(seedFromX0) {
+      lastValue = x0 - d;
+      seedFromX0 = false;
+    }
+    if(current == 0) result.setXminus1(lastValue);
+    lastValue += d;
+    if(current == frameStart) frameForward = lastValue;
+    if(outPos == outEnd) {      // only happens with a sink
+      sink.samplesWritten(outPos - outStart);
+      out = sink.getSampleArray();
+      outStart = outPos = sink.getSampleOffset();
+      outEnd = out.length;
+    }
+    out[outPos++] = lastValue;
+    current++;
+  }
+
+  /** start the statistics of the next frame, see endFrame() */
+  protected final void startFrame() {
+    frameStart = current;
+    frameForward = -2147000000;
+  }
+
+  /** record the statistics of the frame started by startFrame()
+   *@param i The frame number */
+  protected final void endFrame(int i) {
+    result.setFrame(i, current - frameStart, frameForward, (current > 0 ? lastValue : 2147000000));
+  }
+
+  protected static int word(ByteBuffer b, int pos, boolean reverse) {
+    int v = b.getInt(pos);
+    return reverse ? Integer.reverseBytes(v) : v;
+  }
+  protected static short half(ByteBuffer b, int pos, boolean reverse) {
+    short v = b.getShort(pos);
+    return reverse ? Short.reverseBytes(v) : v;
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+
+package seed;
+
+/**
+ *  Destination for samples decoded by a {@link SteimDecoder} which is made of
+ *  several arrays, such as the fixed size blocks of a time series. The decoder
+ *  writes into getSampleArray() from getSampleOffset() on and reports how many
+ *  samples it wrote whenever that array is full, or when the decode is over.
+ */
+public interface SteimSampleSink {
+  /** @return the array the next samples are to be written to */
+  public int [] getSampleArray();
+  /** @return the index of the first free element of getSampleArray() */
+  public int getSampleOffset();
+  /** called after count samples were written to getSampleArray() starting at getSampleOffset()
+   *@param count The number of samples written */
+  public void samplesWritten(int count);
+}
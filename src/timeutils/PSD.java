@@ -1,40 +1,253 @@
 
 package timeutils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
 import freq.Cmplx;
+import freq.RealFFT;
 
 /** 
+ * PSD - Smoothed, segment averaged cross-power spectra.
+ *
+ * A PSD is computed for a pair of time series (the auto-spectrum when both are
+ * the same array), or for a set of channels, in which case the spectra of every
+ * pair of channels (auto and cross) are computed from a single FFT per channel 
+ * per segment.
+ *
  * @author Mike Hagerty    <hagertmb@bc.edu>
  */
 public class PSD 
 {
-    Cmplx[]  psd   = null;
+    // Number of segments to work on at once (1 = sequential)
+    private static int parallelism = 1;
+    // Segment buffer sets that may exist, over all PSDs, on top of the one each PSD always has
+    private static int freeSegmentBuffers = 0;
+    // Used when a PSD is computed outside of any fork-join pool (made once, never replaced)
+    private static ForkJoinPool segmentPool = null;
+
+    Cmplx[]  psd   = null;  // The spectrum of the first pair as Cmplx[]
+    double[][] data = null; // One time series per channel
+    int[]    pairX = null;  // Channel pairs (x, y) to compute xfft * conjg(yfft) for
+    int[]    pairY = null;
+    double[][] psdRe = null;  // Real part of the smoothed cross-power spectrum of each pair
+    double[][] psdIm = null;  // Imag part ...
     double[] freq  = null;
-    double[] dataX = null;
-    double[] dataY = null;
     double df;
     double dt;
     int ndata;
 
     // constructor(s)
+    /**
+     * Compute the cross-power spectrum of dataX and dataY. If both are the same
+     * array the auto-spectrum is computed from a single FFT per segment.
+     */
     public PSD(double[] dataX, double[] dataY, double dt)
     {
         if (dataX.length != dataY.length) {
             throw new RuntimeException("== PSD Error: ndataX != ndataY --> Can't create new PSD");
         }
+        if (dataX == dataY) {
+            this.data  = new double[][] {dataX};
+            this.pairX = new int[] {0};
+            this.pairY = new int[] {0};
+        }
+        else {
+            this.data  = new double[][] {dataX, dataY};
+            this.pairX = new int[] {0};
+            this.pairY = new int[] {1};
+        }
+        init(dt);
+    }
+
+    /**
+     * Compute the auto and cross-power spectra of every pair of channels (i <= j),
+     * doing a single FFT per channel per segment.
+     *
+     * @param data  One time series per channel, all of the same length
+     */
+    public PSD(double[][] data, double dt)
+    {
+        for (int i=1; i<data.length; i++) {
+            if (data[i].length != data[0].length) {
+                throw new RuntimeException("== PSD Error: ndata[" + i + "] != ndata[0] --> Can't create new PSD");
+            }
+        }
+        this.data  = data;
+        setAllPairs(data.length);
+        init(dt);
+    }
+
+    /**
+     * Finish a PSD of every pair of nchannels channels (i <= j) whose segment 
+     * spectra have been summed elsewhere (see PSDAccumulator).
+     */
+    PSD(int nchannels, double dt, double[][] sumRe, double[][] sumIm, double wss, int nwin, 
+        int nfft, int nseg_pnts)
+    {
+        setAllPairs(nchannels);
+        this.dt = dt;
+        finish(sumRe, sumIm, wss, nwin, nfft, nseg_pnts);
+    }
+
+    private void setAllPairs(int nchannels)
+    {
+        int npairs = nchannels * (nchannels + 1) / 2;
+        this.pairX = new int[npairs];
+        this.pairY = new int[npairs];
+        int p = 0;
+        for (int i=0; i<nchannels; i++) {
+            for (int j=i; j<nchannels; j++) {
+                pairX[p] = i;
+                pairY[p] = j;
+                p++;
+            }
+        }
+    }
+
+    private void init(double dt)
+    {
         if (dt <= 0.) {
             throw new RuntimeException("== PSD Error: Invalid dt --> Can't create new PSD");
         }
-        this.dataX = dataX;
-        this.dataY = dataY;
-        this.ndata = dataX.length;
+        this.ndata = data[0].length;
         this.dt    = dt;
         computePSD();
     }
 
-    public final Cmplx[] getSpectrum() {
+    /**
+     * Set the number of segments processed in parallel by every PSD computed from now on.
+     * A PSD computed from within a fork-join pool (e.g., by a StationDayTask) forks its
+     * segments into that pool, otherwise they are run in a shared pool that is made 
+     * (with the parallelism of the time) the first time it is needed.
+     *
+     * Every PSD has one set of segment buffers (each channel's window + its FFT). The
+     * extra sets needed to work on several segments at once are shared by all PSDs in
+     * flight: at most (threads - 1) of them exist at any time, and a PSD that can't get
+     * one works on fewer segments at once (down to 1).
+     *
+     * The segment spectra are always summed in segment order, so the result is
+     * identical to that of the sequential computation.
+     *
+     * @param threads  Number of segments to work on at once (1 = sequential)
+     */
+    public static synchronized void setParallelism(int threads) {
+        threads = Math.max(1, threads);
+        freeSegmentBuffers += threads - parallelism;   // < 0 until enough sets in use are released
+        parallelism = threads;
+    }
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Reserve up to wanted extra segment buffer sets
+     *
+     * @return The number of sets reserved (never waits), to be handed back to releaseSegmentBuffers()
+     */
+    static synchronized int acquireSegmentBuffers(int wanted) {
+        int granted = Math.max(0, Math.min(wanted, freeSegmentBuffers));
+        freeSegmentBuffers -= granted;
+        return granted;
+    }
+    static synchronized void releaseSegmentBuffers(int count) {
+        freeSegmentBuffers += count;
+    }
+
+    private static synchronized ForkJoinPool getSegmentPool() {
+        if (segmentPool == null) {
+            segmentPool = new ForkJoinPool(parallelism);
+        }
+        return segmentPool;
+    }
+
+    /**
+     * Run the segment tasks of a wave: forked into the caller's fork-join pool
+     * if it is a worker of one, else in the shared segment pool
+     */
+    static void invokeSegments(List<? extends ForkJoinTask<?>> tasks) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(tasks);
+        }
+        else {
+            ForkJoinPool pool = getSegmentPool();
+            for (ForkJoinTask<?> task : tasks) {
+                pool.execute(task);
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+    }
+
+    /**
+     * @return The smoothed cross-power spectrum as Cmplx[] (built on first request)
+     */
+    public final synchronized Cmplx[] getSpectrum() {
+        if (psd == null) {
+            psd = getSpectrum(pairX[0], pairY[0]);
+        }
         return psd;
     }
+    /**
+     * @return The smoothed cross-power spectrum of channels i and j as a new Cmplx[]
+     */
+    public final Cmplx[] getSpectrum(int i, int j) {
+        double[] re = getSpectrumReal(i, j);
+        double[] im = getSpectrumImag(i, j);
+        Cmplx[] spectrum = new Cmplx[re.length];
+        for (int k=0; k<spectrum.length; k++) {
+            spectrum[k] = new Cmplx(re[k], im[k]);
+        }
+        return spectrum;
+    }
+    /**
+     * @return The real part of the smoothed cross-power spectrum
+     */
+    public final double[] getSpectrumReal() {
+        return psdRe[0];
+    }
+    /**
+     * @return The imag part of the smoothed cross-power spectrum
+     */
+    public final double[] getSpectrumImag() {
+        return psdIm[0];
+    }
+    /**
+     * @return The real part of the smoothed cross-power spectrum of channels i and j
+     */
+    public final double[] getSpectrumReal(int i, int j) {
+        return psdRe[getPair(i, j)];
+    }
+    /**
+     * @return The imag part of the smoothed cross-power spectrum of channels i and j
+     *         (for i > j this is a negated copy of the (j, i) spectrum)
+     */
+    public final double[] getSpectrumImag(int i, int j) {
+        double[] im = psdIm[getPair(i, j)];
+        if (i > j) {
+            double[] conjg = new double[im.length];
+            for (int k=0; k<im.length; k++) {
+                conjg[k] = -im[k];
+            }
+            im = conjg;
+        }
+        return im;
+    }
+    private int getPair(int i, int j) {
+        int x = Math.min(i, j);
+        int y = Math.max(i, j);
+        for (int p=0; p<pairX.length; p++) {
+            if (pairX[p] == x && pairY[p] == y) {
+                return p;
+            }
+        }
+        throw new IllegalArgumentException("== PSD Error: No spectrum was computed for channels (" + i + ", " + j + ")");
+    }
     public final double[] getFreq() {
         return freq;
     }
@@ -43,9 +256,11 @@ public class PSD
     }
 
     public double[] getMagnitude() {
+        double[] re = psdRe[0];
+        double[] im = psdIm[0];
         double[] specMag = new double[ freq.length ];
         for (int k=0; k<freq.length; k++) {
-            specMag[k] = psd[k].mag();
+            specMag[k] = Math.sqrt(re[k] * re[k] + im[k] * im[k]);
         }
         return specMag;
     }
@@ -61,6 +276,9 @@ public class PSD
  *  frequency smoothing --> has same effect with nsegs replaced by nfrequencies to smooth
  *  The combination of both will reduce error by sqrt(1 / nfreqs * nsegs)
  *
+ * The FFTs are done by a (shared) RealFFT in one work buffer per channel allocated 
+ * once per PSD, and the spectra of every pair are summed in primitive arrays.
+ *
  * @psd[f] - Contains smoothed crosspower-spectral density
  *           computed for nf = nfft/2 + 1 frequencies (+ve freqs + DC + Nyq)
  *
@@ -80,65 +298,112 @@ public class PSD
      // For 13 windows with 75% overlap, each window will contain ndata/4 points
      // ** Still need to handle the case of multiple datasets with gaps!
 
-        int nseg_pnts = ndata / 4;  
+        int nseg_pnts = getSegmentLength(ndata);
         int noff      = nseg_pnts / 4;  
-
-     // Find smallest power of 2 >= nseg_pnts:
-        int nfft=1;
-        while (nfft < nseg_pnts) nfft = (nfft << 1);
+        int nfft      = getFFTLength(nseg_pnts);
 
      // We are going to do an nfft point FFT which will return 
      //   nfft/2+1 +ve frequencies (including  DC + Nyq)
         int nf=nfft/2 + 1;
         df = 1./(nfft*dt);
 
-        double[] xseg = new double[nseg_pnts];
-        double[] yseg = new double[nseg_pnts];
+        RealFFT fft = RealFFT.getInstance(nfft);
 
-        Cmplx[]  xfft = null;
-        Cmplx[]  yfft = null;
-                 psd  = new Cmplx[nf];
+        int npairs = pairX.length;
+        double[][] sumRe = new double[npairs][nf];
+        double[][] sumIm = new double[npairs][nf];
         double   wss  = 0.;
+        int      nwin = 0;
 
-        int iwin=0;
-        int ifst=0;
-        int ilst=nseg_pnts-1;
-        int offset = 0;
-
-// Initialize the Cmplx PSD
-       for(int k = 0; k < nf; k++){
-            psd[k] = new Cmplx(0., 0.);
+        int threads = getParallelism();
+        if (threads > 1 && noff > 0) {
+            int nsegs = (ndata - nseg_pnts) / noff + 1;    // Same windows as the loop below
+            wss  = parallelSegments(fft, nseg_pnts, noff, nsegs, threads, sumRe, sumIm);
+            nwin = Math.max(nsegs, 0);
+        }
+        else {
+            Segment segment = new Segment(fft, nseg_pnts);
+
+            int iwin=0;
+            int ifst=0;
+            int ilst=nseg_pnts-1;
+            int offset = 0;
+
+            while (ilst < ndata) // ndata needs to come from largest dataset
+            {
+               segment.compute(offset);
+               wss = segment.wss;
+               segment.addTo(sumRe, sumIm);
+
+               iwin ++;
+               offset += noff;
+               ilst   += noff;
+               ifst   += noff;
+            } //end while
+            nwin = iwin;    // Should have nwin = 13
         }
 
-        while (ilst < ndata) // ndata needs to come from largest dataset
-        {
-           for(int k=0; k<nseg_pnts; k++) {     // Load current window
-            xseg[k] = dataX[k+offset]; 
-            yseg[k] = dataY[k+offset]; 
-           }
-           Timeseries.detrend(xseg);
-           Timeseries.detrend(yseg);
-           Timeseries.debias(xseg);
-           Timeseries.debias(yseg);
-           wss = Timeseries.costaper(xseg,.10);
-           wss = Timeseries.costaper(yseg,.10);
+        finish(sumRe, sumIm, wss, nwin, nfft, nseg_pnts);
+
+    } // end computePSD
+
+/**
+ * @return The number of points in each of the 13 (75% overlapping) segments of ndata points
+ */
+    static int getSegmentLength(int ndata) {
+        return ndata / 4;
+    }
+
+/**
+ * @return The smallest power of 2 >= nseg_pnts
+ */
+    static int getFFTLength(int nseg_pnts) {
+        int nfft=1;
+        while (nfft < nseg_pnts) nfft = (nfft << 1);
+        return nfft;
+    }
+
+/**
+ * Detrend, debias and taper seg[] (in place) then FFT it into segfft[]
+ *
+ * @return The taper window weight (wss)
+ */
+    static double transformSegment(double[] seg, double[] segfft, RealFFT fft) {
+        int nseg_pnts = seg.length;
+        Timeseries.detrend(seg);
+        Timeseries.debias(seg);
+        double wss = Timeseries.costaper(seg,.10);
 // MTH: Maybe want to assert here that wss > 0 to avoid divide-by-zero below ??
 
-        // fft2 returns just the (nf = nfft/2 + 1) positive frequencies
-           xfft = Cmplx.fft2(xseg);
-           yfft = Cmplx.fft2(yseg);
+     // forward() returns just the (nf = nfft/2 + 1) positive frequencies
+        System.arraycopy(seg, 0, segfft, 0, nseg_pnts);
+        Arrays.fill(segfft, nseg_pnts, segfft.length, 0.);
+        fft.forward(segfft);
+        return wss;
+    }
 
-        // Load up the 1-sided PSD:
-           for(int k = 0; k < nf; k++){
-                psd[k]= Cmplx.add(psd[k], Cmplx.mul(xfft[k], yfft[k].conjg()) );
-           }
+/**
+ * Add the 1-sided cross-power of a segment, xfft[k] * conjg(yfft[k]), to (re[k], im[k])
+ */
+    static void addCrossPower(double[] xfft, double[] yfft, double[] re, double[] im) {
+        for(int k = 0; k < re.length; k++){
+            double xr = xfft[2*k];
+            double xi = xfft[2*k+1];
+            double yr = yfft[2*k];
+            double yi = yfft[2*k+1];
+            re[k] += xr * yr + xi * yi;
+            im[k] += xi * yr - xr * yi;
+        }
+    }
+
+/**
+ * Normalize and smooth the summed segment spectra of each pair
+ */
+    private void finish(double[][] sumRe, double[][] sumIm, double wss, int nwin, int nfft, int nseg_pnts) {
 
-           iwin ++;
-           offset += noff;
-           ilst   += noff;
-           ifst   += noff;
-        } //end while
-        int nwin = iwin;    // Should have nwin = 13
+        int npairs = pairX.length;
+        int nf = nfft/2 + 1;
+        df = 1./(nfft*dt);
 
      // Divide the summed psd[]'s by the number of windows (=13) AND
      //   Normalize the PSD ala Bendat & Piersol, to units of (time series)^2 / Hz AND
@@ -152,20 +417,35 @@ public class PSD
         freq = new double[nf];
 
         for(int k = 0; k < nf; k++){
-            psd[k]  = Cmplx.mul(psd[k], psdNormalization);
             freq[k] = (double)k * df;
         }
 
-     // We have psdC[f] so this is a good point to do any smoothing over neighboring frequencies:
+        psdRe = new double[npairs][];
+        psdIm = new double[npairs][];
+
+        for (int p = 0; p < npairs; p++) {
+            for(int k = 0; k < nf; k++){
+                sumRe[p][k] *= psdNormalization;
+                sumIm[p][k] *= psdNormalization;
+            }
+            psdRe[p] = smooth(sumRe[p]);
+            psdIm[p] = smooth(sumIm[p]);
+        }
+    }
+
+/**
+ * We have psdC[f] so this is a good point to do any smoothing over neighboring frequencies:
+ */
+    private static double[] smooth(double[] sum) {
+        int nf      = sum.length;
         int nsmooth = 11;
         int nhalf   = 5;
-        int nw = nf - nsmooth;
-        Cmplx[] psdCFsmooth = new Cmplx[nf];
+        double[] smoothed = new double[nf];
 
         int iw=0;
 
         for (iw = 0; iw < nhalf; iw++) {
-            psdCFsmooth[iw]= psd[iw];
+            smoothed[iw] = sum[iw];
         }
 
         // iw is really icenter of nsmooth point window
@@ -173,26 +453,109 @@ public class PSD
             int k1 = iw - nhalf;
             int k2 = iw + nhalf;
 
-            Cmplx sumC = new Cmplx(0., 0.);
+            double sumK = 0.;
             for (int k = k1; k < k2; k++) {
-                sumC = Cmplx.add(sumC, psd[k]);
+                sumK += sum[k];
             }
-            psdCFsmooth[iw]= Cmplx.div(sumC, (double)nsmooth);
+            smoothed[iw] = sumK / (double)nsmooth;
         }
 
      // Copy the remaining point into the smoothed array
         for (; iw < nf; iw++) {
-            psdCFsmooth[iw]= psd[iw];
+            smoothed[iw] = sum[iw];
         }
+        return smoothed;
+    }
 
-     // Copy Frequency smoothed spectrum back into psd[f] and proceed as before
-        for ( int k = 0; k < nf; k++){
-            //psd[k]  = psdCFsmooth[k].mag();
-            psd[k]  = psdCFsmooth[k];
+/**
+ * Work on the segments in waves of up to (threads) segments. Each segment of a wave 
+ * is detrended, tapered and transformed by its own task in its own buffers, then 
+ * the wave's spectra are added to the sums in segment order.
+ * The buffers beyond the first are reserved from the set shared by all PSDs.
+ *
+ * @return The taper window weight (wss)
+ */
+    private double parallelSegments(RealFFT fft, int nseg_pnts, int noff, int nsegs, int threads,
+                                    double[][] sumRe, double[][] sumIm) {
+        double wss = 0.;
+        int extra = acquireSegmentBuffers(Math.min(threads, nsegs) - 1);
+        try {
+            int nbuf = 1 + extra;
+            List<Segment> segments = new ArrayList<Segment>(nbuf);
+            for (int i = 0; i < nbuf; i++) {
+                segments.add( new Segment(fft, nseg_pnts) );
+            }
+
+            for (int first = 0; first < nsegs; first += nbuf) {
+                int nwave = Math.min(nbuf, nsegs - first);
+                List<SegmentTask> tasks = new ArrayList<SegmentTask>(nwave);
+                for (int i = 0; i < nwave; i++) {
+                    tasks.add( new SegmentTask(segments.get(i), (first + i) * noff) );
+                }
+                invokeSegments(tasks);
+             // Deterministic reduction: always in segment order
+                for (int i = 0; i < nwave; i++) {
+                    Segment segment = segments.get(i);
+                    wss = segment.wss;
+                    segment.addTo(sumRe, sumIm);
+                }
+            }
         }
-        //psd[0]=0; // Reset DC
+        finally {
+            releaseSegmentBuffers(extra);
+        }
+        return wss;
+    }
 
-    } // end computePSD
+/**
+ * The work buffers for one segment: the detrended + tapered window of each 
+ * channel and its FFT. Each channel is transformed once per segment, no matter 
+ * how many pairs it is part of.
+ */
+    private class Segment
+    {
+        private RealFFT fft;
+        private double[][] seg;
+        private double[][] segfft;
+        private double wss;
+
+        private Segment(RealFFT fft, int nseg_pnts) {
+            this.fft = fft;
+            seg    = new double[data.length][nseg_pnts];
+            segfft = new double[data.length][fft.getBufferLength()];
+        }
 
-} // end class
+        private void compute(int offset) {
+           for (int i = 0; i < data.length; i++) {
+               System.arraycopy(data[i], offset, seg[i], 0, seg[i].length);     // Load current window
+               wss = transformSegment(seg[i], segfft[i], fft);
+           }
+        }
+
+     // Add the 1-sided cross-power of this segment, xfft[k] * conjg(yfft[k]), to each pair's sums
+        private void addTo(double[][] sumRe, double[][] sumIm) {
+           for (int p = 0; p < pairX.length; p++) {
+               addCrossPower(segfft[pairX[p]], segfft[pairY[p]], sumRe[p], sumIm[p]);
+           }
+        }
+    }
+
+    private static class SegmentTask
+    extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
 
+        private Segment segment;
+        private int offset;
+
+        private SegmentTask(Segment segment, int offset) {
+            this.segment = segment;
+            this.offset  = offset;
+        }
+
+        protected void compute() {
+            segment.compute(offset);
+        }
+    }
+
+} // end class
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2013, United States Geological Survey or
+ * third-party contributors as indicated by the @author tags.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/  >.
+ *
+ */
+package timeutils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+import freq.RealFFT;
+
+/** 
+ * PSDAccumulator - Computes the same smoothed, segment averaged (cross-)power 
+ * spectra as PSD(double[][] data, dt), but from samples handed to it a piece at 
+ * a time, so that the day's time series never need to exist as whole arrays.
+ *
+ * Each of the 13 overlapping segments is detrended, tapered and transformed once 
+ * all channels have reached its end, and its samples are dropped as soon as no 
+ * later segment needs them. The channels should be added in step (e.g., a few 
+ * thousand samples of each channel in turn), otherwise the samples of the 
+ * channels that run ahead are held until the others catch up.
+ *
+ * With PSD.setParallelism(n) > 1 the segments are worked on in waves of n, like 
+ * PSD does: a wave is started once its last segment is complete, each segment 
+ * is transformed by its own task, and the spectra are summed in segment order 
+ * (so the result doesn't depend on n). The price is memory: up to n - 1 more 
+ * segment offsets (quarter segments) of samples are held per channel while a 
+ * wave fills, plus the extra segment buffers (reserved from PSD's shared set).
+ */
+public class PSDAccumulator
+{
+    private int nchannels;
+    private int ndata;
+    private double dt;
+
+    private int nseg_pnts;
+    private int noff;
+    private int nfft;
+    private int nsegs;
+    private int nneeded;       // Samples past the end of the last segment are ignored
+    private RealFFT fft;
+
+    private double[][] buffer; // The samples of each channel from bufferStart on
+    private int bufferStart = 0;
+    private int[] received;    // The number of samples added to each channel so far
+
+    private int nextSegment = 0;
+    private Segment segment;   // The buffers of the first segment of each wave
+    private int[] pairX;
+    private int[] pairY;
+    private double[][] sumRe;
+    private double[][] sumIm;
+    private double wss = 0.;
+
+    /**
+     * @param nchannels  The number of channels (the spectra of every pair i <= j are computed)
+     * @param ndata      The number of samples that will be added to each channel
+     * @param dt         The sample interval (secs)
+     */
+    public PSDAccumulator(int nchannels, int ndata, double dt)
+    {
+        if (dt <= 0.) {
+            throw new RuntimeException("== PSDAccumulator Error: Invalid dt --> Can't create new PSDAccumulator");
+        }
+        this.nchannels = nchannels;
+        this.ndata     = ndata;
+        this.dt        = dt;
+
+        nseg_pnts = PSD.getSegmentLength(ndata);
+        noff      = nseg_pnts / 4;
+        if (noff == 0) {
+            throw new RuntimeException("== PSDAccumulator Error: ndata=" + ndata + " is too short --> Can't create new PSDAccumulator");
+        }
+        nfft      = PSD.getFFTLength(nseg_pnts);
+        nsegs     = (ndata - nseg_pnts) / noff + 1;     // Same windows as PSD
+        nneeded   = (nsegs - 1) * noff + nseg_pnts;
+        fft       = RealFFT.getInstance(nfft);
+
+        buffer   = new double[nchannels][nseg_pnts];
+        received = new int[nchannels];
+        segment  = new Segment();
+
+        int npairs = nchannels * (nchannels + 1) / 2;
+        pairX = new int[npairs];
+        pairY = new int[npairs];
+        int p = 0;
+        for (int i=0; i<nchannels; i++) {
+            for (int j=i; j<nchannels; j++) {
+                pairX[p] = i;
+                pairY[p] = j;
+                p++;
+            }
+        }
+        int nf = nfft/2 + 1;
+        sumRe = new double[npairs][nf];
+        sumIm = new double[npairs][nf];
+    }
+
+    /**
+     * Add the next length samples of channel, then work on any segments that are now complete
+     */
+    public void add(int channel, double[] samples, int offset, int length)
+    {
+        if (buffer == null) {
+            throw new IllegalStateException("== PSDAccumulator Error: getPSD() has already been called");
+        }
+        int nkeep = Math.min(length, Math.max(0, nneeded - received[channel]));
+        if (nkeep > 0) {
+            int used = received[channel] - bufferStart;
+            if (used + nkeep > buffer[channel].length) {
+                double[] grown = new double[Math.max(used + nkeep, 2 * buffer[channel].length)];
+                System.arraycopy(buffer[channel], 0, grown, 0, used);
+                buffer[channel] = grown;
+            }
+            System.arraycopy(samples, offset, buffer[channel], used, nkeep);
+        }
+        received[channel] += length;
+
+        processSegments();
+    }
+
+    /**
+     * @return The number of samples added to channel so far
+     */
+    public int getReceived(int channel)
+    {
+        return received[channel];
+    }
+
+    public int getLength()
+    {
+        return ndata;
+    }
+
+    /**
+     * @return The spectra of every pair of channels. All ndata samples of every channel must have been added.
+     */
+    public PSD getPSD()
+    {
+        if (nextSegment < nsegs) {
+            throw new IllegalStateException("== PSDAccumulator Error: Only " + nextSegment + " of " + nsegs 
+                                            + " segments are complete --> Can't create PSD");
+        }
+        buffer = null;
+        return new PSD(nchannels, dt, sumRe, sumIm, wss, nsegs, nfft, nseg_pnts);
+    }
+
+    private void processSegments()
+    {
+        while (nextSegment < nsegs) {
+         // Segments whose samples have all been added (for every channel)
+            int complete = nsegs;
+            for (int c=0; c<nchannels; c++) {
+                int r = Math.min(received[c], nneeded);
+                complete = Math.min(complete, (r < nseg_pnts) ? 0 : (r - nseg_pnts) / noff + 1);
+            }
+         // Wait for a whole wave (the last one may be short)
+            int nwave = Math.min(PSD.getParallelism(), nsegs - nextSegment);
+            if (complete - nextSegment < nwave) {
+                return;
+            }
+            processWave(nwave);
+
+         // Drop the samples before the start of the next segment
+            int drop = Math.min(nextSegment * noff, nneeded) - bufferStart;
+            for (int c=0; c<nchannels; c++) {
+                int used = Math.min(received[c], nneeded) - bufferStart;
+                System.arraycopy(buffer[c], drop, buffer[c], 0, used - drop);
+            }
+            bufferStart += drop;
+        }
+    }
+
+    /**
+     * Transform the next nwave segments, as many at once as there are segment buffers
+     * for, and add their spectra to the sums in segment order
+     */
+    private void processWave(int nwave)
+    {
+        if (nwave == 1) {
+            segment.compute(nextSegment * noff);
+            segment.addTo();
+            nextSegment++;
+            return;
+        }
+
+        int extra = PSD.acquireSegmentBuffers(nwave - 1);
+        try {
+            List<Segment> segments = new ArrayList<Segment>(1 + extra);
+            segments.add(segment);
+            for (int i = 0; i < extra; i++) {
+                segments.add( new Segment() );
+            }
+            int last = nextSegment + nwave;
+            while (nextSegment < last) {
+                int n = Math.min(segments.size(), last - nextSegment);
+                List<SegmentTask> tasks = new ArrayList<SegmentTask>(n);
+                for (int i = 0; i < n; i++) {
+                    tasks.add( new SegmentTask(segments.get(i), (nextSegment + i) * noff) );
+                }
+                PSD.invokeSegments(tasks);
+             // Deterministic reduction: always in segment order
+                for (int i = 0; i < n; i++) {
+                    segments.get(i).addTo();
+                }
+                nextSegment += n;
+            }
+        }
+        finally {
+            PSD.releaseSegmentBuffers(extra);
+        }
+    }
+
+    /**
+     * The work buffers for one segment: the detrended + tapered window and the FFT of each channel
+     */
+    private class Segment
+    {
+        private double[]   seg    = new double[nseg_pnts];
+        private double[][] segfft = new double[nchannels][fft.getBufferLength()];
+        private double wss;
+
+        private void compute(int start)
+        {
+            for (int c=0; c<nchannels; c++) {
+                System.arraycopy(buffer[c], start - bufferStart, seg, 0, nseg_pnts);     // Load current window
+                wss = PSD.transformSegment(seg, segfft[c], fft);
+            }
+        }
+
+        private void addTo()
+        {
+            PSDAccumulator.this.wss = wss;
+            for (int p=0; p<pairX.length; p++) {
+                PSD.addCrossPower(segfft[pairX[p]], segfft[pairY[p]], sumRe[p], sumIm[p]);
+            }
+        }
+    }
+
+    private static class SegmentTask
+    extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private Segment segment;
+        private int start;
+
+        private SegmentTask(Segment segment, int start)
+        {
+            this.segment = segment;
+            this.start   = start;
+        }
+
+        protected void compute()
+        {
+            segment.compute(start);
+        }
+    }
+}